@@ -0,0 +1,101 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.net.proxy.benchmark;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.net.proxy.ProxySocketFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One connect through a loopback {@link StubProxyServer}: the TCP connect and the
+ * handshake of the {@link org.apache.commons.net.proxy.ProxyAuthenticate} of the scheme.
+ * <p>
+ * <code>-p latency=5</code> delays every handshake reply, a round trip counts 5 ms then.
+ * <code>-p scheme=socks -p pipelining=true</code> is the pipelined SOCKS5 handshake.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProxyHandshakeBenchmark {
+	private static final int TIMEOUT = 5000;
+
+	@Param({ "direct", "http", "socks4", "socks", "ftp" })
+	public String scheme;
+
+	@Param({ "true" })
+	public boolean authentication;
+
+	@Param({ "false" })
+	public boolean pipelining;
+
+	@Param({ "0" })
+	public long latency;
+
+	private StubProxyServer server;
+	private ProxySocketFactory factory;
+	private InetSocketAddress target;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, MalformedURLException {
+		server = new StubProxyServer(scheme);
+		server.setLatency(latency);
+
+		factory = new ProxySocketFactory(server.getProxyUrl(authentication));
+		factory.getConnector().setPipelining(pipelining);
+
+		// The stub proxy does not connect to the target, no name resolution is measured.
+		target = server.isDirect() ? server.getAddress() : new InetSocketAddress("127.0.0.1", 21);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		factory.getConnector().close();
+		server.close();
+	}
+
+	@Benchmark
+	public boolean connect() throws IOException {
+		Socket socket = factory.createSocket();
+		try {
+			socket.connect(target, TIMEOUT);
+			return socket.isConnected();
+		}
+		finally {
+			socket.close();
+		}
+	}
+}
@@ -0,0 +1,136 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.net.proxy.benchmark;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.net.proxy.ProxyConnector;
+import org.apache.commons.net.proxy.ProxySocketFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Connections per second through {@link ProxySocketFactory#createSocket()}: connect,
+ * send <code>payload</code> bytes, read the echo and close, from several threads.
+ * <p>
+ * <code>-p poolSize=8</code> takes the connections to the proxy from the warm pool
+ * of the connector.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class ProxySocketFactoryBenchmark {
+	private static final int TIMEOUT = 5000;
+
+	@Param({ "direct", "http", "socks" })
+	public String scheme;
+
+	@Param({ "0" })
+	public int poolSize;
+
+	@Param({ "0" })
+	public long latency;
+
+	@Param({ "1024" })
+	public int payload;
+
+	private StubProxyServer server;
+	private ProxySocketFactory factory;
+	private InetSocketAddress target;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		server = new StubProxyServer(scheme);
+		server.setLatency(latency);
+
+		ProxyConnector connector = ProxyConnector.create(server.getProxyUrl(true));
+		if(poolSize > 0)
+			connector.setPoolSize(poolSize);
+		factory = new ProxySocketFactory(connector);
+
+		target = server.isDirect() ? server.getAddress() : new InetSocketAddress("127.0.0.1", 21);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		factory.getConnector().close();
+		server.close();
+	}
+
+	/**
+	 * Buffers of a benchmark thread.
+	 */
+	@State(Scope.Thread)
+	public static class Buffers {
+		byte[] request;
+		byte[] response;
+
+		@Setup(Level.Trial)
+		public void setup(ProxySocketFactoryBenchmark benchmark) {
+			request = new byte[benchmark.payload];
+			response = new byte[benchmark.payload];
+		}
+	}
+
+	@Benchmark
+	public int connectAndEcho(Buffers buffers) throws IOException {
+		Socket socket = factory.createSocket();
+		try {
+			socket.setTcpNoDelay(true);
+			socket.connect(target, TIMEOUT);
+
+			OutputStream out = socket.getOutputStream();
+			InputStream in = socket.getInputStream();
+			out.write(buffers.request);
+			out.flush();
+
+			int count = 0;
+			while(count < buffers.response.length) {
+				int n = in.read(buffers.response, count, buffers.response.length - count);
+				if(n < 0)
+					throw new EOFException("echo closed after " + count + " bytes");
+				count += n;
+			}
+			return count;
+		}
+		finally {
+			socket.close();
+		}
+	}
+}
@@ -0,0 +1,311 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.net.proxy.benchmark;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loopback proxy server for the benchmarks.
+ * <p>
+ * The server answers the handshake of the scheme (<code>http</code>, <code>socks4</code>,
+ * <code>socks</code> for SOCKS5 or <code>ftp</code>) with success and echoes the tunnel data,
+ * no connection to the target host is opened. The scheme <code>direct</code> is an echo
+ * server without a handshake, the baseline of a connection without a proxy. Every handshake reply is delayed by
+ * {@link #setLatency(long)} milliseconds, the round trip time of a remote proxy.
+ */
+public class StubProxyServer {
+	private static final Logger LOGGER = LoggerFactory.getLogger(StubProxyServer.class);
+
+	private static final String USER = "user";
+	private static final String PASSWORD = "password";
+
+	private final String scheme;
+	private final ServerSocket serverSocket;
+	private final Set<Socket> connections = Collections.synchronizedSet(new HashSet<Socket>());
+
+	private volatile long latency;
+	private volatile boolean running = true;
+
+	public StubProxyServer(String scheme) throws IOException {
+		this.scheme = scheme;
+		this.serverSocket = new ServerSocket(0, 200, InetAddress.getByName("127.0.0.1"));
+
+		Thread acceptor = new Thread("stub-" + scheme + "-" + getPort()) {
+			@Override
+			public void run() {
+				accept();
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public String getScheme() {
+		return scheme;
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * @param authentication with user and password in the url
+	 * @return url of the proxy for {@link org.apache.commons.net.proxy.ProxyConnector}, null for direct
+	 */
+	public String getProxyUrl(boolean authentication) {
+		if(isDirect())
+			return null;
+		return scheme + "://" + (authentication ? USER + ":" + PASSWORD + "@" : "") + "127.0.0.1:" + getPort() + "/";
+	}
+
+	public boolean isDirect() {
+		return scheme.equals("direct");
+	}
+
+	public InetSocketAddress getAddress() {
+		return new InetSocketAddress(serverSocket.getInetAddress(), getPort());
+	}
+
+	public long getLatency() {
+		return latency;
+	}
+
+	/**
+	 * Milliseconds before every handshake reply.
+	 */
+	public void setLatency(long latency) {
+		this.latency = latency;
+	}
+
+	public void close() {
+		running = false;
+		closeQuietly(serverSocket);
+
+		Socket[] sockets;
+		synchronized (connections) {
+			sockets = connections.toArray(new Socket[connections.size()]);
+		}
+		for(Socket socket : sockets)
+			closeQuietly(socket);
+	}
+
+	private void accept() {
+		while(running) {
+			final Socket socket;
+			try {
+				socket = serverSocket.accept();
+			}
+			catch (IOException e) {
+				if(running)
+					LOGGER.warn("Stub " + scheme + " proxy accept failed", e);
+				return;
+			}
+			connections.add(socket);
+
+			Thread thread = new Thread("stub-" + scheme + "-connection") {
+				@Override
+				public void run() {
+					try {
+						socket.setTcpNoDelay(true);
+						serve(socket);
+					}
+					catch (EOFException e) {
+					}
+					catch (SocketException e) {
+					}
+					catch (IOException e) {
+						if(running)
+							LOGGER.warn("Stub " + scheme + " proxy connection failed", e);
+					}
+					finally {
+						connections.remove(socket);
+						closeQuietly(socket);
+					}
+				}
+			};
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	private void serve(Socket socket) throws IOException {
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		OutputStream out = socket.getOutputStream();
+
+		if(!isDirect())
+			handshake(in, out);
+		echo(in, out);
+	}
+
+	private void handshake(DataInputStream in, OutputStream out) throws IOException {
+		if(scheme.startsWith("http"))
+			http(in, out);
+		else if(scheme.startsWith("ftp"))
+			ftp(in, out);
+		else if(scheme.startsWith("socks4"))
+			socks4(in, out);
+		else if(scheme.startsWith("socks"))
+			socks5(in, out);
+		else
+			throw new IOException("unknown scheme " + scheme);
+	}
+
+	private void http(DataInputStream in, OutputStream out) throws IOException {
+		// Request header up to the empty line.
+		int state = 0;
+		while(state < 4) {
+			int c = in.readUnsignedByte();
+			if(c == (state % 2 == 0 ? '\r' : '\n'))
+				state++;
+			else
+				state = c == '\r' ? 1 : 0;
+		}
+		reply(out, "HTTP/1.1 200 Connection established\r\n\r\n".getBytes("US-ASCII"));
+	}
+
+	private void ftp(DataInputStream in, OutputStream out) throws IOException {
+		reply(out, "220 stub proxy\r\n".getBytes("US-ASCII"));
+		while(true) {
+			String line = readLine(in);
+
+			String command = line.length() > 4 ? line.substring(0, 4).toUpperCase() : line.toUpperCase();
+			if(command.equals("USER"))
+				reply(out, "331 password required\r\n".getBytes("US-ASCII"));
+			else if(command.equals("PASS"))
+				reply(out, "230 logged in\r\n".getBytes("US-ASCII"));
+			else if(command.equals("SITE") || command.equals("OPEN")) {
+				reply(out, "200 connected\r\n".getBytes("US-ASCII"));
+				return;
+			}
+			else
+				reply(out, "500 unknown command\r\n".getBytes("US-ASCII"));
+		}
+	}
+
+	private void socks4(DataInputStream in, OutputStream out) throws IOException {
+		byte[] request = new byte[8];
+		in.readFully(request);
+		// User id.
+		while(in.readUnsignedByte() != 0) {
+		}
+		// SOCKS4a host name after the address 0.0.0.x.
+		if(request[4] == 0 && request[5] == 0 && request[6] == 0 && request[7] != 0) {
+			while(in.readUnsignedByte() != 0) {
+			}
+		}
+		reply(out, new byte[] { 0x00, 0x5a, 0, 0, 0, 0, 0, 0 });
+	}
+
+	private void socks5(DataInputStream in, OutputStream out) throws IOException {
+		in.readUnsignedByte();
+		int count = in.readUnsignedByte();
+		boolean userPass = false;
+		for(int i = 0; i < count; i++)
+			userPass |= in.readUnsignedByte() == 0x02;
+		reply(out, new byte[] { 0x05, (byte) (userPass ? 0x02 : 0x00) });
+
+		if(userPass) {
+			in.readUnsignedByte();
+			skip(in, in.readUnsignedByte());
+			skip(in, in.readUnsignedByte());
+			reply(out, new byte[] { 0x01, 0x00 });
+		}
+
+		byte[] request = new byte[4];
+		in.readFully(request);
+		switch (request[3]) {
+		case 0x01:
+			skip(in, 4);
+			break;
+		case 0x03:
+			skip(in, in.readUnsignedByte());
+			break;
+		case 0x04:
+			skip(in, 16);
+			break;
+		default:
+			throw new IOException("address type " + request[3]);
+		}
+		skip(in, 2);
+		reply(out, new byte[] { 0x05, 0x00, 0x00, 0x01, 127, 0, 0, 1, 0, 0 });
+	}
+
+	/**
+	 * Reads a line byte by byte, the tunnel data after it stays in the stream.
+	 */
+	private static String readLine(DataInputStream in) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		int c;
+		while((c = in.readUnsignedByte()) != '\n') {
+			if(c != '\r')
+				sb.append((char) c);
+		}
+		return sb.toString();
+	}
+
+	private static void skip(DataInputStream in, int count) throws IOException {
+		in.readFully(new byte[count]);
+	}
+
+	private void reply(OutputStream out, byte[] reply) throws IOException {
+		long latency = this.latency;
+		if(latency > 0) {
+			try {
+				Thread.sleep(latency);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("interrupted");
+			}
+		}
+		out.write(reply);
+		out.flush();
+	}
+
+	private static void echo(InputStream in, OutputStream out) throws IOException {
+		byte[] buffer = new byte[8192];
+		int n;
+		while((n = in.read(buffer)) >= 0) {
+			out.write(buffer, 0, n);
+			out.flush();
+		}
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		}
+		catch (IOException e) {
+		}
+	}
+}
@@ -0,0 +1,87 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.file.remote.ext;
+
+/**
+ * Chooses the active or the passive data connection by the measured setup time,
+ * from the first command of the data connection (PASV or the proxy BIND request) up to
+ * the connected data socket.
+ * <p>
+ * Both modes are tried {@link #SAMPLES} times, then the faster one is used. Every
+ * {@link #PROBE_INTERVAL}th data connection tries the other mode again, so a mode which
+ * got faster is found. A failed setup counts as {@link #FAILURE_NANOS}.
+ */
+public class DataConnectionModeSelector {
+	static final int SAMPLES = 3;
+	static final int PROBE_INTERVAL = 50;
+	static final long FAILURE_NANOS = 10000L * 1000000L;
+
+	/** Weight of a new sample. */
+	private static final double ALPHA = 0.2;
+
+	private static final int PASSIVE = 0;
+	private static final int ACTIVE = 1;
+
+	/** Moving average of the setup time in nanoseconds by mode. */
+	private final double[] average = new double[2];
+	private final int[] samples = new int[2];
+	private long connections;
+
+	/**
+	 * @return true when the next data connection is active
+	 */
+	public synchronized boolean chooseActive() {
+		connections++;
+
+		if(samples[PASSIVE] < SAMPLES || samples[ACTIVE] < SAMPLES)
+			return samples[ACTIVE] < samples[PASSIVE];
+
+		boolean active = average[ACTIVE] < average[PASSIVE];
+		return connections % PROBE_INTERVAL == 0 ? !active : active;
+	}
+
+	/**
+	 * @param nanos setup time, negative for a failed setup
+	 */
+	public synchronized void record(boolean active, long nanos) {
+		int mode = active ? ACTIVE : PASSIVE;
+		double sample = nanos < 0 ? FAILURE_NANOS : nanos;
+
+		average[mode] = samples[mode] == 0 ? sample : average[mode] + ALPHA * (sample - average[mode]);
+		samples[mode]++;
+	}
+
+	/**
+	 * @return moving average of the passive setup time in milliseconds, 0 before the first sample
+	 */
+	public synchronized double getPassiveSetupTime() {
+		return average[PASSIVE] / 1000000.0;
+	}
+
+	/**
+	 * @return moving average of the active setup time in milliseconds, 0 before the first sample
+	 */
+	public synchronized double getActiveSetupTime() {
+		return average[ACTIVE] / 1000000.0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("DataConnectionModeSelector[passive=%.1fms/%d, active=%.1fms/%d]",
+				getPassiveSetupTime(), samples[PASSIVE], getActiveSetupTime(), samples[ACTIVE]);
+	}
+}
@@ -0,0 +1,251 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.file.remote.ext;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.channels.SocketChannel;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Data connection of the MODE Z transfers: the bytes read are inflated, the bytes written
+ * are deflated. The data connection is one zlib stream, closing the output stream ends it.
+ * <p>
+ * The socket has no channel, a compressed transfer is copied through the streams.
+ */
+final class DeflateSocket extends Socket {
+	private static final Logger LOGGER = LoggerFactory.getLogger(DeflateSocket.class);
+
+	private final Socket socket;
+	private final int level;
+	private final int bufferSize;
+
+	private Inflater inflater;
+	private Deflater deflater;
+	private InputStream input;
+	private OutputStream output;
+
+	/**
+	 * @param level compression level of the written bytes
+	 */
+	DeflateSocket(Socket socket, int level, int bufferSize) {
+		this.socket = socket;
+		this.level = level;
+		this.bufferSize = bufferSize;
+	}
+
+	@Override
+	public synchronized InputStream getInputStream() throws IOException {
+		if(input == null) {
+			final Inflater inflater = new Inflater();
+			this.inflater = inflater;
+			input = new InflaterInputStream(socket.getInputStream(), inflater, bufferSize) {
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					try {
+						return super.read(b, off, len);
+					}
+					catch (EOFException e) {
+						// An empty file without a zlib stream.
+						if(inflater.getBytesRead() == 0)
+							return -1;
+						throw e;
+					}
+				}
+			};
+		}
+		return input;
+	}
+
+	@Override
+	public synchronized OutputStream getOutputStream() throws IOException {
+		if(output == null) {
+			deflater = new Deflater(level);
+			output = new DeflaterOutputStream(socket.getOutputStream(), deflater, bufferSize);
+		}
+		return output;
+	}
+
+	@Override
+	public SocketChannel getChannel() {
+		return null;
+	}
+
+	@Override
+	public InetAddress getInetAddress() {
+		return socket.getInetAddress();
+	}
+
+	@Override
+	public InetAddress getLocalAddress() {
+		return socket.getLocalAddress();
+	}
+
+	@Override
+	public int getPort() {
+		return socket.getPort();
+	}
+
+	@Override
+	public int getLocalPort() {
+		return socket.getLocalPort();
+	}
+
+	@Override
+	public SocketAddress getRemoteSocketAddress() {
+		return socket.getRemoteSocketAddress();
+	}
+
+	@Override
+	public SocketAddress getLocalSocketAddress() {
+		return socket.getLocalSocketAddress();
+	}
+
+	@Override
+	public boolean isConnected() {
+		return socket.isConnected();
+	}
+
+	@Override
+	public boolean isBound() {
+		return socket.isBound();
+	}
+
+	@Override
+	public boolean isClosed() {
+		return socket.isClosed();
+	}
+
+	@Override
+	public boolean isInputShutdown() {
+		return socket.isInputShutdown();
+	}
+
+	@Override
+	public boolean isOutputShutdown() {
+		return socket.isOutputShutdown();
+	}
+
+	@Override
+	public void shutdownInput() throws IOException {
+		socket.shutdownInput();
+	}
+
+	@Override
+	public void shutdownOutput() throws IOException {
+		socket.shutdownOutput();
+	}
+
+	@Override
+	public void setSoTimeout(int timeout) throws SocketException {
+		socket.setSoTimeout(timeout);
+	}
+
+	@Override
+	public int getSoTimeout() throws SocketException {
+		return socket.getSoTimeout();
+	}
+
+	@Override
+	public void setReceiveBufferSize(int size) throws SocketException {
+		socket.setReceiveBufferSize(size);
+	}
+
+	@Override
+	public int getReceiveBufferSize() throws SocketException {
+		return socket.getReceiveBufferSize();
+	}
+
+	@Override
+	public void setSendBufferSize(int size) throws SocketException {
+		socket.setSendBufferSize(size);
+	}
+
+	@Override
+	public int getSendBufferSize() throws SocketException {
+		return socket.getSendBufferSize();
+	}
+
+	@Override
+	public void setTcpNoDelay(boolean on) throws SocketException {
+		socket.setTcpNoDelay(on);
+	}
+
+	@Override
+	public boolean getTcpNoDelay() throws SocketException {
+		return socket.getTcpNoDelay();
+	}
+
+	@Override
+	public void setKeepAlive(boolean on) throws SocketException {
+		socket.setKeepAlive(on);
+	}
+
+	@Override
+	public boolean getKeepAlive() throws SocketException {
+		return socket.getKeepAlive();
+	}
+
+	@Override
+	public void setSoLinger(boolean on, int linger) throws SocketException {
+		socket.setSoLinger(on, linger);
+	}
+
+	@Override
+	public int getSoLinger() throws SocketException {
+		return socket.getSoLinger();
+	}
+
+	/**
+	 * Closes the connection, an output stream not closed before is not finished.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			socket.close();
+		}
+		finally {
+			if(inflater != null) {
+				LOGGER.debug("MODE Z read {} bytes, inflated to {}", inflater.getBytesRead(), inflater.getBytesWritten());
+				inflater.end();
+				inflater = null;
+			}
+			if(deflater != null) {
+				LOGGER.debug("MODE Z deflated {} bytes to {}", deflater.getBytesRead(), deflater.getBytesWritten());
+				deflater.end();
+				deflater = null;
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "DeflateSocket[" + socket + "]";
+	}
+}
@@ -0,0 +1,840 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.file.remote.ext;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.zip.Deflater;
+
+import javax.net.ServerSocketFactory;
+import javax.net.SocketFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSocket;
+
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPCmd;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+import org.apache.commons.net.io.Util;
+import org.apache.commons.net.proxy.HostResolver;
+import org.apache.commons.net.proxy.ProxyConnector;
+import org.apache.commons.net.proxy.ProxyConnector.ProxySocket;
+import org.apache.commons.net.proxy.ProxyServerSocketFactory;
+import org.apache.commons.net.proxy.ProxySocketFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * FTP client of the ftpext endpoint.
+ * <p>
+ * A binary file is transferred between the data connection and a local file with
+ * {@link FileChannel#transferFrom} and {@link FileChannel#transferTo}, not copied
+ * through a heap buffer, when the data socket has a channel
+ * ({@link org.apache.commons.net.proxy.ProxyConnector#setUseChannels(boolean)}) and
+ * the local stream is a {@link FileInputStream} or a {@link FileOutputStream}.
+ * The data timeout is kept, the channel waits in a selector.
+ * <p>
+ * With a {@link SegmentedDownload} a large binary file is read in byte ranges through
+ * several sessions at once.
+ * <p>
+ * The data connections of a {@link ProxySocketFactory} are opened with the data profile of
+ * its connector, the control connection with the control profile.
+ * <p>
+ * In the active mode with a {@link ProxyServerSocketFactory} of a SOCKS proxy the proxy
+ * listens for the data connection (BIND), PORT or EPRT announces the address of the proxy.
+ * A {@link DataConnectionModeSelector} switches between the modes before every data connection.
+ * <p>
+ * With the deflate option the client asks for MODE Z before the first data connection when
+ * the server lists it in FEAT, the data connections are then {@link DeflateSocket}s.
+ * A server without MODE Z transfers in the stream mode.
+ * <p>
+ * With an {@link SSLContext} the client speaks FTPS: TLS is layered over the sockets of the
+ * socket factory, so the control and the data connections go through the proxy tunnels.
+ * The control connection is secured on connect (implicit) or after AUTH TLS (explicit),
+ * PBSZ and PROT follow the login. A data connection resumes the TLS session of its control
+ * connection: the sessions are cached under the server name and the local port of the
+ * control connection, the data sockets are layered with the same name and port.
+ */
+public class FtpClientExt extends FTPClient {
+	private static final Logger LOGGER = LoggerFactory.getLogger(FtpClientExt.class);
+
+	/** Bytes per transfer call. */
+	private static final long TRANSFER_SIZE = 1024 * 1024;
+
+	private static final int COPY_BUFFER_SIZE = 8192;
+
+	/** MODE Z, the value of the later commons-net versions. */
+	public static final int DEFLATE_TRANSFER_MODE = 13;
+
+	/** FTPClient keeps the file type private. */
+	private int fileType = FTP.ASCII_FILE_TYPE;
+
+	private int fileTransferMode = FTP.STREAM_TRANSFER_MODE;
+
+	private SegmentedDownload segmentedDownload;
+
+	/** Data connection of {@link #retrieveRange}. */
+	private volatile Socket rangeSocket;
+
+	/** Factory of the data connections, null when the control factory opens them. */
+	private SocketFactory dataSocketFactory;
+
+	/** FTPClient keeps the data timeout private. */
+	private int dataTimeout = -1;
+
+	private DataConnectionModeSelector dataConnectionModeSelector;
+
+	private boolean deflate;
+	private int deflateLevel = Deflater.DEFAULT_COMPRESSION;
+	/** MODE Z asked for on this connection. */
+	private boolean deflateNegotiated;
+
+	/** TLS of the connections, null for plain FTP. */
+	private SSLContext sslContext;
+	private boolean implicit;
+	private String authValue = "TLS";
+	/** PBSZ and PROT sent after the login, null skips the command. */
+	private Long protectionBufferSize = 0L;
+	private String dataProtection = "P";
+	/** PROT P accepted on this connection. */
+	private boolean dataProtected;
+	/** Key of the TLS session of the control connection in the client session cache. */
+	private String sessionHost;
+	private int sessionPort;
+	/** Plain control socket under the TLS socket. */
+	private Socket controlSocket;
+
+	@Override
+	public boolean setFileType(int fileType) throws IOException {
+		boolean ok = super.setFileType(fileType);
+		if(ok)
+			this.fileType = fileType;
+		return ok;
+	}
+
+	@Override
+	public boolean setFileType(int fileType, int formatOrByteSize) throws IOException {
+		boolean ok = super.setFileType(fileType, formatOrByteSize);
+		if(ok)
+			this.fileType = fileType;
+		return ok;
+	}
+
+	/**
+	 * {@link #DEFLATE_TRANSFER_MODE} sends MODE Z.
+	 */
+	@Override
+	public boolean setFileTransferMode(int mode) throws IOException {
+		if(mode == DEFLATE_TRANSFER_MODE) {
+			boolean ok = FTPReply.isPositiveCompletion(sendCommand("MODE", "Z"));
+			if(ok)
+				this.fileTransferMode = mode;
+			return ok;
+		}
+
+		boolean ok = super.setFileTransferMode(mode);
+		if(ok)
+			this.fileTransferMode = mode;
+		return ok;
+	}
+
+	/**
+	 * Through a {@link ProxySocketFactory} the name of the server is not looked up here: the connector
+	 * gives it to the proxy or resolves it by its name resolution policy (with its cache).
+	 */
+	@Override
+	public void connect(String hostname, int port) throws SocketException, IOException {
+		if(!(_socketFactory_ instanceof ProxySocketFactory) || HostResolver.isLiteral(hostname)) {
+			super.connect(hostname, port);
+			return;
+		}
+
+		_socket_ = _socketFactory_.createSocket();
+		if(getReceiveBufferSize() != -1)
+			_socket_.setReceiveBufferSize(getReceiveBufferSize());
+		if(getSendBufferSize() != -1)
+			_socket_.setSendBufferSize(getSendBufferSize());
+		_socket_.connect(InetSocketAddress.createUnresolved(hostname, port), connectTimeout);
+		_connectAction_();
+	}
+
+	@Override
+	protected void _connectAction_() throws IOException {
+		resetTransferState();
+
+		if(sslContext != null && implicit)
+			secureControlConnection();
+		super._connectAction_();
+
+		if(sslContext != null && !implicit) {
+			int reply = sendCommand("AUTH", authValue);
+			if(reply != FTPReply.SECURITY_DATA_EXCHANGE_COMPLETE && reply != FTPReply.SECURITY_MECHANISM_IS_OK)
+				throw new SSLException(getReplyString());
+			secureControlConnection();
+		}
+	}
+
+	@Override
+	public boolean login(String username, String password) throws IOException {
+		boolean ok = super.login(username, password);
+		if(ok)
+			protectDataConnections();
+		return ok;
+	}
+
+	@Override
+	public boolean login(String username, String password, String account) throws IOException {
+		boolean ok = super.login(username, password, account);
+		if(ok)
+			protectDataConnections();
+		return ok;
+	}
+
+	@Override
+	public void disconnect() throws IOException {
+		resetTransferState();
+		super.disconnect();
+	}
+
+	@Override
+	public void setSocketFactory(SocketFactory factory) {
+		super.setSocketFactory(factory);
+
+		if(factory instanceof ProxySocketFactory)
+			dataSocketFactory = ((ProxySocketFactory) factory).getDataSocketFactory();
+		else
+			dataSocketFactory = null;
+	}
+
+	@Override
+	public void setDataTimeout(int timeout) {
+		super.setDataTimeout(timeout);
+		dataTimeout = timeout;
+	}
+
+	public DataConnectionModeSelector getDataConnectionModeSelector() {
+		return dataConnectionModeSelector;
+	}
+
+	/**
+	 * Chooses the active or the passive mode before every data connection, the active mode
+	 * only when the proxy can listen.
+	 */
+	public void setDataConnectionModeSelector(DataConnectionModeSelector dataConnectionModeSelector) {
+		this.dataConnectionModeSelector = dataConnectionModeSelector;
+	}
+
+	public boolean isDeflate() {
+		return deflate;
+	}
+
+	/**
+	 * Asks for MODE Z before the first data connection of a connection.
+	 */
+	public void setDeflate(boolean deflate) {
+		this.deflate = deflate;
+	}
+
+	public int getDeflateLevel() {
+		return deflateLevel;
+	}
+
+	/**
+	 * Compression level of the uploads, the server is asked for the same level with OPTS MODE Z LEVEL.
+	 */
+	public void setDeflateLevel(int deflateLevel) {
+		this.deflateLevel = deflateLevel;
+	}
+
+	/**
+	 * @return true when the data connections are compressed
+	 */
+	public boolean isDeflateTransfer() {
+		return fileTransferMode == DEFLATE_TRANSFER_MODE;
+	}
+
+	@Override
+	protected Socket _openDataConnection_(String command, String arg) throws IOException {
+		if(deflate && !deflateNegotiated)
+			negotiateDeflate();
+
+		Socket socket = openDataSocket(command, arg);
+		if(socket != null && dataProtected)
+			socket = secureDataConnection(socket);
+		if(socket != null && isDeflateTransfer())
+			socket = new DeflateSocket(socket, deflateLevel, bufferSize());
+		return socket;
+	}
+
+	private void negotiateDeflate() throws IOException {
+		deflateNegotiated = true;
+
+		if(!hasFeature("MODE", "Z")) {
+			LOGGER.debug("Server {} without MODE Z, the stream mode", getRemoteAddress());
+			return;
+		}
+		if(!setFileTransferMode(DEFLATE_TRANSFER_MODE)) {
+			LOGGER.debug("MODE Z refused, the stream mode: {}", getReplyString());
+			return;
+		}
+		// Not every server sets the level.
+		if(deflateLevel != Deflater.DEFAULT_COMPRESSION)
+			sendCommand("OPTS", "MODE Z LEVEL " + deflateLevel);
+	}
+
+	private Socket openDataSocket(String command, String arg) throws IOException {
+		DataConnectionModeSelector selector = dataConnectionModeSelector;
+		ProxyConnector bindConnector = bindConnector();
+
+		if(selector != null) {
+			if(bindConnector != null && selector.chooseActive())
+				enterLocalActiveMode();
+			else
+				enterLocalPassiveMode();
+		}
+
+		boolean active = getDataConnectionMode() == ACTIVE_LOCAL_DATA_CONNECTION_MODE;
+		long start = System.nanoTime();
+		Socket socket = null;
+
+		try {
+			if(active && bindConnector != null) {
+				ServerSocket server = listen(bindConnector, selector != null);
+
+				if(server != null)
+					return socket = acceptDataConnection(server, command, arg);
+
+				// The proxy cannot listen, the passive mode this time.
+				selector.record(true, -1);
+				enterLocalPassiveMode();
+				active = false;
+				start = System.nanoTime();
+			}
+			return socket = openDataConnection(command, arg);
+		}
+		finally {
+			if(selector != null)
+				selector.record(active, socket != null ? System.nanoTime() - start : -1);
+		}
+	}
+
+	/**
+	 * @return connector of the server socket factory, the route of the server, when its proxy can listen
+	 */
+	private ProxyConnector bindConnector() throws IOException {
+		ServerSocketFactory factory = _serverSocketFactory_;
+
+		if(factory instanceof ProxyServerSocketFactory) {
+			ProxyConnector connector = controlRoute();
+			if(connector == null)
+				connector = ((ProxyServerSocketFactory) factory).getConnector();
+			if(connector.isBindSupported())
+				return connector;
+		}
+		return null;
+	}
+
+	/**
+	 * Asks the proxy to listen for the data connection of the server.
+	 *
+	 * @param fallback a failure returns null instead of an exception
+	 */
+	private ServerSocket listen(ProxyConnector connector, boolean fallback) throws IOException {
+		// The server connects from the address of the control connection.
+		InetSocketAddress server = controlEndpoint();
+
+		try {
+			return connector.createServerSocket(server, getConnectTimeout());
+		}
+		catch (IOException e) {
+			if(!fallback)
+				throw e;
+			LOGGER.debug("Proxy {} cannot listen, passive mode: {}", connector, e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Same as the active mode of {@link FTPClient#_openDataConnection_(String, String)},
+	 * PORT or EPRT announces the address the proxy listens on.
+	 */
+	private Socket acceptDataConnection(ServerSocket server, String command, String arg) throws IOException {
+		try {
+			InetAddress host = server.getInetAddress();
+			int reply = host instanceof Inet6Address ? eprt(host, server.getLocalPort()) : port(host, server.getLocalPort());
+
+			if(!FTPReply.isPositiveCompletion(reply))
+				return null;
+			if(getRestartOffset() > 0 && !restart(getRestartOffset()))
+				return null;
+			if(!FTPReply.isPositivePreliminary(sendCommand(command, arg)))
+				return null;
+
+			if(dataTimeout >= 0)
+				server.setSoTimeout(dataTimeout);
+			Socket socket = server.accept();
+
+			if(dataTimeout >= 0)
+				socket.setSoTimeout(dataTimeout);
+			if(getReceiveDataSocketBufferSize() > 0)
+				socket.setReceiveBufferSize(getReceiveDataSocketBufferSize());
+			if(getSendDataSocketBufferSize() > 0)
+				socket.setSendBufferSize(getSendDataSocketBufferSize());
+			return socket;
+		}
+		finally {
+			server.close();
+		}
+	}
+
+	/**
+	 * Passive or local active data connection of {@link FTPClient}, the sockets of the data factory.
+	 * Through a proxy the data connection takes the route of the control connection: the same
+	 * member of a proxy group, the same rule of a router, whatever the passive address is.
+	 */
+	private Socket openDataConnection(String command, String arg) throws IOException {
+		SocketFactory data = dataSocketFactory;
+		ProxyConnector route = controlRoute();
+		if(route != null)
+			data = new ProxySocketFactory(route).getDataSocketFactory();
+
+		if(data == null)
+			return super._openDataConnection_(command, arg);
+
+		SocketFactory factory = _socketFactory_;
+		_socketFactory_ = data;
+		try {
+			return super._openDataConnection_(command, arg);
+		}
+		finally {
+			_socketFactory_ = factory;
+		}
+	}
+
+	private void resetTransferState() {
+		fileType = FTP.ASCII_FILE_TYPE;
+		fileTransferMode = FTP.STREAM_TRANSFER_MODE;
+		deflateNegotiated = false;
+		dataProtected = false;
+		controlSocket = null;
+	}
+
+	public SSLContext getSslContext() {
+		return sslContext;
+	}
+
+	/**
+	 * TLS of the connections, null for plain FTP. The client session cache of the context
+	 * keeps the sessions the data connections resume.
+	 */
+	public void setSslContext(SSLContext sslContext) {
+		this.sslContext = sslContext;
+	}
+
+	public boolean isImplicit() {
+		return implicit;
+	}
+
+	/**
+	 * TLS from the connect (implicit FTPS, port 990), otherwise after AUTH TLS.
+	 */
+	public void setImplicit(boolean implicit) {
+		this.implicit = implicit;
+	}
+
+	public String getAuthValue() {
+		return authValue;
+	}
+
+	public void setAuthValue(String authValue) {
+		this.authValue = authValue;
+	}
+
+	/**
+	 * PBSZ and PROT sent after the login of a TLS connection.
+	 *
+	 * @param protectionBufferSize PBSZ, null skips PBSZ
+	 * @param dataProtection PROT: C clear data connections, P private, null skips PROT
+	 */
+	public void setDataChannelProtection(Long protectionBufferSize, String dataProtection) {
+		this.protectionBufferSize = protectionBufferSize;
+		this.dataProtection = dataProtection;
+	}
+
+	/**
+	 * @return true when the data connections are TLS connections
+	 */
+	public boolean isDataProtected() {
+		return dataProtected;
+	}
+
+	/**
+	 * Layers TLS over the control socket, the socket of the proxy tunnel.
+	 */
+	private void secureControlConnection() throws IOException {
+		Socket plain = _socket_;
+
+		// The name of the server for SNI, not the address of the proxy.
+		InetSocketAddress endpoint = plain instanceof ProxySocket ? ((ProxySocket) plain).getEndpoint() : null;
+		if(endpoint != null) {
+			String name = HostResolver.hostName(endpoint);
+			sessionHost = name != null ? name : endpoint.getAddress().getHostAddress();
+		}
+		else
+			sessionHost = plain.getInetAddress().getHostAddress();
+		// Other control connections to the server have their own sessions.
+		sessionPort = plain.getLocalPort();
+
+		SSLSocket socket = (SSLSocket) sslContext.getSocketFactory().createSocket(
+				new TlsSessionSocket(plain, sessionPort), sessionHost, sessionPort, true);
+		socket.setUseClientMode(true);
+
+		int timeout = plain.getSoTimeout();
+		if(getConnectTimeout() > 0)
+			socket.setSoTimeout(getConnectTimeout());
+		socket.startHandshake();
+		socket.setSoTimeout(timeout);
+
+		controlSocket = plain;
+		_socket_ = socket;
+		_input_ = socket.getInputStream();
+		_output_ = socket.getOutputStream();
+		_controlInput_ = new BufferedReader(new InputStreamReader(_input_, getControlEncoding()));
+		_controlOutput_ = new BufferedWriter(new OutputStreamWriter(_output_, getControlEncoding()));
+		LOGGER.debug("TLS control connection {} {}", socket.getSession().getProtocol(), socket.getSession().getCipherSuite());
+	}
+
+	/**
+	 * @return server of the control connection through the proxy, null for a direct connection
+	 */
+	private InetSocketAddress controlEndpoint() {
+		Socket socket = controlSocket != null ? controlSocket : _socket_;
+		return socket instanceof ProxySocket ? ((ProxySocket) socket).getEndpoint() : null;
+	}
+
+	/**
+	 * @return connector of the proxy of the control connection, null for a direct connection
+	 */
+	private ProxyConnector controlRoute() {
+		Socket socket = controlSocket != null ? controlSocket : _socket_;
+		return socket instanceof ProxySocket && ((ProxySocket) socket).getEndpoint() != null ? ((ProxySocket) socket).getRoute() : null;
+	}
+
+	private void protectDataConnections() throws IOException {
+		if(!(_socket_ instanceof SSLSocket))
+			return;
+
+		if(protectionBufferSize != null && !FTPReply.isPositiveCompletion(sendCommand("PBSZ", String.valueOf(protectionBufferSize))))
+			throw new SSLException(getReplyString());
+		if(dataProtection != null) {
+			if(!FTPReply.isPositiveCompletion(sendCommand("PROT", dataProtection)))
+				throw new SSLException(getReplyString());
+			dataProtected = !dataProtection.equals("C");
+		}
+	}
+
+	/**
+	 * Layers TLS over the data socket with the session key of the control connection,
+	 * the handshake resumes its session. The TLS socket has no channel.
+	 */
+	private Socket secureDataConnection(Socket plain) throws IOException {
+		SSLSocket socket = (SSLSocket) sslContext.getSocketFactory().createSocket(
+				new TlsSessionSocket(plain, sessionPort), sessionHost, sessionPort, true);
+		boolean done = false;
+
+		try {
+			socket.setUseClientMode(true);
+			socket.startHandshake();
+			done = true;
+		}
+		finally {
+			if(!done)
+				Util.closeQuietly(socket);
+		}
+
+		if(LOGGER.isDebugEnabled() && _socket_ instanceof SSLSocket) {
+			// A resumed session keeps the creation time, the id of a TLS 1.3 session changes.
+			boolean resumed = socket.getSession().getCreationTime() == ((SSLSocket) _socket_).getSession().getCreationTime();
+			LOGGER.debug("TLS data connection, session of the control connection {}", resumed ? "resumed" : "not resumed");
+		}
+		return socket;
+	}
+
+	/**
+	 * @return true when the file is copied as is, without conversion or listeners
+	 */
+	public boolean isChannelTransfer() {
+		return fileType != FTP.ASCII_FILE_TYPE
+				&& fileTransferMode == FTP.STREAM_TRANSFER_MODE
+				&& getCopyStreamListener() == null
+				&& getControlKeepAliveTimeout() <= 0;
+	}
+
+	public SegmentedDownload getSegmentedDownload() {
+		return segmentedDownload;
+	}
+
+	/**
+	 * Splits the download of a large file into byte ranges read through several sessions.
+	 */
+	public void setSegmentedDownload(SegmentedDownload segmentedDownload) {
+		this.segmentedDownload = segmentedDownload;
+	}
+
+	@Override
+	protected boolean _retrieveFile(String command, String remote, OutputStream local) throws IOException {
+		if(segmentedDownload != null && local instanceof FileOutputStream && isChannelTransfer()
+				&& FTPCmd.RETR.getCommand().equals(command)) {
+			Boolean result = segmentedDownload.retrieve(this, remote, ((FileOutputStream) local).getChannel());
+
+			if(result != null)
+				return result;
+		}
+		if(!(local instanceof FileOutputStream) || !isChannelTransfer())
+			return super._retrieveFile(command, remote, local);
+
+		Socket socket = _openDataConnection_(command, remote);
+
+		if(socket == null)
+			return false;
+
+		try {
+			SocketChannel channel = socket.getChannel();
+
+			if(channel != null) {
+				long n = transferFrom(channel, ((FileOutputStream) local).getChannel(), socket.getSoTimeout());
+
+				if(socket instanceof ProxySocket)
+					((ProxySocket) socket).countReceived(n);
+			}
+			else
+				Util.copyStream(new BufferedInputStream(socket.getInputStream(), bufferSize()), local, bufferSize());
+		}
+		finally {
+			Util.closeQuietly(socket);
+		}
+
+		return completePendingCommand();
+	}
+
+	@Override
+	protected boolean _storeFile(String command, String remote, InputStream local) throws IOException {
+		if(!(local instanceof FileInputStream) || !isChannelTransfer())
+			return super._storeFile(command, remote, local);
+
+		Socket socket = _openDataConnection_(command, remote);
+
+		if(socket == null)
+			return false;
+
+		try {
+			SocketChannel channel = socket.getChannel();
+
+			if(channel != null) {
+				long n = transferTo(((FileInputStream) local).getChannel(), channel, socket.getSoTimeout());
+
+				if(socket instanceof ProxySocket)
+					((ProxySocket) socket).countSent(n);
+			}
+			else {
+				OutputStream output = new BufferedOutputStream(socket.getOutputStream(), bufferSize());
+				Util.copyStream(local, output, bufferSize());
+				output.close();
+			}
+		}
+		catch (IOException e) {
+			Util.closeQuietly(socket);
+			throw e;
+		}
+		socket.close();
+
+		return completePendingCommand();
+	}
+
+	/**
+	 * Reads a byte range of the remote file into the local file at the same offset.
+	 * The data connection is closed after the range, a range up to the end of the
+	 * file needs {@link #completePendingCommand()} after it.
+	 *
+	 * @param length bytes to read, -1 up to the end of the file
+	 * @return bytes read
+	 */
+	long retrieveRange(String remote, FileChannel file, long offset, long length) throws IOException {
+		setRestartOffset(offset);
+		Socket socket = _openDataConnection_(FTPCmd.RETR.getCommand(), remote);
+
+		if(socket == null)
+			throw new IOException("Cannot retrieve " + remote + " from " + offset + ": " + getReplyString());
+
+		rangeSocket = socket;
+		try {
+			long count = length < 0 ? Long.MAX_VALUE : length;
+			SocketChannel channel = socket.getChannel();
+			long n;
+
+			if(channel != null)
+				n = transferFrom(channel, file, offset, count, socket.getSoTimeout());
+			else
+				n = copy(socket.getInputStream(), file, offset, count);
+
+			if(socket instanceof ProxySocket)
+				((ProxySocket) socket).countReceived(n);
+			return n;
+		}
+		finally {
+			rangeSocket = null;
+			Util.closeQuietly(socket);
+		}
+	}
+
+	/**
+	 * Stops {@link #retrieveRange} from another thread.
+	 */
+	void abortRange() {
+		Socket socket = rangeSocket;
+		if(socket != null)
+			Util.closeQuietly(socket);
+	}
+
+	private int bufferSize() {
+		return getBufferSize() > 0 ? getBufferSize() : COPY_BUFFER_SIZE;
+	}
+
+	/**
+	 * Reads the data connection up to the end of stream into the file.
+	 */
+	static long transferFrom(SocketChannel source, FileChannel target, int timeout) throws IOException {
+		long start = target.position();
+		long n = transferFrom(source, target, start, Long.MAX_VALUE, timeout);
+
+		target.position(start + n);
+		return n;
+	}
+
+	/**
+	 * Reads the data connection into the file at the position, the file position is not changed.
+	 * A position past the end of the file needs a file extended beforehand.
+	 *
+	 * @param count bytes to read at most, the end of stream ends the transfer too
+	 */
+	static long transferFrom(SocketChannel source, FileChannel target, long position, long count, int timeout) throws IOException {
+		long done = 0;
+		Selector selector = Selector.open();
+
+		try {
+			source.configureBlocking(false);
+			source.register(selector, SelectionKey.OP_READ);
+
+			while(done < count) {
+				long n = target.transferFrom(source, position + done, Math.min(count - done, TRANSFER_SIZE));
+
+				if(n > 0) {
+					done += n;
+					continue;
+				}
+				if(selector.select(timeout) == 0)
+					throw new SocketTimeoutException("Read timed out");
+				selector.selectedKeys().clear();
+
+				// Readable without data is the end of stream.
+				n = target.transferFrom(source, position + done, Math.min(count - done, TRANSFER_SIZE));
+				if(n <= 0)
+					break;
+				done += n;
+			}
+		}
+		finally {
+			selector.close();
+		}
+		return done;
+	}
+
+	/**
+	 * Copies the stream into the file at the position, the file position is not changed.
+	 */
+	private long copy(InputStream source, FileChannel target, long position, long count) throws IOException {
+		byte[] buffer = new byte[(int) Math.min(bufferSize(), Math.max(count, 1))];
+		ByteBuffer wrapper = ByteBuffer.wrap(buffer);
+		long done = 0;
+
+		while(done < count) {
+			int n = source.read(buffer, 0, (int) Math.min(buffer.length, count - done));
+			if(n < 0)
+				break;
+
+			wrapper.clear().limit(n);
+			while(wrapper.hasRemaining())
+				done += target.write(wrapper, position + done);
+		}
+		return done;
+	}
+
+	/**
+	 * Writes the file from the current position to the data connection.
+	 */
+	static long transferTo(FileChannel source, SocketChannel target, int timeout) throws IOException {
+		long start = source.position();
+		long position = start;
+		long size = source.size();
+		Selector selector = Selector.open();
+
+		try {
+			target.configureBlocking(false);
+			target.register(selector, SelectionKey.OP_WRITE);
+
+			while(position < size) {
+				long n = source.transferTo(position, Math.min(size - position, TRANSFER_SIZE), target);
+
+				if(n > 0) {
+					position += n;
+					continue;
+				}
+				if(selector.select(timeout) == 0)
+					throw new SocketTimeoutException("Write timed out");
+				selector.selectedKeys().clear();
+			}
+		}
+		finally {
+			selector.close();
+		}
+		source.position(position);
+
+		return position - start;
+	}
+}
@@ -30,6 +30,8 @@ import org.apache.commons.net.ftp.FTPFile;
  * FTP Component
  */
 public class FtpComponentExt extends FtpComponent {
+    private final ProxyConnectorRegistry proxyConnectorRegistry = new ProxyConnectorRegistry(this);
+    private final FtpSessionPool sessionPool = new FtpSessionPool();
 
     public FtpComponentExt() {
     }
@@ -57,4 +59,25 @@ public class FtpComponentExt extends FtpComponent {
     	return new FtpConfigurationExt(new URI(baseUri));
     }
 
+    /**
+     * Proxy connectors shared by the endpoints of the component.
+     */
+    public ProxyConnectorRegistry getProxyConnectorRegistry() {
+        return proxyConnectorRegistry;
+    }
+
+    /**
+     * Logged in sessions shared by the consumers of the component, sessionPool=true.
+     */
+    public FtpSessionPool getSessionPool() {
+        return sessionPool;
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        sessionPool.clear();
+        proxyConnectorRegistry.clear();
+        super.doStop();
+    }
+
 }
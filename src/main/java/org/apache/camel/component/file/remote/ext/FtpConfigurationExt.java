@@ -17,15 +17,57 @@
 package org.apache.camel.component.file.remote.ext;
 
 import java.net.URI;
+import java.util.Locale;
+import java.util.zip.Deflater;
 
 import org.apache.camel.component.file.remote.FtpConfiguration;
+import org.apache.commons.net.proxy.HostResolver;
+import org.apache.commons.net.proxy.ProxyConnector;
+import org.apache.commons.net.proxy.SocketProfile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Options of the ftpext endpoint.
+ * <p>
+ * The connector options (the proxy pool, pipelining, zeroCopy, the name resolution and the
+ * control and data socket options) belong to the proxy connector, shared by the endpoints with
+ * the same proxy in the {@link ProxyConnectorRegistry}. The first endpoint sets them, the options
+ * of a later endpoint which differ are logged as a warning and not applied.
+ */
 public class FtpConfigurationExt extends FtpConfiguration {
     private static final Logger LOGGER = LoggerFactory.getLogger(FtpConfigurationExt.class);
 
 	private String proxyUrl;
+	private int proxyPoolSize;
+	private long proxyPoolIdleTimeout = 30000;
+	private boolean proxyPipelining;
+	private boolean zeroCopy;
+	private long proxyConnectAttemptDelay = 250;
+	private String noProxy;
+	private HostResolver.Policy dnsResolution = HostResolver.Policy.LITERAL;
+	private long dnsCacheTtl = 60000;
+	private String proxyRoutes;
+	private int downloadSegments = 1;
+	private long downloadSegmentMinSize = 64L * 1024 * 1024;
+	private int uploadSessions = 1;
+	private boolean uploadOrdered;
+	private int uploadQueueSize = 100;
+	private int controlBufferSize = -1;
+	private Boolean controlTcpNoDelay;
+	private Boolean controlKeepAlive;
+	private int dataBufferSize = -1;
+	private boolean dataBufferAutoTune;
+	private int dataBufferMaxSize = 16 * 1024 * 1024;
+	private String dataConnectionMode = "passive";
+	private boolean listingCache;
+	private int listingCacheSize = 1000;
+	private long listingCacheMaxAge = 300000;
+	private String seenFileIndex;
+	private int seenFileIndexCapacity = 64 * 1024;
+	private boolean deflate;
+	private int deflateLevel = Deflater.DEFAULT_COMPRESSION;
+	private boolean sessionPool;
 
 	public FtpConfigurationExt() {
 		super();
@@ -40,6 +82,9 @@ public class FtpConfigurationExt extends FtpConfiguration {
 		return proxyUrl;
 	}
 
+	/**
+	 * Proxy url or a comma separated list of proxy urls.
+	 */
 	public void setProxy(String proxyUrl) {
 		this.proxyUrl = proxyUrl;
 		LOGGER.trace("set proxyUrl {}", proxyUrl);
@@ -48,4 +93,399 @@ public class FtpConfigurationExt extends FtpConfiguration {
 			setPassiveMode(true);
 		}
 	}
+
+	public int getProxyPoolSize() {
+		return proxyPoolSize;
+	}
+
+	/**
+	 * Number of warm connections to the proxy kept for the data connections, 0 disables the pool.
+	 */
+	public void setProxyPoolSize(int proxyPoolSize) {
+		this.proxyPoolSize = proxyPoolSize;
+	}
+
+	public long getProxyPoolIdleTimeout() {
+		return proxyPoolIdleTimeout;
+	}
+
+	/**
+	 * Milliseconds an idle pooled connection to the proxy is kept open.
+	 */
+	public void setProxyPoolIdleTimeout(long proxyPoolIdleTimeout) {
+		this.proxyPoolIdleTimeout = proxyPoolIdleTimeout;
+	}
+
+	public boolean isProxyPipelining() {
+		return proxyPipelining;
+	}
+
+	/**
+	 * Sends the SOCKS5 greeting, login and CONNECT request at once.
+	 */
+	public void setProxyPipelining(boolean proxyPipelining) {
+		this.proxyPipelining = proxyPipelining;
+	}
+
+	public boolean isZeroCopy() {
+		return zeroCopy;
+	}
+
+	/**
+	 * Opens the connections with socket channels, a binary file of the local work directory
+	 * or a file body is transferred by the file channel.
+	 */
+	public void setZeroCopy(boolean zeroCopy) {
+		this.zeroCopy = zeroCopy;
+	}
+
+	public long getProxyConnectAttemptDelay() {
+		return proxyConnectAttemptDelay;
+	}
+
+	/**
+	 * Milliseconds between the parallel connection attempts when the proxy host has several addresses.
+	 */
+	public void setProxyConnectAttemptDelay(long proxyConnectAttemptDelay) {
+		this.proxyConnectAttemptDelay = proxyConnectAttemptDelay;
+	}
+
+	public String getDnsResolution() {
+		return dnsResolution.name().toLowerCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * Target host for the proxy: <code>literal</code> (a name is resolved by the proxy, an address
+	 * goes as the address), <code>remote</code> (everything is resolved by the proxy) or
+	 * <code>local</code> (a name is resolved here, the proxy gets the address).
+	 */
+	public void setDnsResolution(String dnsResolution) {
+		try {
+			this.dnsResolution = HostResolver.Policy.valueOf(dnsResolution.toUpperCase(Locale.ENGLISH));
+		}
+		catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("dnsResolution must be literal, remote or local: " + dnsResolution);
+		}
+	}
+
+	public long getDnsCacheTtl() {
+		return dnsCacheTtl;
+	}
+
+	/**
+	 * Milliseconds a local lookup of the target or the proxy name is cached, 0 - no cache.
+	 */
+	public void setDnsCacheTtl(long dnsCacheTtl) {
+		this.dnsCacheTtl = dnsCacheTtl;
+	}
+
+	public String getNoProxy() {
+		return noProxy;
+	}
+
+	/**
+	 * Comma separated hosts connected without the proxy: globs, <code>.domain</code> or address ranges.
+	 */
+	public void setNoProxy(String noProxy) {
+		this.noProxy = noProxy != null && !noProxy.trim().isEmpty() ? noProxy : null;
+	}
+
+	public String getProxyRoutes() {
+		return proxyRoutes;
+	}
+
+	/**
+	 * Rules <code>pattern=target</code> separated by <code>;</code>, the target is
+	 * <code>DIRECT</code>, <code>SYSTEM</code> or proxy urls.
+	 */
+	public void setProxyRoutes(String proxyRoutes) {
+		this.proxyRoutes = proxyRoutes != null && !proxyRoutes.trim().isEmpty() ? proxyRoutes : null;
+	}
+
+	/**
+	 * @return true when the connections are routed by the target host
+	 */
+	public boolean isProxyRouted() {
+		return noProxy != null || proxyRoutes != null;
+	}
+
+	public int getDownloadSegments() {
+		return downloadSegments;
+	}
+
+	/**
+	 * Number of the sessions reading one large file of the local work directory, 1 reads it in one piece.
+	 */
+	public void setDownloadSegments(int downloadSegments) {
+		this.downloadSegments = downloadSegments;
+	}
+
+	public long getDownloadSegmentMinSize() {
+		return downloadSegmentMinSize;
+	}
+
+	/**
+	 * Smallest file size in bytes downloaded in segments.
+	 */
+	public void setDownloadSegmentMinSize(long downloadSegmentMinSize) {
+		this.downloadSegmentMinSize = downloadSegmentMinSize;
+	}
+
+	public int getUploadSessions() {
+		return uploadSessions;
+	}
+
+	/**
+	 * Number of the sessions of the producer uploading at once, 1 uploads one file at a time.
+	 */
+	public void setUploadSessions(int uploadSessions) {
+		this.uploadSessions = uploadSessions;
+	}
+
+	public boolean isUploadOrdered() {
+		return uploadOrdered;
+	}
+
+	/**
+	 * Uploads the exchanges of one target file through one session, in the order they were sent.
+	 */
+	public void setUploadOrdered(boolean uploadOrdered) {
+		this.uploadOrdered = uploadOrdered;
+	}
+
+	public int getUploadQueueSize() {
+		return uploadQueueSize;
+	}
+
+	/**
+	 * Exchanges waiting for an upload session, the sender blocks when the queue is full.
+	 */
+	public void setUploadQueueSize(int uploadQueueSize) {
+		this.uploadQueueSize = uploadQueueSize;
+	}
+
+	public int getControlBufferSize() {
+		return controlBufferSize;
+	}
+
+	/**
+	 * SO_RCVBUF and SO_SNDBUF of the control connections, -1 keeps the default.
+	 */
+	public void setControlBufferSize(int controlBufferSize) {
+		this.controlBufferSize = controlBufferSize;
+	}
+
+	public Boolean getControlTcpNoDelay() {
+		return controlTcpNoDelay;
+	}
+
+	/**
+	 * TCP_NODELAY of the control connections, null keeps the default.
+	 */
+	public void setControlTcpNoDelay(Boolean controlTcpNoDelay) {
+		this.controlTcpNoDelay = controlTcpNoDelay;
+	}
+
+	public Boolean getControlKeepAlive() {
+		return controlKeepAlive;
+	}
+
+	/**
+	 * SO_KEEPALIVE of the control connections, an idle control connection of a long transfer stays open.
+	 * Null keeps the default.
+	 */
+	public void setControlKeepAlive(Boolean controlKeepAlive) {
+		this.controlKeepAlive = controlKeepAlive;
+	}
+
+	public int getDataBufferSize() {
+		return dataBufferSize;
+	}
+
+	/**
+	 * SO_RCVBUF and SO_SNDBUF of the data connections, -1 keeps the default.
+	 */
+	public void setDataBufferSize(int dataBufferSize) {
+		this.dataBufferSize = dataBufferSize;
+	}
+
+	public boolean isDataBufferAutoTune() {
+		return dataBufferAutoTune;
+	}
+
+	/**
+	 * Sizes the buffers of the data connections by the measured round trip time and throughput.
+	 */
+	public void setDataBufferAutoTune(boolean dataBufferAutoTune) {
+		this.dataBufferAutoTune = dataBufferAutoTune;
+	}
+
+	public int getDataBufferMaxSize() {
+		return dataBufferMaxSize;
+	}
+
+	/**
+	 * Largest buffer of the auto tuning.
+	 */
+	public void setDataBufferMaxSize(int dataBufferMaxSize) {
+		this.dataBufferMaxSize = dataBufferMaxSize;
+	}
+
+	public String getDataConnectionMode() {
+		return dataConnectionMode;
+	}
+
+	/**
+	 * Data connections through the proxy: <code>passive</code>, <code>active</code> (the SOCKS
+	 * proxy listens) or <code>auto</code> (the mode with the faster setup).
+	 */
+	public void setDataConnectionMode(String dataConnectionMode) {
+		String mode = dataConnectionMode.toLowerCase(Locale.ENGLISH);
+
+		if(!mode.equals("passive") && !mode.equals("active") && !mode.equals("auto"))
+			throw new IllegalArgumentException("dataConnectionMode must be passive, active or auto: " + dataConnectionMode);
+		this.dataConnectionMode = mode;
+	}
+
+	public boolean isListingCache() {
+		return listingCache;
+	}
+
+	/**
+	 * Keeps the listings of the polled directories, a directory with the same modification time
+	 * is not listed again.
+	 */
+	public void setListingCache(boolean listingCache) {
+		this.listingCache = listingCache;
+	}
+
+	public int getListingCacheSize() {
+		return listingCacheSize;
+	}
+
+	/**
+	 * Directories of the listing cache.
+	 */
+	public void setListingCacheSize(int listingCacheSize) {
+		this.listingCacheSize = listingCacheSize;
+	}
+
+	public long getListingCacheMaxAge() {
+		return listingCacheMaxAge;
+	}
+
+	/**
+	 * Milliseconds a cached listing is used at most, 0 without a limit.
+	 */
+	public void setListingCacheMaxAge(long listingCacheMaxAge) {
+		this.listingCacheMaxAge = listingCacheMaxAge;
+	}
+
+	public String getSeenFileIndex() {
+		return seenFileIndex;
+	}
+
+	/**
+	 * File of the {@link SeenFileIndex}, the consumer skips the files consumed before with
+	 * the same size and modification time.
+	 */
+	public void setSeenFileIndex(String seenFileIndex) {
+		this.seenFileIndex = seenFileIndex;
+	}
+
+	public int getSeenFileIndexCapacity() {
+		return seenFileIndexCapacity;
+	}
+
+	/**
+	 * Slots of a new seen file index, the index grows when it is three quarters full.
+	 */
+	public void setSeenFileIndexCapacity(int seenFileIndexCapacity) {
+		this.seenFileIndexCapacity = seenFileIndexCapacity;
+	}
+
+	public boolean isDeflate() {
+		return deflate;
+	}
+
+	/**
+	 * Compresses the data connections with MODE Z when the server supports it.
+	 */
+	public void setDeflate(boolean deflate) {
+		this.deflate = deflate;
+	}
+
+	public int getDeflateLevel() {
+		return deflateLevel;
+	}
+
+	/**
+	 * Compression level of MODE Z, 0 (none) to 9 (best), -1 the zlib default.
+	 */
+	public void setDeflateLevel(int deflateLevel) {
+		if(deflateLevel < -1 || deflateLevel > 9)
+			throw new IllegalArgumentException("deflateLevel must be -1 to 9: " + deflateLevel);
+		this.deflateLevel = deflateLevel;
+	}
+
+	public boolean isSessionPool() {
+		return sessionPool;
+	}
+
+	/**
+	 * The consumer leases a logged in session of the component {@link FtpSessionPool} for every poll.
+	 */
+	public void setSessionPool(boolean sessionPool) {
+		this.sessionPool = sessionPool;
+	}
+
+	/**
+	 * @return a socket option or zeroCopy is set, the connections without a proxy need a direct connector
+	 */
+	boolean isSocketConfigured() {
+		return zeroCopy || controlBufferSize > 0 || controlTcpNoDelay != null || controlKeepAlive != null
+				|| dataBufferSize > 0 || dataBufferAutoTune;
+	}
+
+	/**
+	 * @return options applied by {@link #configure(ProxyConnector)}, the endpoints sharing a connector
+	 * are compared by them
+	 */
+	String getConnectorOptions() {
+		return "proxyPoolSize=" + proxyPoolSize + ", proxyPoolIdleTimeout=" + (proxyPoolSize > 0 ? proxyPoolIdleTimeout : 0)
+				+ ", proxyPipelining=" + proxyPipelining + ", zeroCopy=" + zeroCopy
+				+ ", proxyConnectAttemptDelay=" + proxyConnectAttemptDelay
+				+ ", dnsResolution=" + dnsResolution + ", dnsCacheTtl=" + dnsCacheTtl
+				+ ", controlBufferSize=" + controlBufferSize + ", controlTcpNoDelay=" + controlTcpNoDelay
+				+ ", controlKeepAlive=" + controlKeepAlive + ", dataBufferSize=" + dataBufferSize
+				+ ", dataBufferAutoTune=" + dataBufferAutoTune + ", dataBufferMaxSize=" + dataBufferMaxSize;
+	}
+
+	/**
+	 * Applies the connector options to a new connector.
+	 */
+	void configure(ProxyConnector connector) {
+		SocketProfile control = new SocketProfile();
+		control.setBufferSize(controlBufferSize);
+		control.setTcpNoDelay(controlTcpNoDelay);
+		control.setKeepAlive(controlKeepAlive);
+		connector.setControlProfile(control);
+
+		SocketProfile data = SocketProfile.data();
+		data.setBufferSize(dataBufferSize);
+		data.setAutoTune(dataBufferAutoTune);
+		data.setMaxBufferSize(dataBufferMaxSize);
+		connector.setDataProfile(data);
+
+		connector.setPipelining(proxyPipelining);
+		connector.setUseChannels(zeroCopy);
+		connector.setConnectAttemptDelay(proxyConnectAttemptDelay);
+		connector.setHostResolution(dnsResolution);
+		connector.setDnsCacheTtl(dnsCacheTtl);
+
+		if(proxyPoolSize > 0) {
+			connector.setPoolIdleTimeout(proxyPoolIdleTimeout);
+			connector.setPoolSize(proxyPoolSize);
+		}
+	}
 }
@@ -0,0 +1,161 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.file.remote.ext;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.component.file.FileComponent;
+import org.apache.camel.component.file.GenericFile;
+import org.apache.camel.component.file.remote.FtpConsumer;
+import org.apache.camel.component.file.remote.RemoteFileEndpoint;
+import org.apache.camel.component.file.remote.RemoteFileOperations;
+import org.apache.camel.support.SynchronizationAdapter;
+import org.apache.commons.net.ftp.FTPFile;
+
+/**
+ * Consumer of the ftpext endpoint, the listings of the polled directories come from the
+ * {@link ListingCache} while the directories are not changed, the files of the
+ * {@link SeenFileIndex} are skipped. With the {@link FtpSessionPool} every poll leases a logged
+ * in session and returns it after the poll.
+ */
+public class FtpConsumerExt extends FtpConsumer {
+	private SeenFileIndex seenFileIndex;
+	private FtpSessionPool sessionPool;
+	private String sessionKey;
+
+	public FtpConsumerExt(RemoteFileEndpoint<FTPFile> endpoint, Processor processor, RemoteFileOperations<FTPFile> fileOperations) {
+		super(endpoint, processor, fileOperations);
+	}
+
+	@Override
+	protected boolean doPollDirectory(String absolutePath, String dirName, List<GenericFile<FTPFile>> fileList, int depth) {
+		if(!(operations instanceof FtpOperationsExt))
+			return super.doPollDirectory(absolutePath, dirName, fileList, depth);
+
+		// A sub directory is polled after the listing of its parent.
+		FtpOperationsExt operationsExt = (FtpOperationsExt) operations;
+		operationsExt.setPollPath(absolutePath);
+		try {
+			return super.doPollDirectory(absolutePath, dirName, fileList, depth);
+		}
+		finally {
+			operationsExt.setPollPath(null);
+		}
+	}
+
+	/**
+	 * A file of the seen file index with the same size and modification time is skipped
+	 * before the other checks.
+	 */
+	@Override
+	protected boolean isValidFile(GenericFile<FTPFile> file, boolean isDirectory, List<FTPFile> files) {
+		if(!isDirectory && seenFileIndex != null
+				&& seenFileIndex.contains(file.getAbsoluteFilePath(), file.getFileLength(), file.getLastModified())) {
+			log.trace("File seen before. Will skip this file: {}", file);
+			return false;
+		}
+		return super.isValidFile(file, isDirectory, files);
+	}
+
+	/**
+	 * The file is added to the seen file index when its exchange completed.
+	 */
+	@Override
+	protected boolean processExchange(Exchange exchange) {
+		final SeenFileIndex index = seenFileIndex;
+		GenericFile<?> file = exchange.getProperty(FileComponent.FILE_EXCHANGE_FILE, GenericFile.class);
+
+		if(index != null && file != null) {
+			// Before the begin strategy, a pre move changes the path.
+			final String path = file.getAbsoluteFilePath();
+			final long size = file.getFileLength();
+			final long modified = file.getLastModified();
+
+			exchange.addOnCompletion(new SynchronizationAdapter() {
+				@Override
+				public void onComplete(Exchange exchange) {
+					try {
+						index.add(path, size, modified);
+					}
+					catch (IOException e) {
+						log.warn("Cannot add " + path + " to " + index, e);
+					}
+					catch (IllegalStateException e) {
+						log.warn("Cannot add " + path + " to " + index, e);
+					}
+				}
+			});
+		}
+		return super.processExchange(exchange);
+	}
+
+	/**
+	 * Takes an idle session of the pool, without one the consumer logs in with its own client.
+	 */
+	@Override
+	protected boolean prePollCheck() throws Exception {
+		if(sessionPool != null && !loggedIn) {
+			FtpOperationsExt session = sessionPool.lease(sessionKey);
+
+			if(session != null) {
+				session.lease((FtpEndpointExt<?>) endpoint);
+				setOperations(session);
+				loggedIn = true;
+			}
+		}
+		return super.prePollCheck();
+	}
+
+	/**
+	 * Returns the session to the pool, the consumer keeps a client without a connection until
+	 * the next poll. The exchanges of the poll are completed, the remote file consumer
+	 * processes them synchronously.
+	 */
+	@Override
+	protected void postPollCheck() {
+		super.postPollCheck();
+
+		if(sessionPool != null && loggedIn && operations instanceof FtpOperationsExt) {
+			FtpOperationsExt session = (FtpOperationsExt) operations;
+			try {
+				setOperations(getEndpoint().createRemoteFileOperations());
+			}
+			catch (Exception e) {
+				log.debug("Cannot create a client, the session is kept: {}", e.getMessage());
+				return;
+			}
+			loggedIn = false;
+			sessionPool.release(sessionKey, session);
+		}
+	}
+
+	@Override
+	protected void doStart() throws Exception {
+		if(endpoint instanceof FtpEndpointExt) {
+			FtpEndpointExt<?> endpointExt = (FtpEndpointExt<?>) endpoint;
+
+			seenFileIndex = endpointExt.getSeenFileIndex();
+			sessionPool = endpointExt.getSessionPool();
+			if(sessionPool != null)
+				sessionKey = endpointExt.getSessionPoolKey();
+		}
+		super.doStart();
+	}
+}
@@ -17,11 +17,29 @@
 package org.apache.camel.component.file.remote.ext;
 
 
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.camel.FailedToCreateConsumerException;
+import org.apache.camel.Processor;
+import org.apache.camel.component.file.GenericFileProducer;
 import org.apache.camel.component.file.remote.FtpEndpoint;
+import org.apache.camel.component.file.remote.FtpOperations;
 import org.apache.camel.component.file.remote.RemoteFileComponent;
 import org.apache.camel.component.file.remote.RemoteFileConfiguration;
+import org.apache.camel.component.file.remote.RemoteFileConsumer;
+import org.apache.camel.component.file.remote.RemoteFileOperations;
+import org.apache.camel.util.IntrospectionSupport;
 import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPClientConfig;
 import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.proxy.ProxyConnector;
+import org.apache.commons.net.proxy.ProxyServerSocketFactory;
 import org.apache.commons.net.proxy.ProxySocketFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,10 +68,72 @@ import org.slf4j.LoggerFactory;
  * from("ftpext://{{remoteurl}}/?ftpClient.proxyUrl={{proxyUrl}}")
  * .log("read file from ftp server ");
  * </pre>
+ * Keep warm connections to the proxy for the passive data connections:
+ * <pre>
+ * from("ftpext://{{remoteurl}}/?proxy={{proxyUrl}}&amp;proxyPoolSize=2")
+ * </pre>
+ * Read the files over 64 MB through four sessions at once:
+ * <pre>
+ * from("ftpext://{{remoteurl}}/?proxy={{proxyUrl}}&amp;binary=true&amp;localWorkDirectory=/tmp/ftp&amp;downloadSegments=4")
+ * </pre>
+ * Open the data connections in the active mode, the SOCKS proxy listens for them:
+ * <pre>
+ * from("ftpext://{{remoteurl}}/?proxy=socks://proxy.domain.lan/&amp;dataConnectionMode=active")
+ * </pre>
+ * Poll a large directory, an unchanged directory costs one MLST or MDTM command:
+ * <pre>
+ * from("ftpext://{{remoteurl}}/inbox?proxy={{proxyUrl}}&amp;noop=true&amp;listingCache=true")
+ * </pre>
+ * Read a large file while it arrives, without a copy in the memory or on the disk:
+ * <pre>
+ * from("ftpext://{{remoteurl}}/?proxy={{proxyUrl}}&amp;binary=true&amp;streamDownload=true")
+ * .split(body().tokenize("\n")).streaming()
+ * </pre>
+ * Compress the text files on the proxy link (MODE Z):
+ * <pre>
+ * from("ftpext://{{remoteurl}}/export?proxy={{proxyUrl}}&amp;deflate=true&amp;deflateLevel=6")
+ * </pre>
+ * Twenty routes polling one server share the logged in sessions:
+ * <pre>
+ * from("ftpext://{{remoteurl}}/in1?proxy={{proxyUrl}}&amp;sessionPool=true")
+ * from("ftpext://{{remoteurl}}/in2?proxy={{proxyUrl}}&amp;sessionPool=true")
+ * </pre>
+ * Consume every file once, the consumed files are kept in a file over the restarts:
+ * <pre>
+ * from("ftpext://{{remoteurl}}/inbox?proxy={{proxyUrl}}&amp;noop=true&amp;seenFileIndex=/var/lib/camel/inbox.idx")
+ * </pre>
+ * The internal servers directly, a partner through its own proxy, the rest through the default proxy:
+ * <pre>
+ * from("ftpext://{{remoteurl}}/?proxy={{proxyUrl}}&amp;noProxy=.domain.lan,10.0.0.0/8&amp;proxyRoutes=*.partner.com=socks://proxy2.domain.lan/")
+ * </pre>
+ * Upload through eight sessions at once:
+ * <pre>
+ * from("file:/data/export")
+ * .to("ftpext://{{remoteurl}}/?proxy={{proxyUrl}}&amp;uploadSessions=8");
+ * </pre>
  */
 public class FtpEndpointExt<T extends FTPFile> extends FtpEndpoint<T> {
     private static final Logger LOGGER = LoggerFactory.getLogger(FtpEndpointExt.class);
 
+    /** Connector of the proxy, taken on the first client and kept until the endpoint stops. */
+    private ProxyConnector proxyConnector;
+    private boolean proxyConnectorShared;
+
+    /** Threads of the segmented downloads, created on the first one. */
+    private ExecutorService segmentExecutor;
+
+    /** Setup times of the data connections of all clients, dataConnectionMode=auto. */
+    private DataConnectionModeSelector dataConnectionModeSelector;
+
+    /** Listings of the polled directories, listingCache=true. */
+    private ListingCache listingCache;
+
+    /** Proxy url of the clients, a part of the session pool key. */
+    private volatile String sessionProxyUrl;
+
+    /** Files consumed before, opened by the first consumer. */
+    private SeenFileIndex seenFileIndex;
+
 	public FtpEndpointExt() {
         super();
     }
@@ -62,9 +142,214 @@ public class FtpEndpointExt<T extends FTPFile> extends FtpEndpoint<T> {
         super(uri, component, configuration);
     }
 
+	/**
+	 * Same as {@link FtpEndpoint#createRemoteFileOperations()}, the operations are {@link FtpOperationsExt}.
+	 */
+	@Override
+	public RemoteFileOperations<FTPFile> createRemoteFileOperations() throws Exception {
+		FTPClient client = ftpClient;
+		if(client == null)
+			client = createFtpClient();
+
+		setupClient(client);
+
+		if(LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Created FTPClient [connectTimeout: {}, soTimeout: {}, dataTimeout: {}]: {}",
+					new Object[] {client.getConnectTimeout(), getSoTimeout(), dataTimeout, client});
+		}
+
+		FtpOperationsExt operations = new FtpOperationsExt(client, getFtpClientConfig());
+		operations.setEndpoint(this);
+		operations.setOwner(this);
+		return operations;
+	}
+
+	/**
+	 * The timeouts, the ftpClient and ftpClientConfig parameters and the options of {@link #configureClient(FTPClient)}.
+	 */
+	private void setupClient(FTPClient client) throws Exception {
+		if(getConfiguration().getConnectTimeout() > -1)
+			client.setConnectTimeout(getConfiguration().getConnectTimeout());
+
+		if(getConfiguration().getSoTimeout() > -1)
+			soTimeout = getConfiguration().getSoTimeout();
+
+		dataTimeout = getConfiguration().getTimeout();
+
+		if(ftpClientParameters != null) {
+			// setProperties removes the applied options, every client of the endpoint gets them from a copy.
+			Map<String, Object> parameters = new HashMap<String, Object>(ftpClientParameters);
+			Object timeout = parameters.remove("soTimeout");
+			if(timeout != null)
+				soTimeout = getCamelContext().getTypeConverter().convertTo(int.class, timeout);
+
+			timeout = parameters.remove("dataTimeout");
+			if(timeout != null)
+				dataTimeout = getCamelContext().getTypeConverter().convertTo(int.class, timeout);
+
+			IntrospectionSupport.setProperties(client, parameters);
+		}
+
+		if(ftpClientConfigParameters != null) {
+			if(ftpClientConfig == null)
+				ftpClientConfig = new FTPClientConfig();
+			IntrospectionSupport.setProperties(ftpClientConfig, new HashMap<String, Object>(ftpClientConfigParameters));
+		}
+
+		configureClient(client);
+	}
+
+	/**
+	 * Options of the client not sent to the server, also set on a session leased from the pool.
+	 */
+	void configureClient(FTPClient client) {
+		if(dataTimeout > 0)
+			client.setDataTimeout(dataTimeout);
+
+		if(client instanceof FtpClientExt && configuration instanceof FtpConfigurationExt) {
+			FtpClientExt clientExt = (FtpClientExt) client;
+			FtpConfigurationExt configurationExt = (FtpConfigurationExt) configuration;
+
+			clientExt.setDeflate(configurationExt.isDeflate());
+			clientExt.setDeflateLevel(configurationExt.getDeflateLevel());
+
+			if(configurationExt.getDownloadSegments() > 1) {
+				clientExt.setSegmentedDownload(new SegmentedDownload(this,
+						configurationExt.getDownloadSegments(), configurationExt.getDownloadSegmentMinSize()));
+			}
+			else
+				clientExt.setSegmentedDownload(null);
+
+			if(clientExt.getDataConnectionModeSelector() != null)
+				clientExt.setDataConnectionModeSelector(getDataConnectionModeSelector());
+		}
+	}
+
+	/**
+	 * @return pool of the logged in sessions, null without sessionPool or with an own ftpClient
+	 */
+	public FtpSessionPool getSessionPool() {
+		if(configuration instanceof FtpConfigurationExt && ((FtpConfigurationExt) configuration).isSessionPool()
+				&& getComponent() instanceof FtpComponentExt && ftpClient == null)
+			return ((FtpComponentExt) getComponent()).getSessionPool();
+		return null;
+	}
+
+	/**
+	 * The sessions of the endpoints with the same key are shared: the server, the user, the proxy,
+	 * the options set on login or kept by the connection (MODE Z) and the client options.
+	 * The key is not logged, it has the password.
+	 */
+	String getSessionPoolKey() {
+		RemoteFileConfiguration c = getConfiguration();
+		StringBuilder key = new StringBuilder();
+
+		key.append(c.getUsername()).append(':').append(c.getPassword()).append('@').append(c.getHost()).append(':').append(c.getPort())
+				.append(" proxy=").append(sessionProxyUrl).append(" binary=").append(c.isBinary())
+				.append(" passive=").append(c.isPassiveMode()).append(" site=").append(c.getSiteCommand());
+
+		if(configuration instanceof FtpConfigurationExt) {
+			FtpConfigurationExt configurationExt = (FtpConfigurationExt) configuration;
+			key.append('/').append(configurationExt.getDataConnectionMode())
+					.append(" deflate=").append(configurationExt.isDeflate() ? configurationExt.getDeflateLevel() : "false");
+		}
+		if(ftpClientParameters != null)
+			key.append(" ftpClient=").append(new TreeMap<String, Object>(ftpClientParameters));
+
+		FTPClientConfig config = getFtpClientConfig();
+		if(config != null) {
+			key.append(" ftpClientConfig=").append(config.getServerSystemKey())
+					.append(',').append(config.getDefaultDateFormatStr()).append(',').append(config.getRecentDateFormatStr())
+					.append(',').append(config.getServerLanguageCode()).append(',').append(config.getShortMonthNames())
+					.append(',').append(config.getServerTimeZoneId()).append(',').append(config.isLenientFutureDates());
+		}
+		return key.toString();
+	}
+
+	@Override
+	protected RemoteFileConsumer<FTPFile> buildConsumer(Processor processor) {
+		try {
+			return new FtpConsumerExt(this, processor, createRemoteFileOperations());
+		}
+		catch (Exception e) {
+			throw new FailedToCreateConsumerException(this, e);
+		}
+	}
+
+	/**
+	 * A {@link ParallelUploadProducer} when the upload sessions are more than one.
+	 */
+	@Override
+	protected GenericFileProducer<FTPFile> buildProducer() {
+		if(configuration instanceof FtpConfigurationExt) {
+			FtpConfigurationExt configurationExt = (FtpConfigurationExt) configuration;
+
+			if(configurationExt.getUploadSessions() > 1 && ftpClient != null)
+				LOGGER.warn("{} has its own ftpClient, uploadSessions ignored", this);
+			else if(configurationExt.getUploadSessions() > 1) {
+				return new ParallelUploadProducer(this, configurationExt.getUploadSessions(),
+						configurationExt.isUploadOrdered(), configurationExt.getUploadQueueSize());
+			}
+		}
+		return super.buildProducer();
+	}
+
+	/**
+	 * Client of a {@link SegmentedDownload} session, configured as the endpoint clients.
+	 */
+	FtpClientExt createSegmentClient() throws Exception {
+		FtpClientExt client = (FtpClientExt) createFtpClient();
+
+		setupClient(client);
+		// A segment is one range, it is not split again.
+		client.setSegmentedDownload(null);
+		return client;
+	}
+
+	public synchronized DataConnectionModeSelector getDataConnectionModeSelector() {
+		if(dataConnectionModeSelector == null)
+			dataConnectionModeSelector = new DataConnectionModeSelector();
+		return dataConnectionModeSelector;
+	}
+
+	/**
+	 * @return listings of the polled directories, null without listingCache
+	 */
+	public synchronized ListingCache getListingCache() {
+		if(listingCache == null && configuration instanceof FtpConfigurationExt) {
+			FtpConfigurationExt configurationExt = (FtpConfigurationExt) configuration;
+
+			if(configurationExt.isListingCache())
+				listingCache = new ListingCache(configurationExt.getListingCacheSize(), configurationExt.getListingCacheMaxAge());
+		}
+		return listingCache;
+	}
+
+	/**
+	 * @return index of the consumed files, null without seenFileIndex
+	 */
+	public synchronized SeenFileIndex getSeenFileIndex() throws IOException {
+		if(seenFileIndex == null && configuration instanceof FtpConfigurationExt) {
+			FtpConfigurationExt configurationExt = (FtpConfigurationExt) configuration;
+
+			if(configurationExt.getSeenFileIndex() != null) {
+				seenFileIndex = new SeenFileIndex(new File(configurationExt.getSeenFileIndex()),
+						configurationExt.getSeenFileIndexCapacity());
+				LOGGER.debug("Opened {}", seenFileIndex);
+			}
+		}
+		return seenFileIndex;
+	}
+
+	synchronized ExecutorService getSegmentExecutor() {
+		if(segmentExecutor == null)
+			segmentExecutor = getCamelContext().getExecutorServiceManager().newCachedThreadPool(this, "FtpSegmentedDownload");
+		return segmentExecutor;
+	}
+
 	@Override
 	protected FTPClient createFtpClient() throws Exception {
-		FTPClient client = super.createFtpClient();
+		FTPClient client = new FtpClientExt();
 		String proxyUrl = null;
 		FtpConfigurationExt configurationExt = null;
 
@@ -80,11 +365,81 @@ public class FtpEndpointExt<T extends FTPFile> extends FtpEndpoint<T> {
 			proxyUrl = (String) ftpClientParameters.get("proxyUrl");
 		}
 
-		if(proxyUrl != null) {
-			LOGGER.trace("ftp use proxy {} change config to passive mode", proxyUrl);
-			getConfiguration().setPassiveMode(true);
-			client.setSocketFactory(new ProxySocketFactory(proxyUrl));
+		sessionProxyUrl = proxyUrl;
+		boolean routed = configurationExt != null && configurationExt.isProxyRouted();
+		if(proxyUrl != null || routed) {
+			String mode = configurationExt != null ? configurationExt.getDataConnectionMode() : "passive";
+			LOGGER.trace("ftp use proxy {} data connection mode {}", proxyUrl, mode);
+			getConfiguration().setPassiveMode(!mode.equals("active"));
+			ProxyConnector connector = acquireProxyConnector(proxyUrl, configurationExt);
+
+			client.setSocketFactory(new ProxySocketFactory(connector));
+			client.setServerSocketFactory(new ProxyServerSocketFactory(connector));
+
+			if(mode.equals("auto"))
+				((FtpClientExt) client).setDataConnectionModeSelector(getDataConnectionModeSelector());
+		}
+		else if(configurationExt != null && configurationExt.isSocketConfigured()) {
+			// A direct connector, it sets the socket options and opens the channels of zeroCopy.
+			client.setSocketFactory(new ProxySocketFactory(acquireProxyConnector(null, configurationExt)));
 		}
 		return client;
 	}
+
+	/**
+	 * @param proxyUrl proxy url, null for the direct connections or the default route
+	 */
+	private synchronized ProxyConnector acquireProxyConnector(String proxyUrl, FtpConfigurationExt configurationExt) throws MalformedURLException {
+		if(proxyConnector == null) {
+			boolean routed = configurationExt != null && configurationExt.isProxyRouted();
+
+			if((proxyUrl != null || routed) && getComponent() instanceof FtpComponentExt) {
+				proxyConnector = ((FtpComponentExt) getComponent()).getProxyConnectorRegistry().acquire(proxyUrl, configurationExt);
+				proxyConnectorShared = true;
+			}
+			else {
+				// Not shared, a direct connector or the endpoint was created without the component.
+				proxyConnector = routed ? ProxyConnector.create(proxyUrl, configurationExt.getNoProxy(), configurationExt.getProxyRoutes())
+						: ProxyConnector.create(proxyUrl);
+				proxyConnectorShared = false;
+
+				if(configurationExt != null)
+					configurationExt.configure(proxyConnector);
+			}
+		}
+		return proxyConnector;
+	}
+
+	@Override
+	protected void doStop() throws Exception {
+		ProxyConnector connector;
+		boolean shared;
+		ExecutorService executor;
+		SeenFileIndex index;
+
+		synchronized (this) {
+			connector = proxyConnector;
+			shared = proxyConnectorShared;
+			proxyConnector = null;
+			executor = segmentExecutor;
+			segmentExecutor = null;
+			// The directories can change while stopped.
+			listingCache = null;
+			index = seenFileIndex;
+			seenFileIndex = null;
+		}
+		if(index != null)
+			index.close();
+		if(getSessionPool() != null)
+			getSessionPool().remove(this);
+		if(executor != null)
+			getCamelContext().getExecutorServiceManager().shutdownNow(executor);
+		if(connector != null) {
+			if(shared)
+				((FtpComponentExt) getComponent()).getProxyConnectorRegistry().release(connector);
+			else
+				connector.close();
+		}
+		super.doStop();
+	}
 }
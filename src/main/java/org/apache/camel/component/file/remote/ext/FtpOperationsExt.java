@@ -0,0 +1,372 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.file.remote.ext;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.component.file.FileComponent;
+import org.apache.camel.component.file.GenericFile;
+import org.apache.camel.component.file.GenericFileOperationFailedException;
+import org.apache.camel.component.file.remote.FtpConstants;
+import org.apache.camel.component.file.remote.FtpOperations;
+import org.apache.camel.component.file.remote.RemoteFileComponent;
+import org.apache.camel.util.FileUtil;
+import org.apache.camel.util.IOHelper;
+import org.apache.camel.util.ObjectHelper;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPClientConfig;
+import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.ftp.FTPReply;
+
+/**
+ * FTP operations of the ftpext endpoint.
+ */
+public class FtpOperationsExt extends FtpOperations {
+	/** Absolute path of the directory polled by the consumer, null outside of a poll. */
+	private String pollPath;
+
+	/** The server answers MLST or MDTM of a directory, null before the first try. */
+	private Boolean mlst;
+	private Boolean mdtm;
+
+	/** Body of the last streamed download, until it is closed. */
+	private RetrieveInputStream retrieveStream;
+
+	/** Endpoint which created the session, its proxy connector opens the connections. */
+	private FtpEndpointExt<?> owner;
+
+	public FtpOperationsExt(FTPClient client, FTPClientConfig clientConfig) {
+		super(client, clientConfig);
+	}
+
+	/**
+	 * A file body is sent from a plain {@link FileInputStream}, the type converter
+	 * gives a buffered stream and {@link FtpClientExt} could not use the file channel.
+	 */
+	@Override
+	public boolean storeFile(String name, Exchange exchange) throws GenericFileOperationFailedException {
+		Object body = exchange.getIn().getBody();
+		File file = localFile(body);
+
+		if(file == null || endpoint.getCharset() != null
+				|| !(client instanceof FtpClientExt) || !((FtpClientExt) client).isChannelTransfer())
+			return super.storeFile(name, exchange);
+
+		FileInputStream in;
+		try {
+			in = new FileInputStream(file);
+		}
+		catch (FileNotFoundException e) {
+			return super.storeFile(name, exchange);
+		}
+
+		exchange.getIn().setBody(in);
+		try {
+			return super.storeFile(name, exchange);
+		}
+		finally {
+			IOHelper.close(in);
+			exchange.getIn().setBody(body);
+		}
+	}
+
+	FtpEndpointExt<?> getOwner() {
+		return owner;
+	}
+
+	void setOwner(FtpEndpointExt<?> owner) {
+		this.owner = owner;
+	}
+
+	/**
+	 * A pooled session taken by an endpoint of the same {@link FtpSessionPool} key:
+	 * the options of the endpoint not sent to the server.
+	 */
+	void lease(FtpEndpointExt<?> endpoint) {
+		setEndpoint(endpoint);
+		try {
+			endpoint.configureClient(client);
+			if(endpoint.getSoTimeout() > 0)
+				client.setSoTimeout(endpoint.getSoTimeout());
+		}
+		catch (IOException e) {
+			throw new GenericFileOperationFailedException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * With streamDownload the body is the stream of the data connection, the transfer is completed
+	 * when the stream is closed (see {@link RetrieveInputStream}).
+	 */
+	@Override
+	public boolean retrieveFile(String name, Exchange exchange) throws GenericFileOperationFailedException {
+		if(!endpoint.getConfiguration().isStreamDownload() || ObjectHelper.isNotEmpty(endpoint.getLocalWorkDirectory()))
+			return super.retrieveFile(name, exchange);
+
+		GenericFile<?> target = exchange.getProperty(FileComponent.FILE_EXCHANGE_FILE, GenericFile.class);
+		ObjectHelper.notNull(target, "Exchange should have the " + FileComponent.FILE_EXCHANGE_FILE + " set");
+
+		if(retrieveStream != null) {
+			log.warn("Stream of {} not closed by its exchange, closing it before {}", retrieveStream.name, name);
+			closeRetrieveStream();
+		}
+
+		try {
+			String remoteName = name;
+			String currentDir = null;
+
+			if(endpoint.getConfiguration().isStepwise()) {
+				currentDir = getCurrentDirectory();
+				String path = FileUtil.onlyPath(name);
+				if(path != null)
+					changeCurrentDirectory(path);
+				remoteName = FileUtil.stripPath(name);
+			}
+
+			log.trace("Client retrieveFileStream: {}", remoteName);
+			InputStream in = client.retrieveFileStream(remoteName);
+			exchange.getIn().setHeader(FtpConstants.FTP_REPLY_CODE, client.getReplyCode());
+			exchange.getIn().setHeader(FtpConstants.FTP_REPLY_STRING, client.getReplyString());
+
+			if(in == null) {
+				if(currentDir != null)
+					changeCurrentDirectory(currentDir);
+				return false;
+			}
+
+			// The directory is changed back after the transfer, a command of the transfer is the next reply.
+			retrieveStream = new RetrieveInputStream(in, name, currentDir);
+			target.setBody(retrieveStream);
+			exchange.getIn().setHeader(RemoteFileComponent.REMOTE_FILE_INPUT_STREAM, retrieveStream);
+			return true;
+		}
+		catch (IOException e) {
+			throw new GenericFileOperationFailedException(client.getReplyCode(), client.getReplyString(), e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Closes the stream of the download, a stream closed by the route is not completed again.
+	 */
+	@Override
+	public void releaseRetreivedFileResources(Exchange exchange) throws GenericFileOperationFailedException {
+		InputStream in = exchange.getIn().getHeader(RemoteFileComponent.REMOTE_FILE_INPUT_STREAM, InputStream.class);
+
+		if(!(in instanceof RetrieveInputStream)) {
+			super.releaseRetreivedFileResources(exchange);
+			return;
+		}
+		try {
+			in.close();
+		}
+		catch (IOException e) {
+			throw new GenericFileOperationFailedException(e.getMessage(), e);
+		}
+	}
+
+	private void closeRetrieveStream() {
+		try {
+			retrieveStream.close();
+		}
+		catch (IOException e) {
+			log.warn("Cannot complete the download of " + retrieveStream.name, e);
+			retrieveStream = null;
+		}
+	}
+
+	/**
+	 * Only the directory polls of the consumer use the cached listings, the read locks
+	 * and the producer always read the listing.
+	 *
+	 * @param path absolute path of the polled directory, null after the poll
+	 */
+	void setPollPath(String path) {
+		this.pollPath = path;
+	}
+
+	@Override
+	public List<FTPFile> listFiles() throws GenericFileOperationFailedException {
+		ListingCache cache = listingCache();
+		if(cache == null)
+			return super.listFiles();
+		return cachedListFiles(cache, null);
+	}
+
+	@Override
+	public List<FTPFile> listFiles(String path) throws GenericFileOperationFailedException {
+		ListingCache cache = listingCache();
+		if(cache == null)
+			return super.listFiles(path);
+		return cachedListFiles(cache, ObjectHelper.isEmpty(path) ? "." : path);
+	}
+
+	private ListingCache listingCache() {
+		if(pollPath == null || !(endpoint instanceof FtpEndpointExt))
+			return null;
+		return ((FtpEndpointExt<?>) endpoint).getListingCache();
+	}
+
+	/**
+	 * @param path directory, null for the current directory
+	 */
+	private List<FTPFile> cachedListFiles(ListingCache cache, String path) throws GenericFileOperationFailedException {
+		String key = endpoint.getConfiguration().getHost() + ":" + endpoint.getConfiguration().getPort() + "/" + pollPath;
+
+		try {
+			long modified = directoryModified(path);
+			FTPFile[] files = modified < 0 ? null : cache.get(key, modified);
+
+			if(files != null)
+				log.trace("Listing of {} not changed, {} files", pollPath, files.length);
+			else {
+				long start = System.currentTimeMillis();
+				files = path == null ? client.listFiles() : client.listFiles(path);
+
+				if(modified >= 0 && files != null && FTPReply.isPositiveCompletion(client.getReplyCode()))
+					cache.put(key, modified, files, start);
+				else
+					cache.remove(key);
+			}
+			return files != null ? new ArrayList<FTPFile>(Arrays.asList(files)) : new ArrayList<FTPFile>();
+		}
+		catch (IOException e) {
+			throw new GenericFileOperationFailedException(client.getReplyCode(), client.getReplyString(), e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * One command: MLST of the directory, MDTM when the server has no MLST.
+	 *
+	 * @param path directory, null for the current directory
+	 * @return modification time of the directory, -1 when the server does not tell it
+	 */
+	private long directoryModified(String path) throws IOException {
+		if(mlst == null)
+			mlst = client.hasFeature("MLST");
+
+		if(mlst) {
+			FTPFile directory = client.mlistFile(path);
+			if(directory != null && directory.getTimestamp() != null)
+				return directory.getTimestamp().getTimeInMillis();
+			if(directory != null || FTPReply.isNegativePermanent(client.getReplyCode())) {
+				log.debug("MLST of a directory without the modify fact, trying MDTM: {}", client.getReplyString());
+				mlst = false;
+			}
+			return -1;
+		}
+
+		if(mdtm == null || mdtm) {
+			String reply = client.getModificationTime(path == null ? "." : path);
+			long modified = reply != null ? parseTime(reply) : -1;
+			if(modified >= 0) {
+				mdtm = true;
+				return modified;
+			}
+			if(mdtm == null || FTPReply.isNegativePermanent(client.getReplyCode())) {
+				log.debug("No MDTM of a directory, the listings are not cached: {}", client.getReplyString());
+				mdtm = false;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param reply MDTM reply, <code>213 YYYYMMDDHHMMSS[.sss]</code>
+	 * @return the digits of the time, only compared with the next reply
+	 */
+	private static long parseTime(String reply) {
+		String time = reply.trim();
+		if(time.length() > 4 && time.startsWith("213"))
+			time = time.substring(4).trim();
+
+		StringBuilder digits = new StringBuilder(18);
+		for(int i = 0; i < time.length() && digits.length() < 18; i++) {
+			char c = time.charAt(i);
+			if(c >= '0' && c <= '9')
+				digits.append(c);
+			else if(c != '.')
+				return -1;
+		}
+		return digits.length() >= 14 ? Long.parseLong(digits.toString()) : -1;
+	}
+
+	private static File localFile(Object body) {
+		if(body instanceof GenericFile) {
+			GenericFile<?> genericFile = (GenericFile<?>) body;
+
+			if(genericFile.getFile() instanceof File)
+				body = genericFile.getFile();
+			else
+				body = genericFile.getBody();
+		}
+		return body instanceof File && ((File) body).isFile() ? (File) body : null;
+	}
+
+	/**
+	 * Stream of a download on the data connection. The route reads the bytes while they arrive,
+	 * a slow route slows the sender through the TCP window of the connection. Close ends the
+	 * transfer: it closes the data connection, reads the reply of RETR and changes the directory
+	 * back, then the control connection takes the next command. A stream closed before its end
+	 * aborts the transfer, the reply is logged.
+	 */
+	private final class RetrieveInputStream extends FilterInputStream {
+		private final String name;
+		private final String directory;
+		private boolean closed;
+
+		RetrieveInputStream(InputStream in, String name, String directory) {
+			super(in);
+			this.name = name;
+			this.directory = directory;
+		}
+
+		@Override
+		public void close() throws IOException {
+			synchronized (FtpOperationsExt.this) {
+				if(closed)
+					return;
+				closed = true;
+				if(retrieveStream == this)
+					retrieveStream = null;
+			}
+
+			try {
+				super.close();
+			}
+			finally {
+				if(!client.completePendingCommand())
+					log.debug("Download of {} not completed: {}", name, client.getReplyString());
+				if(directory != null)
+					changeCurrentDirectory(directory);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "RetrieveInputStream[" + name + "]";
+		}
+	}
+}
@@ -0,0 +1,253 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.file.remote.ext;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.camel.component.file.GenericFileOperationFailedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logged in FTP sessions shared by the consumers of the component.
+ * <p>
+ * A consumer leases a session of its key (server, user, proxy and the options set on login)
+ * for a poll and returns it after the poll, the endpoints polling one server keep as many
+ * control connections as polls run at once. The last returned session is leased first,
+ * a session idle for {@link #VALIDATE_AFTER} milliseconds is checked with NOOP. A session
+ * is kept at most {@link #getIdleTimeout()} milliseconds, at most {@link #getMaxIdle()}
+ * sessions of a key.
+ * <p>
+ * A session uses the proxy connector of the endpoint which opened it, the sessions of
+ * a stopped endpoint are closed.
+ */
+public class FtpSessionPool {
+	private static final Logger LOGGER = LoggerFactory.getLogger(FtpSessionPool.class);
+
+	static final long VALIDATE_AFTER = 10000;
+
+	/** Idle sessions by key, the last returned first. */
+	private final Map<String, LinkedList<Session>> idle = new HashMap<String, LinkedList<Session>>();
+	private int maxIdle = 8;
+	private long idleTimeout = 60000;
+
+	private long leases;
+	private long hits;
+
+	public synchronized int getMaxIdle() {
+		return maxIdle;
+	}
+
+	/**
+	 * Idle sessions kept of one key.
+	 */
+	public synchronized void setMaxIdle(int maxIdle) {
+		this.maxIdle = maxIdle;
+	}
+
+	public synchronized long getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	/**
+	 * Milliseconds an idle session is kept.
+	 */
+	public synchronized void setIdleTimeout(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * @return a logged in session, null when there is no idle session of the key
+	 */
+	public FtpOperationsExt lease(String key) {
+		synchronized (this) {
+			leases++;
+		}
+
+		while(true) {
+			List<Session> expired = new ArrayList<Session>();
+			Session session = poll(key, expired);
+			for(Session old : expired)
+				close(old.operations);
+			if(session == null)
+				return null;
+
+			if(!session.operations.isConnected()
+					|| (System.currentTimeMillis() - session.since >= VALIDATE_AFTER && !noop(session.operations))) {
+				close(session.operations);
+				continue;
+			}
+
+			synchronized (this) {
+				hits++;
+			}
+			return session.operations;
+		}
+	}
+
+	/**
+	 * @param expired sessions idle too long, removed on the way
+	 */
+	private synchronized Session poll(String key, List<Session> expired) {
+		LinkedList<Session> sessions = idle.get(key);
+		if(sessions == null)
+			return null;
+
+		long now = System.currentTimeMillis();
+		Session session = null;
+		while(session == null && !sessions.isEmpty()) {
+			Session first = sessions.removeFirst();
+			if(now - first.since <= idleTimeout)
+				session = first;
+			else
+				expired.add(first);
+		}
+		if(sessions.isEmpty())
+			idle.remove(key);
+		return session;
+	}
+
+	/**
+	 * Keeps the session for the next lease, closes it when it is not connected or its
+	 * endpoint is stopped.
+	 */
+	public void release(String key, FtpOperationsExt operations) {
+		FtpEndpointExt<?> owner = operations.getOwner();
+
+		if(owner == null || owner.isStopping() || owner.isStopped() || !operations.isConnected()) {
+			close(operations);
+			return;
+		}
+
+		List<Session> evicted = new ArrayList<Session>();
+		synchronized (this) {
+			LinkedList<Session> sessions = idle.get(key);
+			if(sessions == null) {
+				sessions = new LinkedList<Session>();
+				idle.put(key, sessions);
+			}
+			sessions.addFirst(new Session(operations));
+
+			long now = System.currentTimeMillis();
+			while(sessions.size() > maxIdle || now - sessions.getLast().since > idleTimeout)
+				evicted.add(sessions.removeLast());
+			if(sessions.isEmpty())
+				idle.remove(key);
+		}
+		for(Session session : evicted)
+			close(session.operations);
+	}
+
+	/**
+	 * Closes the idle sessions opened by the endpoint.
+	 */
+	public void remove(FtpEndpointExt<?> owner) {
+		List<Session> removed = new ArrayList<Session>();
+		synchronized (this) {
+			for(Iterator<LinkedList<Session>> lists = idle.values().iterator(); lists.hasNext();) {
+				LinkedList<Session> sessions = lists.next();
+				for(Iterator<Session> i = sessions.iterator(); i.hasNext();) {
+					Session session = i.next();
+					if(session.operations.getOwner() == owner) {
+						removed.add(session);
+						i.remove();
+					}
+				}
+				if(sessions.isEmpty())
+					lists.remove();
+			}
+		}
+		for(Session session : removed)
+			close(session.operations);
+	}
+
+	/**
+	 * Closes all idle sessions.
+	 */
+	public void clear() {
+		List<Session> removed = new ArrayList<Session>();
+		synchronized (this) {
+			for(LinkedList<Session> sessions : idle.values())
+				removed.addAll(sessions);
+			idle.clear();
+		}
+		for(Session session : removed)
+			close(session.operations);
+	}
+
+	public synchronized int getIdleCount() {
+		int n = 0;
+		for(LinkedList<Session> sessions : idle.values())
+			n += sessions.size();
+		return n;
+	}
+
+	/**
+	 * @return leases of all keys
+	 */
+	public synchronized long getLeases() {
+		return leases;
+	}
+
+	/**
+	 * @return leases answered by an idle session
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "FtpSessionPool[idle=" + getIdleCount() + ", leases=" + leases + ", hits=" + hits + "]";
+	}
+
+	private static boolean noop(FtpOperationsExt operations) {
+		try {
+			return operations.sendNoop();
+		}
+		catch (GenericFileOperationFailedException e) {
+			LOGGER.debug("Idle session lost: {}", e.getMessage());
+			return false;
+		}
+	}
+
+	private static void close(FtpOperationsExt operations) {
+		try {
+			if(operations.isConnected())
+				operations.disconnect();
+		}
+		catch (GenericFileOperationFailedException e) {
+			LOGGER.debug("Error closing an idle session: {}", e.getMessage());
+		}
+	}
+
+	private static final class Session {
+		final FtpOperationsExt operations;
+		/** Local time the session was returned. */
+		final long since;
+
+		Session(FtpOperationsExt operations) {
+			this.operations = operations;
+			this.since = System.currentTimeMillis();
+		}
+	}
+}
@@ -0,0 +1,133 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.file.remote.ext;
+
+import java.net.URI;
+
+/**
+ * Options of the ftpsext endpoint, the FTPS options of the ftps endpoint and the TLS session cache.
+ */
+public class FtpsConfigurationExt extends FtpConfigurationExt {
+	private String securityProtocol = "TLS";
+	private boolean implicit;
+	private boolean disableSecureDataChannelDefaults;
+	private String execProt;
+	private Long execPbsz;
+	private int sslSessionCacheSize;
+	private int sslSessionTimeout;
+
+	public FtpsConfigurationExt() {
+		super();
+		setProtocol("ftps");
+	}
+
+	public FtpsConfigurationExt(URI uri) {
+		super(uri);
+		setProtocol("ftps");
+	}
+
+	public String getSecurityProtocol() {
+		return securityProtocol;
+	}
+
+	/**
+	 * Protocol of the {@link javax.net.ssl.SSLContext}, TLS by default.
+	 */
+	public void setSecurityProtocol(String securityProtocol) {
+		this.securityProtocol = securityProtocol;
+	}
+
+	public boolean isImplicit() {
+		return implicit;
+	}
+
+	/**
+	 * TLS from the connect, otherwise after AUTH TLS. The name of the ftps option.
+	 */
+	public void setIsImplicit(boolean implicit) {
+		this.implicit = implicit;
+	}
+
+	public boolean isDisableSecureDataChannelDefaults() {
+		return disableSecureDataChannelDefaults;
+	}
+
+	/**
+	 * Without PBSZ 0 and PROT P after the login, only execPbsz and execProt are sent.
+	 */
+	public void setDisableSecureDataChannelDefaults(boolean disableSecureDataChannelDefaults) {
+		this.disableSecureDataChannelDefaults = disableSecureDataChannelDefaults;
+	}
+
+	public String getExecProt() {
+		return execProt;
+	}
+
+	/**
+	 * PROT after the login: C clear data connections, P private.
+	 */
+	public void setExecProt(String execProt) {
+		this.execProt = execProt;
+	}
+
+	public Long getExecPbsz() {
+		return execPbsz;
+	}
+
+	/**
+	 * PBSZ after the login.
+	 */
+	public void setExecPbsz(Long execPbsz) {
+		this.execPbsz = execPbsz;
+	}
+
+	/**
+	 * @return PBSZ sent after the login, null - none
+	 */
+	Long getProtectionBufferSize() {
+		return execPbsz != null || disableSecureDataChannelDefaults ? execPbsz : Long.valueOf(0);
+	}
+
+	/**
+	 * @return PROT sent after the login, null - none
+	 */
+	String getDataProtection() {
+		return execProt != null || disableSecureDataChannelDefaults ? execProt : "P";
+	}
+
+	public int getSslSessionCacheSize() {
+		return sslSessionCacheSize;
+	}
+
+	/**
+	 * TLS sessions kept for the resumption by the endpoint, 0 - the JVM default.
+	 */
+	public void setSslSessionCacheSize(int sslSessionCacheSize) {
+		this.sslSessionCacheSize = sslSessionCacheSize;
+	}
+
+	public int getSslSessionTimeout() {
+		return sslSessionTimeout;
+	}
+
+	/**
+	 * Seconds a TLS session can be resumed, 0 - the JVM default.
+	 */
+	public void setSslSessionTimeout(int sslSessionTimeout) {
+		this.sslSessionTimeout = sslSessionTimeout;
+	}
+}
@@ -0,0 +1,195 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.file.remote.ext;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Map;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.apache.camel.component.file.remote.RemoteFileComponent;
+import org.apache.camel.component.file.remote.RemoteFileConfiguration;
+import org.apache.camel.util.IOHelper;
+import org.apache.camel.util.jsse.SSLContextParameters;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.util.SSLContextUtils;
+import org.apache.commons.net.util.TrustManagerUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * FTPS endpoint. TLS over the connections of the proxy.
+ * <p>
+ * The options of the ftps endpoint: sslContextParameters, ftpClient.keyStore.*,
+ * ftpClient.trustStore.*, securityProtocol, isImplicit, execPbsz, execProt.
+ * The clients of the endpoint share one {@link SSLContext}, its client session cache keeps
+ * the TLS sessions of the control connections, the data connections resume them.
+ * <pre>
+ * from("ftpsext://{{remoteurl}}/?proxy={{proxyUrl}}&amp;binary=true&amp;sslSessionCacheSize=100")
+ * </pre>
+ */
+public class FtpsEndpointExt extends FtpEndpointExt<FTPFile> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FtpsEndpointExt.class);
+
+    protected Map<String, Object> ftpClientKeyStoreParameters;
+    protected Map<String, Object> ftpClientTrustStoreParameters;
+    protected SSLContextParameters sslContextParameters;
+
+    /** Context of the clients, created on the first client. */
+    private SSLContext sslContext;
+
+	public FtpsEndpointExt() {
+		super();
+	}
+
+	public FtpsEndpointExt(String uri, RemoteFileComponent<FTPFile> component, RemoteFileConfiguration configuration) {
+		super(uri, component, configuration);
+	}
+
+	@Override
+	public String getScheme() {
+		return getConfiguration().getProtocol();
+	}
+
+	/**
+	 * Same client as the ftpext endpoint, with TLS of the endpoint context.
+	 */
+	@Override
+	protected FTPClient createFtpClient() throws Exception {
+		FTPClient client = super.createFtpClient();
+
+		if(client instanceof FtpClientExt && configuration instanceof FtpsConfigurationExt) {
+			FtpClientExt clientExt = (FtpClientExt) client;
+			FtpsConfigurationExt configurationExt = (FtpsConfigurationExt) configuration;
+
+			clientExt.setSslContext(getSslContext());
+			clientExt.setImplicit(configurationExt.isImplicit());
+			clientExt.setDataChannelProtection(configurationExt.getProtectionBufferSize(), configurationExt.getDataProtection());
+		}
+		return client;
+	}
+
+	/**
+	 * The TLS sessions are not shared with the ftpext sessions of the same server.
+	 */
+	@Override
+	String getSessionPoolKey() {
+		boolean implicit = configuration instanceof FtpsConfigurationExt && ((FtpsConfigurationExt) configuration).isImplicit();
+		return super.getSessionPoolKey() + " ftps=" + (implicit ? "implicit" : "explicit");
+	}
+
+	/**
+	 * @return context of the clients, from the sslContextParameters or the key and trust stores
+	 */
+	public synchronized SSLContext getSslContext() throws GeneralSecurityException, IOException {
+		if(sslContext == null) {
+			SSLContext context;
+
+			if(sslContextParameters != null)
+				context = sslContextParameters.createSSLContext();
+			else {
+				String protocol = configuration instanceof FtpsConfigurationExt
+						? ((FtpsConfigurationExt) configuration).getSecurityProtocol() : "TLS";
+				KeyManager keyManager = null;
+				// Same as FTPSClient, the certificate of the server is validated without a trust store.
+				TrustManager trustManager = TrustManagerUtils.getValidateServerCertificateTrustManager();
+
+				if(ftpClientKeyStoreParameters != null) {
+					KeyStore keyStore = loadKeyStore(ftpClientKeyStoreParameters, "keyStore");
+					String algorithm = ftpClientKeyStoreParameters.containsKey("algorithm")
+							? (String) ftpClientKeyStoreParameters.get("algorithm") : KeyManagerFactory.getDefaultAlgorithm();
+					String keyPassword = (String) ftpClientKeyStoreParameters.get("keyPassword");
+
+					KeyManagerFactory factory = KeyManagerFactory.getInstance(algorithm);
+					factory.init(keyStore, keyPassword != null ? keyPassword.toCharArray() : null);
+					keyManager = factory.getKeyManagers()[0];
+				}
+
+				if(ftpClientTrustStoreParameters != null) {
+					KeyStore trustStore = loadKeyStore(ftpClientTrustStoreParameters, "trustStore");
+					String algorithm = ftpClientTrustStoreParameters.containsKey("algorithm")
+							? (String) ftpClientTrustStoreParameters.get("algorithm") : TrustManagerFactory.getDefaultAlgorithm();
+
+					TrustManagerFactory factory = TrustManagerFactory.getInstance(algorithm);
+					factory.init(trustStore);
+					trustManager = factory.getTrustManagers()[0];
+				}
+				context = SSLContextUtils.createSSLContext(protocol, keyManager, trustManager);
+			}
+
+			if(configuration instanceof FtpsConfigurationExt) {
+				FtpsConfigurationExt configurationExt = (FtpsConfigurationExt) configuration;
+				SSLSessionContext sessions = context.getClientSessionContext();
+
+				if(configurationExt.getSslSessionCacheSize() > 0)
+					sessions.setSessionCacheSize(configurationExt.getSslSessionCacheSize());
+				if(configurationExt.getSslSessionTimeout() > 0)
+					sessions.setSessionTimeout(configurationExt.getSslSessionTimeout());
+			}
+			LOGGER.debug("Created SSLContext {} of {}", context.getProtocol(), this);
+			sslContext = context;
+		}
+		return sslContext;
+	}
+
+	private KeyStore loadKeyStore(Map<String, Object> parameters, String name) throws GeneralSecurityException, IOException {
+		String type = parameters.containsKey("type") ? (String) parameters.get("type") : KeyStore.getDefaultType();
+		String file = (String) parameters.get("file");
+		String password = (String) parameters.get("password");
+
+		KeyStore keyStore = KeyStore.getInstance(type);
+		FileInputStream in = new FileInputStream(new File(file));
+		try {
+			keyStore.load(in, password != null ? password.toCharArray() : null);
+		}
+		finally {
+			IOHelper.close(in, name, LOGGER);
+		}
+		return keyStore;
+	}
+
+	public FtpsConfigurationExt getFtpsConfiguration() {
+		return (FtpsConfigurationExt) getConfiguration();
+	}
+
+	public void setFtpClientKeyStoreParameters(Map<String, Object> param) {
+		this.ftpClientKeyStoreParameters = param;
+	}
+
+	public void setFtpClientTrustStoreParameters(Map<String, Object> param) {
+		this.ftpClientTrustStoreParameters = param;
+	}
+
+	public SSLContextParameters getSslContextParameters() {
+		return sslContextParameters;
+	}
+
+	public synchronized void setSslContextParameters(SSLContextParameters sslContextParameters) {
+		this.sslContextParameters = sslContextParameters;
+		this.sslContext = null;
+	}
+}
@@ -0,0 +1,128 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.file.remote.ext;
+
+import org.apache.camel.util.LRUCache;
+import org.apache.commons.net.ftp.FTPFile;
+
+/**
+ * Listings of the remote directories, kept between the polls of a consumer.
+ * <p>
+ * A listing is used again while the modification time of its directory (MLST modify fact
+ * or MDTM) is the same. The time has a resolution of a second, so a listing is trusted
+ * only when it was read {@link #SETTLE_MILLIS} after the time was first seen, a change
+ * of the same second is read by the next poll. A file rewritten in place does not change
+ * its directory, the listing is read again after the maximum age.
+ */
+public class ListingCache {
+	static final long SETTLE_MILLIS = 2000;
+
+	private final LRUCache<String, Entry> entries;
+	private final long maxAge;
+
+	private long validated;
+	private long listed;
+
+	/**
+	 * @param size directories kept
+	 * @param maxAge milliseconds a listing is used at most, 0 without a limit
+	 */
+	public ListingCache(int size, long maxAge) {
+		this.entries = new LRUCache<String, Entry>(Math.max(size, 1));
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * @param key host, port and path of the directory
+	 * @param modified modification time of the directory
+	 * @return the cached listing, null when the directory changed or the listing is too old
+	 */
+	public synchronized FTPFile[] get(String key, long modified) {
+		Entry entry = entries.get(key);
+		long now = System.currentTimeMillis();
+
+		if(entry == null || entry.modified != modified || (maxAge > 0 && now - entry.listed > maxAge)
+				|| entry.listed - entry.observed < SETTLE_MILLIS)
+			return null;
+
+		validated++;
+		return entry.files;
+	}
+
+	/**
+	 * @param modified modification time of the directory read before the listing
+	 * @param listedAt start of the listing
+	 */
+	public synchronized void put(String key, long modified, FTPFile[] files, long listedAt) {
+		Entry entry = entries.get(key);
+		long observed = entry != null && entry.modified == modified ? entry.observed : listedAt;
+
+		entries.put(key, new Entry(modified, files, observed, listedAt));
+		listed++;
+	}
+
+	public synchronized void remove(String key) {
+		entries.remove(key);
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return polls answered by the cached listing
+	 */
+	public synchronized long getValidated() {
+		return validated;
+	}
+
+	/**
+	 * @return listings read and cached
+	 */
+	public synchronized long getListed() {
+		return listed;
+	}
+
+	public long getMaxAge() {
+		return maxAge;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ListingCache[size=" + entries.size() + ", validated=" + validated + ", listed=" + listed + "]";
+	}
+
+	private static final class Entry {
+		final long modified;
+		final FTPFile[] files;
+		/** Local time the modification time was first seen. */
+		final long observed;
+		/** Local time the listing started. */
+		final long listed;
+
+		Entry(long modified, FTPFile[] files, long observed, long listed) {
+			this.modified = modified;
+			this.files = files;
+			this.observed = observed;
+			this.listed = listed;
+		}
+	}
+}
@@ -0,0 +1,67 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.file.remote.ext;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.camel.api.management.ManagedAttribute;
+import org.apache.camel.api.management.ManagedResource;
+import org.apache.commons.net.proxy.ProxyConnector;
+import org.apache.commons.net.proxy.ProxyMetrics;
+
+/**
+ * JMX view of a proxy server.
+ */
+@ManagedResource(description = "Proxy server statistics")
+public class ManagedProxyConnector extends ManagedProxyStatistics {
+	private final ProxyConnector connector;
+
+	public ManagedProxyConnector(ProxyConnector connector) {
+		this.connector = connector;
+	}
+
+	@Override
+	protected List<ProxyMetrics> getMetrics() {
+		return Collections.singletonList(connector.getMetrics());
+	}
+
+	@ManagedAttribute(description = "Proxy")
+	public String getProxy() {
+		return connector.toString();
+	}
+
+	@ManagedAttribute(description = "Proxy scheme")
+	public String getScheme() {
+		return connector.getProxySchema();
+	}
+
+	@ManagedAttribute(description = "Warm proxy connections in the pool")
+	public int getPoolIdle() {
+		return connector.getPool() != null ? connector.getPool().getIdleCount() : 0;
+	}
+
+	@ManagedAttribute(description = "Connects served from the pool")
+	public long getPoolHits() {
+		return connector.getPool() != null ? connector.getPool().getHits() : 0;
+	}
+
+	@ManagedAttribute(description = "Connects not served from the pool")
+	public long getPoolMisses() {
+		return connector.getPool() != null ? connector.getPool().getMisses() : 0;
+	}
+}
@@ -0,0 +1,57 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.file.remote.ext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.camel.api.management.ManagedAttribute;
+import org.apache.camel.api.management.ManagedResource;
+import org.apache.commons.net.proxy.ProxyConnector;
+import org.apache.commons.net.proxy.ProxyMetrics;
+
+/**
+ * JMX view of all proxy servers of a scheme (http, socks, socks4, ftp).
+ */
+@ManagedResource(description = "Proxy scheme statistics")
+public class ManagedProxyScheme extends ManagedProxyStatistics {
+	private final ProxyConnectorRegistry registry;
+	private final String scheme;
+
+	public ManagedProxyScheme(ProxyConnectorRegistry registry, String scheme) {
+		this.registry = registry;
+		this.scheme = scheme;
+	}
+
+	@Override
+	protected List<ProxyMetrics> getMetrics() {
+		List<ProxyMetrics> metrics = new ArrayList<ProxyMetrics>();
+		for(ProxyConnector connector : registry.getProxyConnectors(scheme))
+			metrics.add(connector.getMetrics());
+		return metrics;
+	}
+
+	@ManagedAttribute(description = "Proxy scheme")
+	public String getScheme() {
+		return scheme;
+	}
+
+	@ManagedAttribute(description = "Proxy servers of the scheme")
+	public int getProxyCount() {
+		return registry.getProxyConnectors(scheme).size();
+	}
+}
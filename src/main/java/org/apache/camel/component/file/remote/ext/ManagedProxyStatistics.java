@@ -0,0 +1,164 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.file.remote.ext;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.camel.api.management.ManagedAttribute;
+import org.apache.commons.net.proxy.LatencyHistogram;
+import org.apache.commons.net.proxy.ProxyMetrics;
+
+/**
+ * JMX view of the statistics of one or more proxy connectors, the values are summed.
+ */
+public abstract class ManagedProxyStatistics {
+
+	protected abstract List<ProxyMetrics> getMetrics();
+
+	@ManagedAttribute(description = "Tunnels opened")
+	public long getTunnels() {
+		long sum = 0;
+		for(ProxyMetrics metrics : getMetrics())
+			sum += metrics.getTunnels();
+		return sum;
+	}
+
+	@ManagedAttribute(description = "Tunnels open now")
+	public long getActiveTunnels() {
+		long sum = 0;
+		for(ProxyMetrics metrics : getMetrics())
+			sum += metrics.getActiveTunnels();
+		return sum;
+	}
+
+	@ManagedAttribute(description = "Bytes received through the tunnels")
+	public long getBytesReceived() {
+		long sum = 0;
+		for(ProxyMetrics metrics : getMetrics())
+			sum += metrics.getBytesReceived();
+		return sum;
+	}
+
+	@ManagedAttribute(description = "Bytes sent through the tunnels")
+	public long getBytesSent() {
+		long sum = 0;
+		for(ProxyMetrics metrics : getMetrics())
+			sum += metrics.getBytesSent();
+		return sum;
+	}
+
+	@ManagedAttribute(description = "TCP connects to the proxy")
+	public long getConnectCount() {
+		return count(connectBuckets());
+	}
+
+	@ManagedAttribute(description = "Mean TCP connect time in milliseconds")
+	public double getConnectMeanMillis() {
+		double sum = 0;
+		long count = 0;
+		for(ProxyMetrics metrics : getMetrics()) {
+			sum += metrics.getConnectLatency().getMean() * metrics.getConnectLatency().getCount();
+			count += metrics.getConnectLatency().getCount();
+		}
+		return count > 0 ? sum / count : 0;
+	}
+
+	@ManagedAttribute(description = "95th percentile of the TCP connect time (bucket bound) in milliseconds, -1 unknown or above the last bucket")
+	public long getConnectP95Millis() {
+		return LatencyHistogram.percentile(connectBuckets(), 95);
+	}
+
+	@ManagedAttribute(description = "TCP connect time histogram")
+	public String getConnectHistogram() {
+		return LatencyHistogram.format(connectBuckets());
+	}
+
+	@ManagedAttribute(description = "Successful proxy handshakes")
+	public long getHandshakeCount() {
+		return count(handshakeBuckets());
+	}
+
+	@ManagedAttribute(description = "Mean handshake time in milliseconds")
+	public double getHandshakeMeanMillis() {
+		double sum = 0;
+		long count = 0;
+		for(ProxyMetrics metrics : getMetrics()) {
+			sum += metrics.getHandshakeLatency().getMean() * metrics.getHandshakeLatency().getCount();
+			count += metrics.getHandshakeLatency().getCount();
+		}
+		return count > 0 ? sum / count : 0;
+	}
+
+	@ManagedAttribute(description = "95th percentile of the handshake time (bucket bound) in milliseconds, -1 unknown or above the last bucket")
+	public long getHandshakeP95Millis() {
+		return LatencyHistogram.percentile(handshakeBuckets(), 95);
+	}
+
+	@ManagedAttribute(description = "Handshake time histogram")
+	public String getHandshakeHistogram() {
+		return LatencyHistogram.format(handshakeBuckets());
+	}
+
+	@ManagedAttribute(description = "Failed connects and handshakes")
+	public long getFailureCount() {
+		long sum = 0;
+		for(ProxyMetrics metrics : getMetrics())
+			sum += metrics.getFailureCount();
+		return sum;
+	}
+
+	@ManagedAttribute(description = "Failed connects and handshakes by reason")
+	public String getFailures() {
+		Map<String, Long> failures = new TreeMap<String, Long>();
+
+		for(ProxyMetrics metrics : getMetrics()) {
+			for(Map.Entry<String, Long> entry : metrics.getFailures().entrySet()) {
+				Long count = failures.get(entry.getKey());
+				failures.put(entry.getKey(), count == null ? entry.getValue() : count + entry.getValue());
+			}
+		}
+		return failures.toString();
+	}
+
+	private long[] connectBuckets() {
+		long[] sum = new long[LatencyHistogram.getBounds().length + 1];
+		for(ProxyMetrics metrics : getMetrics())
+			add(sum, metrics.getConnectLatency().getBuckets());
+		return sum;
+	}
+
+	private long[] handshakeBuckets() {
+		long[] sum = new long[LatencyHistogram.getBounds().length + 1];
+		for(ProxyMetrics metrics : getMetrics())
+			add(sum, metrics.getHandshakeLatency().getBuckets());
+		return sum;
+	}
+
+	private static void add(long[] sum, long[] buckets) {
+		for(int i = 0; i < sum.length; i++)
+			sum[i] += buckets[i];
+	}
+
+	private static long count(long[] buckets) {
+		long count = 0;
+		for(long bucket : buckets)
+			count += bucket;
+		return count;
+	}
+}
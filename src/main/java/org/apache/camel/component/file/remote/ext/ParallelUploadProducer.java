@@ -0,0 +1,267 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.file.remote.ext;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.AsyncProcessor;
+import org.apache.camel.Exchange;
+import org.apache.camel.component.file.GenericFileProducer;
+import org.apache.camel.component.file.remote.RemoteFileProducer;
+import org.apache.camel.util.AsyncProcessorHelper;
+import org.apache.camel.util.ServiceHelper;
+import org.apache.camel.util.URISupport;
+import org.apache.commons.net.ftp.FTPFile;
+
+/**
+ * Producer uploading through several FTP sessions at once.
+ * <p>
+ * Every session has its own control connection (through the proxy) and its own thread.
+ * An exchange is queued and processed asynchronously by a free session, a full queue
+ * blocks the sender until a session takes the next exchange. With the ordering the
+ * exchanges of one target file always go through the same session, in the order
+ * they were sent, otherwise the uploads of one file can overtake each other.
+ * The sessions never write one file at the same time.
+ */
+public class ParallelUploadProducer extends GenericFileProducer<FTPFile> implements AsyncProcessor {
+	private final FtpEndpointExt<?> endpoint;
+	private final int sessions;
+	private final boolean ordered;
+	private final int queueSize;
+
+	private final List<Session> workers = new ArrayList<Session>();
+	/** One queue of all sessions, or a queue of each session with the ordering. */
+	private final List<BlockingQueue<Task>> queues = new ArrayList<BlockingQueue<Task>>();
+	private ExecutorService executor;
+
+	/** Locks of the target files, shared by the sessions. A lock is kept while a session holds or waits for it. */
+	private final Map<String, TargetLock> locks = new HashMap<String, TargetLock>();
+
+	/**
+	 * @param sessions number of the sessions
+	 * @param ordered the exchanges of a target file go through one session
+	 * @param queueSize exchanges waiting for a session, of each session with the ordering
+	 */
+	public ParallelUploadProducer(FtpEndpointExt<?> endpoint, int sessions, boolean ordered, int queueSize) {
+		super(endpoint, null);
+		this.endpoint = endpoint;
+		this.sessions = sessions;
+		this.ordered = ordered;
+		this.queueSize = queueSize;
+	}
+
+	public int getSessions() {
+		return sessions;
+	}
+
+	public boolean isOrdered() {
+		return ordered;
+	}
+
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	/**
+	 * @return exchanges waiting for a session
+	 */
+	public int getPendingExchanges() {
+		int n = 0;
+		for(BlockingQueue<Task> queue : queues)
+			n += queue.size();
+		return n;
+	}
+
+	@Override
+	public void process(Exchange exchange) throws Exception {
+		AsyncProcessorHelper.process(this, exchange);
+	}
+
+	@Override
+	public boolean process(Exchange exchange, AsyncCallback callback) {
+		if(!isRunAllowed()) {
+			exchange.setException(new RejectedExecutionException(this + " is not started"));
+			callback.done(true);
+			return true;
+		}
+
+		String target = createFileName(exchange);
+		BlockingQueue<Task> queue;
+		if(ordered)
+			queue = queues.get(((target != null ? target.hashCode() : 0) & Integer.MAX_VALUE) % queues.size());
+		else
+			queue = queues.get(0);
+
+		Task task = new Task(exchange, target, callback);
+		try {
+			queue.put(task);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			exchange.setException(e);
+			callback.done(true);
+			return true;
+		}
+
+		// Stopped meanwhile, nobody takes the task.
+		if(!isRunAllowed() && queue.remove(task))
+			task.reject();
+		return false;
+	}
+
+	private TargetLock lock(String target) {
+		synchronized (locks) {
+			TargetLock lock = locks.get(target);
+			if(lock == null) {
+				lock = new TargetLock();
+				locks.put(target, lock);
+			}
+			lock.users++;
+			return lock;
+		}
+	}
+
+	private void release(String target, TargetLock lock) {
+		synchronized (locks) {
+			if(--lock.users == 0)
+				locks.remove(target);
+		}
+	}
+
+	@Override
+	protected void doStart() throws Exception {
+		super.doStart();
+
+		int n = ordered ? sessions : 1;
+		for(int i = 0; i < n; i++)
+			queues.add(new ArrayBlockingQueue<Task>(Math.max(queueSize, 1)));
+
+		for(int i = 0; i < sessions; i++)
+			workers.add(new Session(endpoint, queues.get(ordered ? i : 0)));
+		ServiceHelper.startServices(workers);
+
+		executor = endpoint.getCamelContext().getExecutorServiceManager().newFixedThreadPool(this, "FtpParallelUpload", sessions);
+		for(Session session : workers)
+			executor.execute(session);
+	}
+
+	@Override
+	protected void doStop() throws Exception {
+		if(executor != null) {
+			endpoint.getCamelContext().getExecutorServiceManager().shutdownNow(executor);
+			executor = null;
+		}
+
+		List<Task> rejected = new ArrayList<Task>();
+		for(BlockingQueue<Task> queue : queues)
+			queue.drainTo(rejected);
+		for(Task task : rejected)
+			task.reject();
+
+		// Disconnects the sessions.
+		ServiceHelper.stopServices(workers);
+		workers.clear();
+		queues.clear();
+		super.doStop();
+	}
+
+	@Override
+	public String toString() {
+		return "ParallelUploadProducer[" + URISupport.sanitizeUri(endpoint.getEndpointUri()) + "]";
+	}
+
+	/**
+	 * Lock of a target file with the sessions holding or waiting for it.
+	 */
+	private static final class TargetLock {
+		final Lock lock = new ReentrantLock();
+		/** Guarded by the locks map. */
+		int users;
+	}
+
+	/**
+	 * Exchange waiting for a session.
+	 */
+	private final class Task {
+		private final Exchange exchange;
+		private final String target;
+		private final AsyncCallback callback;
+
+		Task(Exchange exchange, String target, AsyncCallback callback) {
+			this.exchange = exchange;
+			this.target = target;
+			this.callback = callback;
+		}
+
+		void run(Session session) {
+			String key = String.valueOf(target);
+			TargetLock lock = lock(key);
+
+			lock.lock.lock();
+			try {
+				session.process(exchange);
+			}
+			catch (Throwable e) {
+				exchange.setException(e);
+			}
+			finally {
+				lock.lock.unlock();
+				release(key, lock);
+				callback.done(false);
+			}
+		}
+
+		void reject() {
+			exchange.setException(new RejectedExecutionException(ParallelUploadProducer.this + " is stopped"));
+			callback.done(false);
+		}
+	}
+
+	/**
+	 * FTP session with its own operations, uploads the exchanges of its queue one after another.
+	 * A broken connection is recovered by the session, as by the single producer.
+	 */
+	private static final class Session extends RemoteFileProducer<FTPFile> implements Runnable {
+		private final BlockingQueue<Task> queue;
+
+		Session(FtpEndpointExt<?> endpoint, BlockingQueue<Task> queue) throws Exception {
+			super(endpoint, endpoint.createRemoteFileOperations());
+			this.queue = queue;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while(!Thread.currentThread().isInterrupted())
+					queue.take().run(this);
+			}
+			catch (InterruptedException e) {
+				// Stopped.
+			}
+		}
+	}
+}
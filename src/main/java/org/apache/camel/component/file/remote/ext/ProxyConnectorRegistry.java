@@ -0,0 +1,244 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.file.remote.ext;
+
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.ObjectName;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.spi.ManagementStrategy;
+import org.apache.commons.net.proxy.ProxyConnector;
+import org.apache.commons.net.proxy.ProxyConnectorGroup;
+import org.apache.commons.net.proxy.ProxyConnectorRouter;
+import org.apache.commons.net.proxy.ProxyUrl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Proxy connectors of the component, one per proxy.
+ * <p>
+ * The connectors are keyed by the normalized proxy url and counted by reference:
+ * every endpoint using the proxy acquires the connector once and releases it on stop.
+ * The last release closes the connector. The connector options (pool, pipelining,
+ * socket profiles, name resolution) are taken from the endpoint which created the connector,
+ * an endpoint with other options gets the shared connector and a warning.
+ * <p>
+ * The statistics of every proxy server ({@link ManagedProxyConnector}) and of every
+ * proxy scheme ({@link ManagedProxyScheme}) are registered in the management strategy
+ * of the camel context, <code>type=proxies</code> and <code>type=proxySchemes</code>.
+ */
+public class ProxyConnectorRegistry {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ProxyConnectorRegistry.class);
+
+	private final Map<String, Entry> connectors = new HashMap<String, Entry>();
+	private final Map<String, ObjectName> schemes = new HashMap<String, ObjectName>();
+
+	/** Source of the camel context for the management, can be null. */
+	private final FtpComponentExt component;
+
+	public ProxyConnectorRegistry() {
+		this(null);
+	}
+
+	public ProxyConnectorRegistry(FtpComponentExt component) {
+		this.component = component;
+	}
+
+	/**
+	 * @param proxyUrl proxy url or a comma separated list of proxy urls, null for the
+	 * direct connections of a routing configuration
+	 * @param configuration options of a new connector and the routing rules, can be null
+	 * @return shared connector of the proxy, of the proxy and the rules with the routing
+	 */
+	public synchronized ProxyConnector acquire(String proxyUrl, FtpConfigurationExt configuration) throws MalformedURLException {
+		String url = proxyUrl != null ? ProxyUrl.normalize(proxyUrl) : null;
+		String noProxy = configuration != null ? configuration.getNoProxy() : null;
+		String routes = configuration != null ? configuration.getProxyRoutes() : null;
+		String key = noProxy != null || routes != null ? url + " noProxy=" + noProxy + " routes=" + routes : url;
+		Entry entry = connectors.get(key);
+
+		if(entry == null) {
+			ProxyConnector connector = ProxyConnector.create(url, noProxy, routes);
+
+			if(configuration != null)
+				configuration.configure(connector);
+			entry = new Entry(connector, configuration != null ? configuration.getConnectorOptions() : null);
+			connectors.put(key, entry);
+			manage(entry);
+			LOGGER.debug("Created proxy connector {}", connector);
+		}
+		else if(configuration != null && entry.options != null && !entry.options.equals(configuration.getConnectorOptions())) {
+			LOGGER.warn("Proxy connector {} is shared with the options [{}], the options [{}] of the endpoint are not applied",
+					new Object[] {entry.connector, entry.options, configuration.getConnectorOptions()});
+		}
+		entry.references++;
+
+		return entry.connector;
+	}
+
+	/**
+	 * Releases the connector taken by {@link #acquire(String, FtpConfigurationExt)}.
+	 */
+	public void release(ProxyConnector connector) {
+		Entry released = null;
+
+		synchronized (this) {
+			for(Iterator<Entry> it = connectors.values().iterator(); it.hasNext(); ) {
+				Entry entry = it.next();
+
+				if(entry.connector == connector) {
+					if(--entry.references <= 0) {
+						it.remove();
+						unmanage(entry);
+						released = entry;
+					}
+					break;
+				}
+			}
+		}
+		if(released != null) {
+			LOGGER.debug("Closed proxy connector {}", connector);
+			released.connector.close();
+		}
+	}
+
+	/**
+	 * Closes all connectors.
+	 */
+	public void clear() {
+		List<Entry> entries;
+
+		synchronized (this) {
+			entries = new ArrayList<Entry>(connectors.values());
+			connectors.clear();
+
+			for(Entry entry : entries)
+				unmanage(entry);
+		}
+		for(Entry entry : entries)
+			entry.connector.close();
+	}
+
+	public synchronized int size() {
+		return connectors.size();
+	}
+
+	/**
+	 * @return connectors of the proxy servers with the scheme, the members of the groups included
+	 */
+	public synchronized List<ProxyConnector> getProxyConnectors(String scheme) {
+		List<ProxyConnector> list = new ArrayList<ProxyConnector>();
+
+		for(Entry entry : connectors.values()) {
+			for(ProxyConnector connector : entry.connector.getProxyConnectors()) {
+				if(scheme.equals(connector.getProxySchema()))
+					list.add(connector);
+			}
+		}
+		return list;
+	}
+
+	private void manage(Entry entry) {
+		ManagementStrategy strategy = managementStrategy();
+		if(strategy == null)
+			return;
+
+		String group = entry.connector instanceof ProxyConnectorGroup ? entry.connector.toString() : null;
+		// A proxy of the rules can be shared by several routers and used without them.
+		String routes = entry.connector instanceof ProxyConnectorRouter ? entry.connector.toString() : null;
+
+		// The connectors of the system proxies are created later, they are not registered.
+		for(ProxyConnector connector : entry.connector.getProxyConnectors()) {
+			try {
+				String name = "type=proxies,";
+				if(group != null)
+					name += "group=" + ObjectName.quote(group) + ",";
+				if(routes != null)
+					name += "routes=" + ObjectName.quote(routes) + ",";
+				ObjectName objectName = objectName(name + "name=" + ObjectName.quote(connector.toString()));
+
+				strategy.manageNamedObject(new ManagedProxyConnector(connector), objectName);
+				entry.names.add(objectName);
+
+				String scheme = connector.getProxySchema();
+				if(!schemes.containsKey(scheme)) {
+					objectName = objectName("type=proxySchemes,name=" + ObjectName.quote(scheme));
+					strategy.manageNamedObject(new ManagedProxyScheme(this, scheme), objectName);
+					schemes.put(scheme, objectName);
+				}
+			}
+			catch (Exception e) {
+				LOGGER.warn("Cannot register proxy statistics of " + connector + " in JMX", e);
+			}
+		}
+	}
+
+	private void unmanage(Entry entry) {
+		ManagementStrategy strategy = managementStrategy();
+		if(strategy == null)
+			return;
+
+		try {
+			for(ObjectName objectName : entry.names)
+				strategy.unmanageNamedObject(objectName);
+
+			for(Iterator<Map.Entry<String, ObjectName>> it = schemes.entrySet().iterator(); it.hasNext(); ) {
+				Map.Entry<String, ObjectName> scheme = it.next();
+
+				if(getProxyConnectors(scheme.getKey()).isEmpty()) {
+					strategy.unmanageNamedObject(scheme.getValue());
+					it.remove();
+				}
+			}
+		}
+		catch (Exception e) {
+			LOGGER.warn("Cannot unregister proxy statistics of " + entry.connector + " in JMX", e);
+		}
+		entry.names.clear();
+	}
+
+	private ManagementStrategy managementStrategy() {
+		CamelContext context = component != null ? component.getCamelContext() : null;
+		return context != null ? context.getManagementStrategy() : null;
+	}
+
+	private ObjectName objectName(String name) throws Exception {
+		CamelContext context = component.getCamelContext();
+		ObjectName contextName = context.getManagementStrategy().getManagementNamingStrategy().getObjectNameForCamelContext(context);
+
+		return new ObjectName(contextName.getDomain() + ":context=" + contextName.getKeyProperty("context") + "," + name);
+	}
+
+	private static class Entry {
+		final ProxyConnector connector;
+		/** Options of the endpoint which created the connector, null without a configuration. */
+		final String options;
+		final List<ObjectName> names = new ArrayList<ObjectName>();
+		int references;
+
+		Entry(ProxyConnector connector, String options) {
+			this.connector = connector;
+			this.options = options;
+		}
+	}
+}
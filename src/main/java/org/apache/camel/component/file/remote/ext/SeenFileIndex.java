@@ -0,0 +1,295 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.file.remote.ext;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.camel.util.IOHelper;
+
+/**
+ * Persistent index of the consumed files: a hash of the path, the size and the modification
+ * time of every file, in a memory mapped open addressing table. A file is seen while its size
+ * and time are the same, a changed file is consumed again.
+ * <p>
+ * The table is the file: a header and the slots of {@link #SLOT_SIZE} bytes, a record is written
+ * in place (the size and the time first, the hash last) so a record survives the stop of the JVM
+ * without a flush. A full table is copied into a table twice as large and renamed over the file.
+ * The paths are not kept, two paths with the same 64 bit hash are one file.
+ */
+public class SeenFileIndex implements Closeable {
+	static final int SLOT_SIZE = 24;
+	static final int HEADER_SIZE = 32;
+	static final int MIN_CAPACITY = 1024;
+	/** Slots of the largest table, the mapping is less than 2 GB. */
+	static final int MAX_CAPACITY = 1 << 26;
+
+	private static final int MAGIC = 0x46585349;
+	private static final int VERSION = 1;
+	private static final int EMPTY = 0;
+
+	private final File file;
+	private RandomAccessFile raf;
+	private MappedByteBuffer table;
+	private int capacity;
+	private int count;
+
+	/**
+	 * Opens the index, creates it when the file does not exist.
+	 *
+	 * @param capacity slots of a new table, the table grows when it is three quarters full
+	 */
+	public SeenFileIndex(File file, int capacity) throws IOException {
+		this.file = file;
+
+		if(file.exists() && file.length() > 0)
+			open();
+		else
+			create(file, tableCapacity(capacity));
+	}
+
+	private static int tableCapacity(int capacity) {
+		int n = MIN_CAPACITY;
+		while(n < capacity && n < MAX_CAPACITY)
+			n <<= 1;
+		return n;
+	}
+
+	private void open() throws IOException {
+		raf = new RandomAccessFile(file, "rw");
+		try {
+			if(raf.length() < HEADER_SIZE || raf.readInt() != MAGIC || raf.readInt() != VERSION)
+				throw new IOException("Not a seen file index: " + file);
+
+			capacity = raf.readInt();
+			if(Integer.bitCount(capacity) != 1 || capacity > MAX_CAPACITY
+					|| raf.length() < HEADER_SIZE + (long) capacity * SLOT_SIZE)
+				throw new IOException("Broken seen file index: " + file);
+			table = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * SLOT_SIZE);
+		}
+		catch (IOException e) {
+			IOHelper.close(raf);
+			raf = null;
+			throw e;
+		}
+
+		// The count of the header can be behind the slots.
+		count = 0;
+		for(int slot = 0; slot < capacity; slot++) {
+			if(table.getLong(position(slot)) != EMPTY)
+				count++;
+		}
+		table.putInt(12, count);
+	}
+
+	private void create(File target, int newCapacity) throws IOException {
+		raf = new RandomAccessFile(target, "rw");
+		long length = HEADER_SIZE + (long) newCapacity * SLOT_SIZE;
+		raf.setLength(0);
+		raf.setLength(length);
+
+		capacity = newCapacity;
+		count = 0;
+		table = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+		table.putInt(0, MAGIC);
+		table.putInt(4, VERSION);
+		table.putInt(8, capacity);
+		table.putInt(12, 0);
+	}
+
+	/**
+	 * @return true when the file was added with the same size and modification time
+	 */
+	public synchronized boolean contains(String path, long size, long modified) {
+		checkOpen();
+		int slot = find(hash(path));
+		if(slot < 0)
+			return false;
+
+		int position = position(slot);
+		return table.getLong(position + 8) == size && table.getLong(position + 16) == modified;
+	}
+
+	/**
+	 * Adds the file or updates its size and modification time.
+	 */
+	public synchronized void add(String path, long size, long modified) throws IOException {
+		checkOpen();
+		long hash = hash(path);
+		int slot = find(hash);
+
+		if(slot < 0) {
+			if(count + 1 > capacity - (capacity >> 2)) {
+				grow();
+				slot = find(hash);
+			}
+			count++;
+			table.putInt(12, count);
+		}
+		put(table, position(slot < 0 ? -slot - 1 : slot), hash, size, modified);
+	}
+
+	/**
+	 * Forgets all files.
+	 */
+	public synchronized void clear() throws IOException {
+		checkOpen();
+		close();
+		create(file, MIN_CAPACITY);
+	}
+
+	public synchronized int size() {
+		return count;
+	}
+
+	public synchronized int getCapacity() {
+		return capacity;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Writes the table to the disk.
+	 */
+	public synchronized void flush() {
+		if(table != null)
+			table.force();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if(raf == null)
+			return;
+		table.force();
+		table = null;
+		try {
+			raf.close();
+		}
+		finally {
+			raf = null;
+		}
+	}
+
+	private void checkOpen() {
+		if(raf == null)
+			throw new IllegalStateException("Seen file index closed: " + file);
+	}
+
+	/**
+	 * @return slot of the hash, -(empty slot) - 1 when the hash is not in the table
+	 */
+	private int find(long hash) {
+		int mask = capacity - 1;
+		int slot = (int) hash & mask;
+
+		while(true) {
+			long current = table.getLong(position(slot));
+			if(current == hash)
+				return slot;
+			if(current == EMPTY)
+				return -slot - 1;
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private void grow() throws IOException {
+		if(capacity >= MAX_CAPACITY)
+			throw new IOException("Seen file index full, " + count + " files: " + file);
+
+		MappedByteBuffer old = table;
+		int oldCapacity = capacity;
+		int oldCount = count;
+		File tmp = new File(file.getPath() + ".tmp");
+		RandomAccessFile oldRaf = raf;
+
+		boolean copied = false;
+		try {
+			create(tmp, capacity << 1);
+
+			int mask = capacity - 1;
+			for(int i = 0; i < oldCapacity; i++) {
+				int position = position(i);
+				long hash = old.getLong(position);
+				if(hash == EMPTY)
+					continue;
+
+				int slot = (int) hash & mask;
+				while(table.getLong(position(slot)) != EMPTY)
+					slot = (slot + 1) & mask;
+				put(table, position(slot), hash, old.getLong(position + 8), old.getLong(position + 16));
+				count++;
+			}
+			table.putInt(12, count);
+			table.force();
+			copied = true;
+		}
+		finally {
+			if(!copied) {
+				if(raf != oldRaf)
+					IOHelper.close(raf);
+				raf = oldRaf;
+				table = old;
+				capacity = oldCapacity;
+				count = oldCount;
+				tmp.delete();
+			}
+		}
+		oldRaf.close();
+
+		// The old table stays until the rename, a crash before keeps it.
+		if(!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file)))
+			throw new IOException("Cannot rename " + tmp + " to " + file);
+	}
+
+	private static void put(MappedByteBuffer table, int position, long hash, long size, long modified) {
+		table.putLong(position + 8, size);
+		table.putLong(position + 16, modified);
+		table.putLong(position, hash);
+	}
+
+	private static int position(int slot) {
+		return HEADER_SIZE + slot * SLOT_SIZE;
+	}
+
+	/**
+	 * 64 bit FNV-1a of the path, mixed by the MurmurHash3 finalizer for the low bits of the slot.
+	 */
+	static long hash(String path) {
+		long h = 0xcbf29ce484222325L;
+		for(int i = 0; i < path.length(); i++) {
+			h ^= path.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h == EMPTY ? 1 : h;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "SeenFileIndex[" + file + ", files=" + count + ", capacity=" + capacity + "]";
+	}
+}
@@ -0,0 +1,225 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.file.remote.ext;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.commons.net.ftp.FTPReply;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Download of a large file in byte ranges, each range through its own FTP session.
+ * <p>
+ * A proxy limits the throughput of one connection, several connections get more.
+ * The session of the consumer reads the last range up to the end of the file, every
+ * other range is read by a new session of the endpoint (REST and RETR) and written into
+ * the local work file at its offset. The download fails when a range is short or when
+ * the size or the modification time of the remote file changes meanwhile.
+ */
+public class SegmentedDownload {
+	private static final Logger LOGGER = LoggerFactory.getLogger(SegmentedDownload.class);
+
+	private final FtpEndpointExt<?> endpoint;
+	private final int segments;
+	private final long minSize;
+
+	/**
+	 * @param segments number of the ranges and the sessions
+	 * @param minSize smaller files are read in one piece
+	 */
+	public SegmentedDownload(FtpEndpointExt<?> endpoint, int segments, long minSize) {
+		this.endpoint = endpoint;
+		this.segments = segments;
+		this.minSize = minSize;
+	}
+
+	public int getSegments() {
+		return segments;
+	}
+
+	public long getMinSize() {
+		return minSize;
+	}
+
+	/**
+	 * @param client session of the consumer, the remote name is relative to its directory
+	 * @param file local file, empty
+	 * @return result of the download, null when the file is small or its size is unknown
+	 */
+	Boolean retrieve(FtpClientExt client, String remote, FileChannel file) throws IOException {
+		long size = size(client, remote);
+
+		if(size < 0 || size < minSize || size < segments)
+			return null;
+
+		String modified = client.getModificationTime(remote);
+		String path = absolutePath(client, remote);
+		long length = size / segments;
+		long last = length * (segments - 1);
+
+		LOGGER.debug("Download {} ({} bytes) in {} segments", new Object[] {path, size, segments});
+
+		// The ranges are written in any order, the file has its full size at once.
+		file.write(ByteBuffer.wrap(new byte[1]), size - 1);
+
+		ExecutorService executor = endpoint.getSegmentExecutor();
+		List<Segment> ranges = new ArrayList<Segment>(segments - 1);
+		List<Future<Long>> futures = new ArrayList<Future<Long>>(segments - 1);
+		boolean done = false;
+
+		try {
+			for(int i = 0; i < segments - 1; i++) {
+				Segment segment = new Segment(path, file, length * i, length);
+				ranges.add(segment);
+				futures.add(executor.submit(segment));
+			}
+
+			long n = client.retrieveRange(remote, file, last, -1);
+			boolean result = client.completePendingCommand();
+			if(!result)
+				return false;
+			if(n != size - last)
+				throw new IOException("Segment " + last + " of " + path + ": " + n + " bytes of " + (size - last));
+
+			for(int i = 0; i < futures.size(); i++) {
+				n = get(futures.get(i));
+				if(n != length)
+					throw new IOException("Segment " + ranges.get(i).offset + " of " + path + ": " + n + " bytes of " + length);
+			}
+
+			if(size(client, remote) != size || (modified != null && !modified.equals(client.getModificationTime(remote))))
+				throw new IOException("File " + path + " changed during the download");
+
+			file.position(size);
+			done = true;
+			return true;
+		}
+		finally {
+			if(!done) {
+				for(Segment segment : ranges)
+					segment.abort();
+				for(Future<Long> future : futures)
+					future.cancel(true);
+			}
+		}
+	}
+
+	private static long get(Future<Long> future) throws IOException {
+		try {
+			return future.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted during the segmented download");
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof IOException)
+				throw (IOException) cause;
+			throw new IOException(cause.getMessage(), cause);
+		}
+	}
+
+	/**
+	 * @return size of the remote file, -1 when the server does not tell it
+	 */
+	static long size(FtpClientExt client, String remote) throws IOException {
+		if(!FTPReply.isPositiveCompletion(client.sendCommand("SIZE", remote)))
+			return -1;
+
+		String reply = client.getReplyString().trim();
+		int p = reply.lastIndexOf(' ');
+		try {
+			return Long.parseLong(reply.substring(p + 1));
+		}
+		catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static String absolutePath(FtpClientExt client, String remote) throws IOException {
+		if(remote.startsWith("/"))
+			return remote;
+
+		String directory = client.printWorkingDirectory();
+		if(directory == null)
+			throw new IOException("Cannot get the current directory: " + client.getReplyString());
+
+		return directory.endsWith("/") ? directory + remote : directory + "/" + remote;
+	}
+
+	/**
+	 * Range read by a new session.
+	 */
+	private class Segment implements Callable<Long> {
+		final String path;
+		final FileChannel file;
+		final long offset;
+		final long length;
+
+		private volatile FtpClientExt client;
+		private volatile boolean aborted;
+
+		Segment(String path, FileChannel file, long offset, long length) {
+			this.path = path;
+			this.file = file;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		@Override
+		public Long call() throws Exception {
+			FtpClientExt client = endpoint.createSegmentClient();
+			FtpOperationsExt operations = new FtpOperationsExt(client, endpoint.getFtpClientConfig());
+			operations.setEndpoint(endpoint);
+
+			this.client = client;
+			try {
+				if(aborted)
+					throw new InterruptedIOException("Segment " + offset + " of " + path + " aborted");
+				operations.connect(endpoint.getConfiguration());
+				return client.retrieveRange(path, file, offset, length);
+			}
+			finally {
+				// The range ends before the file, the session is not reused.
+				try {
+					operations.disconnect();
+				}
+				catch (Exception e) {
+					LOGGER.trace("Disconnect of a segment session failed", e);
+				}
+			}
+		}
+
+		void abort() {
+			aborted = true;
+			FtpClientExt client = this.client;
+			if(client != null)
+				client.abortRange();
+		}
+	}
+}
@@ -0,0 +1,36 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.net.proxy;
+
+import java.io.IOException;
+
+/**
+ * Proxy authentication which can run as a state machine on {@link ProxyHandshakeEngine},
+ * no thread waits for the replies of the proxy.
+ */
+public interface AsyncProxyAuthenticate extends ProxyAuthenticate {
+	/**
+	 * @return the handshake of {@link #authenticate}, not started
+	 */
+	ProxyHandshake handshake(String hostname, int port, Credentials credentials) throws IOException;
+
+	/**
+	 * @return the login of the pooled connections ({@link ProxyPreAuthenticate#preAuthenticate}),
+	 * null when the protocol does not log in before the target host is known
+	 */
+	ProxyHandshake preHandshake(Credentials credentials) throws IOException;
+}
@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.net.proxy;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+import org.apache.commons.net.proxy.ProxyTimeoutException.Phase;
+
+/**
+ * One time budget of a connect: the name lookup, the connect to the proxy and the
+ * handshake reads take what is left of it.
+ */
+final class Deadline {
+	private final int timeout;
+	private final long end;
+
+	/**
+	 * @param timeout budget in milliseconds, 0 for none
+	 */
+	Deadline(int timeout) {
+		this.timeout = timeout;
+		this.end = timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+	}
+
+	int getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * @return end in milliseconds of the clock, {@link Long#MAX_VALUE} without a budget
+	 */
+	long getEnd() {
+		return end;
+	}
+
+	boolean isInfinite() {
+		return timeout <= 0;
+	}
+
+	/**
+	 * @return milliseconds left, at least 1, 0 without a budget
+	 * @throws ProxyTimeoutException nothing left, the phase timed out
+	 */
+	int remaining(Phase phase) throws ProxyTimeoutException {
+		if(isInfinite())
+			return 0;
+
+		long left = end - System.currentTimeMillis();
+		if(left <= 0)
+			throw expired(phase);
+		return (int) Math.min(left, Integer.MAX_VALUE);
+	}
+
+	ProxyTimeoutException expired(Phase phase) {
+		return new ProxyTimeoutException(phase, timeout);
+	}
+
+	/**
+	 * @return the timeout as a {@link ProxyTimeoutException} of the phase
+	 */
+	SocketTimeoutException expired(Phase phase, SocketTimeoutException e) {
+		if(e instanceof ProxyTimeoutException || isInfinite())
+			return e;
+		ProxyTimeoutException timeout = expired(phase);
+		timeout.initCause(e);
+		return timeout;
+	}
+
+	/**
+	 * Stream of the handshake: every read waits for what is left of the budget.
+	 */
+	InputStream handshakeInput(InputStream in, final Socket socket) {
+		if(isInfinite())
+			return in;
+
+		return new FilterInputStream(in) {
+			@Override
+			public int read() throws IOException {
+				socket.setSoTimeout(remaining(Phase.HANDSHAKE));
+				try {
+					return super.read();
+				}
+				catch (SocketTimeoutException e) {
+					throw expired(Phase.HANDSHAKE, e);
+				}
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				socket.setSoTimeout(remaining(Phase.HANDSHAKE));
+				try {
+					return super.read(b, off, len);
+				}
+				catch (SocketTimeoutException e) {
+					throw expired(Phase.HANDSHAKE, e);
+				}
+			}
+		};
+	}
+}
@@ -20,6 +20,10 @@ import java.io.IOException;
 import java.net.Socket;
 
 public class DirectAuthenticate implements ProxyAuthenticate {
+	@Override
+	public void prepare(Credentials credentials) {
+	}
+
 	@Override
 	public void authenticate(Socket socket,
 			String hostname, int port, Credentials credentials)
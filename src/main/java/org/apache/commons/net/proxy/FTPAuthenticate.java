@@ -19,39 +19,51 @@ package org.apache.commons.net.proxy;
 import java.io.IOException;
 import java.net.Socket;
 
+import org.apache.commons.net.ftp.FTP;
 import org.apache.commons.net.ftp.FTPClient;
 import org.apache.commons.net.ftp.FTPReply;
 
-public class FTPAuthenticate implements ProxyAuthenticate {
+public class FTPAuthenticate implements AsyncProxyAuthenticate {
 	private static final String ERROR_PREFIX = "HTTP proxy authenticate: ";
 
+	/** Limit of a reply of the asynchronous handshake. */
+	private static final int MAX_REPLY_SIZE = 8192;
+
+	/**
+	 * Login commands of the prepared credentials.
+	 */
+	private volatile Template template;
+
+	@Override
+	public void prepare(Credentials credentials) {
+		template = new Template(credentials);
+	}
+
 	@Override
 	public void authenticate(Socket socket, String hostname, int port, Credentials credentials) 
 			throws IOException {
 
 		FTPClient ftpClient = new LocalFTPClient(socket);
 
+		Template template = this.template;
+		if (template == null || template.credentials != credentials) {
+			template = new Template(credentials);
+		}
 		String proxyUser = credentials.getUserName();
-		String proxyPass = credentials.getPassword();
 		
-		// Welcome message.
-		int reply;		
-		try {
-			reply = ftpClient.getReply();
-		} catch (IOException e) {
-			throw new IOException(ERROR_PREFIX + "Invalid proxy response", e);
-		}
+		// Welcome message, read by _connectAction_.
+		int reply = ftpClient.getReplyCode();
 		// Does this reply mean "ok"?
 		if (reply != FTPReply.SERVICE_READY) {
 			// Mmmmm... it seems no!
-			throw new IOException(ERROR_PREFIX + "Invalid proxy response");
+			throw new ProxyHandshakeException("ftp.status." + reply, ERROR_PREFIX + "Invalid proxy response");
 		}
 		if (proxyUser != null && !proxyUser.isEmpty()) {
 			// Usefull flags.
 			boolean passwordRequired;
 			// Send the user and read the reply.
 			try {
-				reply = ftpClient.sendCommand("USER " + proxyUser);
+				reply = ftpClient.sendCommand(template.user);
 			} catch (IOException e) {
 				throw new IOException(ERROR_PREFIX + "Invalid proxy response", e);
 			}
@@ -66,19 +78,19 @@ public class FTPAuthenticate implements ProxyAuthenticate {
 				break;
 			default:
 				// User validation failed.
-				throw new IOException(ERROR_PREFIX + "Proxy authentication failed");
+				throw new ProxyHandshakeException("ftp.status." + reply, ERROR_PREFIX + "Proxy authentication failed");
 			}
 			// Password.
 			if (passwordRequired) {
 				// Send the password.
 				try {
-					reply = ftpClient.sendCommand("PASS " + proxyPass);
+					reply = ftpClient.sendCommand(template.pass);
 				} catch (IOException e) {
 					throw new IOException(ERROR_PREFIX + "Invalid proxy response");
 				}
 				if (reply != FTPReply.USER_LOGGED_IN) {
 					// Authentication failed.
-					throw new IOException(ERROR_PREFIX + "Proxy authentication failed");
+					throw new ProxyHandshakeException("ftp.status." + reply, ERROR_PREFIX + "Proxy authentication failed");
 				}
 			}
 			ftpClient.sendCommand("SITE " + hostname + ":" + port);
@@ -87,6 +99,107 @@ public class FTPAuthenticate implements ProxyAuthenticate {
 		}
 	}
 	
+	/**
+	 * The login as a state machine: the welcome message, USER, PASS and SITE or OPEN.
+	 */
+	@Override
+	public ProxyHandshake handshake(final String hostname, final int port, Credentials credentials) throws IOException {
+		Template prepared = this.template;
+		if (prepared == null || prepared.credentials != credentials) {
+			prepared = new Template(credentials);
+		}
+		final Template template = prepared;
+		final String proxyUser = credentials.getUserName();
+
+		return new ProxyHandshake() {
+			private static final int WELCOME = 0;
+			private static final int USER = 1;
+			private static final int PASS = 2;
+			private static final int OPEN = 3;
+
+			private int state;
+
+			@Override
+			protected void start() {
+				state = WELCOME;
+				expectReply(MAX_REPLY_SIZE);
+			}
+
+			@Override
+			protected void received(byte[] data, int length) throws IOException {
+				int reply = replyCode(data, length);
+				switch (state) {
+				case WELCOME:
+					if (reply != FTPReply.SERVICE_READY) {
+						throw new ProxyHandshakeException("ftp.status." + reply, ERROR_PREFIX + "Invalid proxy response");
+					}
+					if (proxyUser != null && !proxyUser.isEmpty()) {
+						command(template.user, USER);
+					} else {
+						command("OPEN " + hostname + ":" + port, OPEN);
+					}
+					return;
+				case USER:
+					if (reply == FTPReply.USER_LOGGED_IN) {
+						command("SITE " + hostname + ":" + port, OPEN);
+					} else if (reply == FTPReply.NEED_PASSWORD) {
+						command(template.pass, PASS);
+					} else {
+						throw new ProxyHandshakeException("ftp.status." + reply, ERROR_PREFIX + "Proxy authentication failed");
+					}
+					return;
+				case PASS:
+					if (reply != FTPReply.USER_LOGGED_IN) {
+						throw new ProxyHandshakeException("ftp.status." + reply, ERROR_PREFIX + "Proxy authentication failed");
+					}
+					command("SITE " + hostname + ":" + port, OPEN);
+					return;
+				default:
+					// The reply of SITE or OPEN is not checked.
+					complete(null);
+				}
+			}
+
+			private void command(String command, int next) throws IOException {
+				send((command + "\r\n").getBytes(FTP.DEFAULT_CONTROL_ENCODING));
+				state = next;
+				expectReply(MAX_REPLY_SIZE);
+			}
+		};
+	}
+
+	@Override
+	public ProxyHandshake preHandshake(Credentials credentials) {
+		// The login names the target host.
+		return null;
+	}
+
+	private static int replyCode(byte[] data, int length) throws ProxyHandshakeException {
+		if (length < 3) {
+			throw new ProxyHandshakeException("ftp.invalid-response", ERROR_PREFIX + "Invalid proxy response");
+		}
+		int code = 0;
+		for (int i = 0; i < 3; i++) {
+			if (data[i] < '0' || data[i] > '9') {
+				throw new ProxyHandshakeException("ftp.invalid-response", ERROR_PREFIX + "Invalid proxy response");
+			}
+			code = code * 10 + (data[i] - '0');
+		}
+		return code;
+	}
+
+	private static final class Template {
+		final Credentials credentials;
+		final String user;
+		final String pass;
+
+		Template(Credentials credentials) {
+			this.credentials = credentials;
+			user = credentials != null ? "USER " + credentials.getUserName() : null;
+			pass = credentials != null ? "PASS " + credentials.getPassword() : null;
+		}
+	}
+
 	class LocalFTPClient extends FTPClient {
 
 		public LocalFTPClient(Socket socket) throws IOException {
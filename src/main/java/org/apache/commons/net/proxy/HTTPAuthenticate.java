@@ -16,38 +16,123 @@
  */
 package org.apache.commons.net.proxy;
 
-import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.Socket;
+import java.net.SocketException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
 
 import org.apache.commons.codec.binary.Base64;
+import org.apache.http.Header;
+import org.apache.http.HttpVersion;
+import org.apache.http.auth.AuthenticationException;
+import org.apache.http.auth.ContextAwareAuthScheme;
+import org.apache.http.auth.MalformedChallengeException;
+import org.apache.http.auth.NTCredentials;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.impl.auth.DigestScheme;
+import org.apache.http.impl.auth.NTLMSchemeFactory;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.protocol.BasicHttpContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class HTTPAuthenticate implements ProxyAuthenticate {
+/**
+ * HTTP proxy authentication, the CONNECT method with Basic, Digest or NTLM credentials.
+ * <p>
+ * The first request has no credentials. A 407 reply is answered with the strongest scheme
+ * the proxy offers (NTLM, Digest, Basic) on the same connection, or on a new connection
+ * to the proxy in the same connect when the proxy closes it after the challenge. Basic
+ * credentials go only to a proxy which asked for them. The scheme of the last successful
+ * authentication is kept: a later CONNECT sends the Basic credentials or the Digest
+ * response with the known nonce at once, one round trip, or starts NTLM with the type 1
+ * message, two round trips instead of three. The user <code>DOMAIN\\user</code> gives
+ * the NTLM domain.
+ */
+public class HTTPAuthenticate implements AsyncProxyAuthenticate {
     protected final transient Logger log = LoggerFactory.getLogger(getClass());
 
-	final String US_ASCII = "US-ASCII";
-	final String UTF_8 = "UTF-8";
 	private static final String ERROR_PREFIX = "HTTP proxy authenticate: ";
 
+	private static final byte[] CONNECT = ascii("CONNECT ");
+	private static final byte[] HOST = ascii(" HTTP/1.1\r\nHost: ");
+	private static final byte[] CRLF = ascii("\r\n");
+	private static final byte[] KEEP_ALIVE = ascii("Proxy-Connection: Keep-Alive\r\n");
+
+	private static final String BASIC = "basic";
+	private static final String DIGEST = "digest";
+	private static final String NTLM = "ntlm";
+
+	/** NTLM starts with the type 1 message after the plain "NTLM" challenge. */
+	private static final List<Header> NTLM_START =
+			Collections.<Header>singletonList(new BasicHeader("Proxy-Authenticate", "NTLM"));
+
+	/** Requests of one CONNECT: the first one and the answers to the challenges. */
+	private static final int MAX_REQUESTS = 4;
+
+	/** Body of a 407 reply skipped to keep the connection. */
+	private static final int MAX_BODY_SIZE = 65536;
+
+	private static final long CHUNKED = -2;
+
+	private int maxHeaderSize = 8192;
+
+	/**
+	 * Request parts of the prepared credentials.
+	 */
+	private volatile Template template;
+
+	/**
+	 * Scheme of the last successful authentication, null before it.
+	 */
+	private volatile String cachedScheme;
+
+	/**
+	 * Digest state of the proxy: realm, nonce and nonce count, shared by the connections.
+	 */
+	private DigestScheme digest;
+
+	public int getMaxHeaderSize() {
+		return maxHeaderSize;
+	}
+
+	/**
+	 * Limit of the proxy response header, a longer response fails the connection.
+	 */
+	public void setMaxHeaderSize(int maxHeaderSize) {
+		this.maxHeaderSize = maxHeaderSize;
+	}
+
+	@Override
+	public void prepare(Credentials credentials) {
+		template = new Template(credentials);
+		cachedScheme = null;
+		synchronized (this) {
+			digest = null;
+		}
+	}
+
+	private Template template(Credentials credentials) {
+		Template prepared = template;
+		if (prepared != null && prepared.credentials == credentials) {
+			return prepared;
+		}
+		return new Template(credentials);
+	}
+
 	@Override
 	public void authenticate(Socket socket,
 			String hostname, int port, Credentials credentials)
 			throws IOException {
 
-		String proxyUser = credentials.getUserName();
-		String proxyPass = credentials.getPassword();
-
-		// The CRLF sequence.
-		byte[] CRLF = "\r\n".getBytes(UTF_8);
-		// The connect command line.
-		String connect = "CONNECT " + hostname + ":" + port + " HTTP/1.1";
-		String hostHeader = "Host: " + hostname + ":" + port;
+		Exchange exchange = new Exchange(template(credentials), hostname, port);
 		// A connection status flag.
 		boolean connected = false;
 		// The socket for the connection with the proxy.
@@ -57,56 +142,31 @@ public class HTTPAuthenticate implements ProxyAuthenticate {
 		try {
 			in = socket.getInputStream();
 			out = socket.getOutputStream();
-			// Send the CONNECT request.
-			out.write(connect.getBytes(UTF_8));
-			out.write(CRLF);
-			out.write(hostHeader.getBytes(UTF_8));
-			out.write(CRLF);
-			log.trace(">>>>>");
-			log.trace(connect);
-			log.trace(hostHeader);
-			// Auth headers
-			if (proxyUser != null && proxyPass != null) {
-				String tmp = proxyUser + ":" + proxyPass;
-				byte[] base64password = Base64.encodeBase64(tmp.getBytes(US_ASCII));
-				String header = "Proxy-Authorization: Basic " + new String(base64password, US_ASCII);
-				out.write(header.getBytes(UTF_8));
-				out.write(CRLF);
-				log.trace(header);
-			}
-			out.write(CRLF);
-			log.trace("<<<<<");
-			// Get the proxy response.
-			ArrayList<String> responseLines = new ArrayList<String>();
-			BufferedReader reader = new BufferedReader(
-					new InputStreamReader(in));
-			for (String line = reader.readLine(); line != null
-					&& line.length() > 0; line = reader.readLine()) {
-				responseLines.add(line);
-				log.trace(line);
-			}
-			// Parse the response.
-			int size = responseLines.size();
-			if (size < 1) {
-				throw new IOException(ERROR_PREFIX + "invalid proxy response");
-			}
-			String code = null;
-			String response = responseLines.get(0);
-			if (response.startsWith("HTTP/") && response.length() >= 12) {
-				code = response.substring(9, 12);
-			} else {
-				throw new IOException(ERROR_PREFIX + "invalid proxy response");
-			}
-			if (!"200".equals(code)) {
-				StringBuffer msg = new StringBuffer();
-				msg.append(ERROR_PREFIX + "connection failed\r\n");
-				msg.append("Response received from the proxy:\r\n");
-				for (int i = 0; i < size; i++) {
-					String line = responseLines.get(i);
-					msg.append(line);
-					msg.append("\r\n");
+
+			while (true) {
+				// Get the proxy response, exactly up to the empty line:
+				// the bytes after it belong to the tunnel.
+				HandshakeBuffer response;
+				int size;
+				try {
+					exchange.request().writeTo(out);
+					response = HandshakeBuffer.get();
+					size = response.readHeader(in, maxHeaderSize, ERROR_PREFIX);
+				} catch (EOFException e) {
+					throw exchange.lost(e);
+				} catch (SocketException e) {
+					throw exchange.lost(e);
+				}
+				int code = exchange.response(response, size);
+				if (code == 200) {
+					break;
 				}
-				throw new IOException(msg.toString());
+
+				String scheme = exchange.challenge(code);
+				if (scheme != null && !keepAlive(exchange.header, in)) {
+					exchange.reconnect(scheme);
+				}
+				exchange.retry(scheme, code);
 			}
 			connected = true;
 		} catch (IOException e) {
@@ -135,4 +195,560 @@ public class HTTPAuthenticate implements ProxyAuthenticate {
 		}
 	}
 
+	/**
+	 * The CONNECT exchange as a state machine, the body of a 407 reply is skipped as
+	 * {@link #authenticate} does.
+	 */
+	@Override
+	public ProxyHandshake handshake(String hostname, int port, Credentials credentials) throws IOException {
+		final Exchange exchange = new Exchange(template(credentials), hostname, port);
+
+		return new ProxyHandshake() {
+			private static final int HEADER = 0;
+			private static final int BODY = 1;
+			private static final int CHUNK_SIZE = 2;
+			private static final int CHUNK = 3;
+			private static final int TRAILER = 4;
+
+			private int state;
+			/** Scheme of the challenge while the body of the 407 reply is skipped. */
+			private String scheme;
+			private int code;
+			private long total;
+
+			@Override
+			protected void start() throws IOException {
+				request();
+			}
+
+			@Override
+			protected void closed() throws IOException {
+				throw exchange.lost(new EOFException(ERROR_PREFIX + "connection closed by the proxy"));
+			}
+
+			@Override
+			protected void received(byte[] data, int length) throws IOException {
+				switch (state) {
+				case HEADER:
+					header(data, length);
+					return;
+				case CHUNK_SIZE:
+					String line = new String(data, 0, length, "ISO-8859-1");
+					int p = line.indexOf(';');
+					long size;
+					try {
+						size = Long.parseLong((p < 0 ? line : line.substring(0, p)).trim(), 16);
+					} catch (NumberFormatException e) {
+						throw new ProxyHandshakeException("http.invalid-response", ERROR_PREFIX + "invalid chunk size");
+					}
+					total += size;
+					if (size < 0 || total > MAX_BODY_SIZE)
+						throw new ProxyHandshakeException("http.invalid-response", ERROR_PREFIX + "reply body too long");
+					if (size == 0) {
+						state = TRAILER;
+						expectLine(maxHeaderSize);
+					} else {
+						// The chunk and its CRLF.
+						state = CHUNK;
+						expect((int) size + 2);
+					}
+					return;
+				case CHUNK:
+					state = CHUNK_SIZE;
+					expectLine(maxHeaderSize);
+					return;
+				case TRAILER:
+					if (length > 2 || (length == 2 && data[0] != '\r')) {
+						expectLine(maxHeaderSize);
+						return;
+					}
+					retry();
+					return;
+				default:
+					retry();
+				}
+			}
+
+			private void header(byte[] data, int length) throws IOException {
+				HandshakeBuffer response = HandshakeBuffer.get();
+				response.put(data, 0, length);
+				code = exchange.response(response, length);
+				if (code == 200) {
+					complete(null);
+					return;
+				}
+
+				scheme = exchange.challenge(code);
+				if (scheme != null) {
+					long size = bodySize(exchange.header);
+					if (size == CHUNKED) {
+						total = 0;
+						state = CHUNK_SIZE;
+						expectLine(maxHeaderSize);
+						return;
+					}
+					if (size > 0) {
+						state = BODY;
+						expect((int) size);
+						return;
+					}
+					if (size < 0) {
+						exchange.reconnect(scheme);
+					}
+				}
+				retry();
+			}
+
+			private void retry() throws IOException {
+				exchange.retry(scheme, code);
+				scheme = null;
+				request();
+			}
+
+			private void request() {
+				send(exchange.request());
+				state = HEADER;
+				expectHeader(maxHeaderSize);
+			}
+		};
+	}
+
+	@Override
+	public ProxyHandshake preHandshake(Credentials credentials) {
+		// No login before the request.
+		return null;
+	}
+
+	/**
+	 * Requests of one CONNECT: the first one and the answers to the challenges.
+	 */
+	private final class Exchange {
+		final Template template;
+		final String hostname;
+		final int port;
+		BasicHttpRequest connect;
+		/** NTLM state of this connection. */
+		ContextAwareAuthScheme ntlm;
+		/** Scheme of the authorization, null before a challenge. */
+		String scheme;
+		/** Scheme of the challenge answered on this connection, null before the answer. */
+		String answered;
+		String authorization;
+		int requests;
+		/** Last response header. */
+		String header;
+
+		Exchange(Template template, String hostname, int port) throws IOException {
+			this.template = template;
+			// The authority of an IPv6 address is in brackets.
+			this.hostname = hostname.indexOf(':') >= 0 && !hostname.startsWith("[") ? "[" + hostname + "]" : hostname;
+			this.port = port;
+
+			if (template.authentication) {
+				String scheme = cachedScheme;
+				if (scheme == BASIC) {
+					authorization = template.basic;
+				} else if (scheme == DIGEST || scheme == NTLM) {
+					connect = connectRequest(this.hostname, port);
+					if (scheme == NTLM) {
+						ntlm = ntlmScheme();
+						authorization = HTTPAuthenticate.this.challenge(NTLM, NTLM_START, ntlm, template, connect);
+					} else {
+						authorization = authorization(DIGEST, null, template, connect);
+					}
+				}
+				if (authorization != null)
+					this.scheme = scheme;
+			}
+		}
+
+		/**
+		 * @return the next request in the buffer of the thread
+		 */
+		HandshakeBuffer request() {
+			requests++;
+			// Send the CONNECT request, only host and port are not prepared.
+			HandshakeBuffer request = HandshakeBuffer.get();
+			request.put(CONNECT).putHost(hostname).put(':').putDecimal(port);
+			request.put(HOST).putHost(hostname).put(':').putDecimal(port);
+			request.put(CRLF);
+			if (authorization != null) {
+				request.put(ascii(authorization)).put(CRLF);
+				if (ntlm != null)
+					request.put(KEEP_ALIVE);
+			}
+			request.put(CRLF);
+			if (log.isTraceEnabled()) {
+				log.trace(">>>>>");
+				log.trace("CONNECT " + hostname + ":" + port + " HTTP/1.1");
+				log.trace("<<<<<");
+			}
+			return request;
+		}
+
+		/**
+		 * @return status code of the response
+		 */
+		int response(HandshakeBuffer response, int size) throws IOException {
+			int code = parseStatus(response, size);
+			if (code < 0) {
+				throw new ProxyHandshakeException("http.invalid-response", ERROR_PREFIX + "invalid proxy response");
+			}
+			// The success path makes no strings, the header is read for a challenge or an error.
+			header = code != 200 || log.isTraceEnabled() ? response.toString(0, size) : null;
+			if (log.isTraceEnabled()) {
+				log.trace(header);
+			}
+			if (code == 200 && scheme != null)
+				cachedScheme = scheme;
+			return code;
+		}
+
+		/**
+		 * Prepares the answer to the challenge of the response.
+		 *
+		 * @return scheme of the challenge, null when there is nothing to answer
+		 */
+		String challenge(int code) throws IOException {
+			if (code != 407 || !template.authentication || requests >= MAX_REQUESTS)
+				return null;
+
+			List<Header> challenges = headers(header, "Proxy-Authenticate");
+			String scheme = choose(challenges, ntlm != null, this.scheme == BASIC);
+			if (scheme == BASIC) {
+				authorization = template.basic;
+			} else if (scheme != null) {
+				if (connect == null)
+					connect = connectRequest(hostname, port);
+				if (scheme == NTLM && ntlm == null)
+					ntlm = ntlmScheme();
+				authorization = HTTPAuthenticate.this.challenge(scheme, challenges, ntlm, template, connect);
+			}
+			this.scheme = scheme;
+			return scheme;
+		}
+
+		/**
+		 * The proxy closes the connection after the challenge: the new connection of the connect
+		 * answers it at once.
+		 */
+		void reconnect(String scheme) throws IOException {
+			if (authorization == null)
+				return;
+			cachedScheme = scheme;
+			throw new ProxyReconnectException(ERROR_PREFIX + "proxy closed the connection after the " + scheme + " challenge");
+		}
+
+		/**
+		 * The connection is lost. After an answer to a challenge the proxy closed it without
+		 * saying so, the new connection of the connect answers the challenge at once.
+		 *
+		 * @return the exception to throw
+		 */
+		IOException lost(IOException e) {
+			if (answered == null || authorization == null)
+				return e;
+			cachedScheme = answered;
+			return new ProxyReconnectException(ERROR_PREFIX + "connection closed after the " + answered + " challenge: " + e.getMessage());
+		}
+
+		/**
+		 * @param scheme scheme answered on this connection, null when the connection fails
+		 */
+		void retry(String scheme, int code) throws IOException {
+			if (scheme == null || authorization == null) {
+				StringBuffer msg = new StringBuffer();
+				msg.append(ERROR_PREFIX + "connection failed\r\n");
+				msg.append("Response received from the proxy:\r\n");
+				msg.append(header);
+				throw new ProxyHandshakeException("http.status." + code, msg.toString());
+			}
+			answered = scheme;
+		}
+	}
+
+	/**
+	 * The strongest scheme of the challenges: NTLM, Digest, Basic.
+	 *
+	 * @param ntlmStarted NTLM type 1 message is sent, only the NTLM challenge is accepted
+	 * @param basicSent Basic credentials are sent, a new 407 rejects them
+	 * @return scheme or null when no challenge can be answered
+	 */
+	private String choose(List<Header> challenges, boolean ntlmStarted, boolean basicSent) {
+		boolean digest = false;
+		boolean basic = false;
+		for (Header challenge : challenges) {
+			String scheme = schemeName(challenge);
+			if (scheme.equals(NTLM))
+				return NTLM;
+			if (!ntlmStarted && scheme.equals(DIGEST))
+				digest = true;
+			if (!ntlmStarted && !basicSent && scheme.equals(BASIC))
+				basic = true;
+		}
+		return digest ? DIGEST : basic ? BASIC : null;
+	}
+
+	/**
+	 * Processes the challenge of the scheme.
+	 *
+	 * @return Proxy-Authorization header line or null when the challenge is not accepted
+	 */
+	private String challenge(String scheme, List<Header> challenges, ContextAwareAuthScheme ntlm,
+			Template template, BasicHttpRequest connect) throws IOException {
+		for (Header challenge : challenges) {
+			if (!schemeName(challenge).equals(scheme))
+				continue;
+			try {
+				if (scheme == NTLM) {
+					ntlm.processChallenge(challenge);
+					if (ntlm.isComplete())
+						return null;
+				} else {
+					synchronized (this) {
+						if (digest == null)
+							digest = new DigestScheme();
+						digest.processChallenge(challenge);
+					}
+				}
+			} catch (MalformedChallengeException e) {
+				throw new ProxyHandshakeException("http.invalid-response", ERROR_PREFIX + e.getMessage());
+			}
+			return authorization(scheme, ntlm, template, connect);
+		}
+		return null;
+	}
+
+	/**
+	 * @return Proxy-Authorization header line of the scheme state
+	 */
+	private String authorization(String scheme, ContextAwareAuthScheme ntlm, Template template, BasicHttpRequest connect)
+			throws IOException {
+		try {
+			Header header;
+			if (scheme == NTLM) {
+				header = ntlm.authenticate(template.ntCredentials(), connect, new BasicHttpContext());
+			} else {
+				synchronized (this) {
+					if (digest == null)
+						return null;
+					header = digest.authenticate(template.userCredentials(), connect, new BasicHttpContext());
+				}
+			}
+			return header.getName() + ": " + header.getValue();
+		} catch (AuthenticationException e) {
+			throw new ProxyHandshakeException("http.auth-failed", ERROR_PREFIX + e.getMessage());
+		}
+	}
+
+	private static ContextAwareAuthScheme ntlmScheme() {
+		// NTLMScheme of the factory, its engine is not public.
+		return (ContextAwareAuthScheme) new NTLMSchemeFactory().newInstance(null);
+	}
+
+	private static BasicHttpRequest connectRequest(String hostname, int port) {
+		return new BasicHttpRequest("CONNECT", hostname + ":" + port, HttpVersion.HTTP_1_1);
+	}
+
+	private static String schemeName(Header challenge) {
+		String value = challenge.getValue().trim();
+		int p = value.indexOf(' ');
+		return (p < 0 ? value : value.substring(0, p)).toLowerCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * Skips the body of the reply.
+	 *
+	 * @return true when the proxy keeps the connection for the next request
+	 */
+	private boolean keepAlive(String header, InputStream in) throws IOException {
+		long size = bodySize(header);
+		if (size == CHUNKED) {
+			skipChunks(in);
+			return true;
+		}
+		if (size < 0)
+			return false;
+		skip(in, size);
+		return true;
+	}
+
+	/**
+	 * @return size of the body of the reply, {@link #CHUNKED} for a chunked body
+	 * or -1 when the proxy closes the connection
+	 */
+	private static long bodySize(String header) {
+		boolean http10 = header.startsWith("HTTP/1.0");
+		boolean close = http10;
+		for (Header connection : headers(header, "Proxy-Connection", "Connection")) {
+			String value = connection.getValue().trim();
+			if (value.equalsIgnoreCase("close"))
+				close = true;
+			else if (value.equalsIgnoreCase("keep-alive"))
+				close = false;
+		}
+		if (close)
+			return -1;
+
+		List<Header> length = headers(header, "Content-Length");
+		List<Header> encoding = headers(header, "Transfer-Encoding");
+		if (!encoding.isEmpty()) {
+			if (!encoding.get(encoding.size() - 1).getValue().trim().equalsIgnoreCase("chunked"))
+				return -1;
+			return CHUNKED;
+		}
+		if (length.isEmpty())
+			// The body ends with the connection.
+			return -1;
+
+		long size;
+		try {
+			size = Long.parseLong(length.get(0).getValue().trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+		if (size < 0 || size > MAX_BODY_SIZE)
+			return -1;
+		return size;
+	}
+
+	private void skipChunks(InputStream in) throws IOException {
+		long total = 0;
+		while (true) {
+			String line = readLine(in);
+			int p = line.indexOf(';');
+			long size;
+			try {
+				size = Long.parseLong((p < 0 ? line : line.substring(0, p)).trim(), 16);
+			} catch (NumberFormatException e) {
+				throw new ProxyHandshakeException("http.invalid-response", ERROR_PREFIX + "invalid chunk size");
+			}
+			total += size;
+			if (size < 0 || total > MAX_BODY_SIZE)
+				throw new ProxyHandshakeException("http.invalid-response", ERROR_PREFIX + "reply body too long");
+			if (size == 0)
+				break;
+			skip(in, size);
+			readLine(in);
+		}
+		// Trailer up to the empty line.
+		while (readLine(in).length() > 0) {
+		}
+	}
+
+	private static void skip(InputStream in, long count) throws IOException {
+		for (long i = 0; i < count; i++) {
+			if (in.read() < 0)
+				throw new EOFException(ERROR_PREFIX + "connection closed by the proxy");
+		}
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		while (true) {
+			int c = in.read();
+			if (c < 0)
+				throw new EOFException(ERROR_PREFIX + "connection closed by the proxy");
+			if (c == '\n')
+				return sb.toString();
+			if (c != '\r')
+				sb.append((char) c);
+		}
+	}
+
+	/**
+	 * Headers of the response with one of the names.
+	 */
+	private static List<Header> headers(String header, String... names) {
+		List<Header> list = new ArrayList<Header>();
+		for (String line : header.split("\r?\n")) {
+			int p = line.indexOf(':');
+			if (p <= 0)
+				continue;
+			String name = line.substring(0, p).trim();
+			for (String n : names) {
+				if (n.equalsIgnoreCase(name))
+					list.add(new BasicHeader(n, line.substring(p + 1).trim()));
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Status code of the status line <code>HTTP/1.x 200 Reason</code>.
+	 *
+	 * @return status code or -1 for an invalid status line
+	 */
+	private int parseStatus(HandshakeBuffer response, int size) {
+		if (size < 12
+				|| response.get(0) != 'H' || response.get(1) != 'T' || response.get(2) != 'T'
+				|| response.get(3) != 'P' || response.get(4) != '/') {
+			return -1;
+		}
+		int code = 0;
+		for (int i = 9; i < 12; i++) {
+			int c = response.get(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			code = code * 10 + (c - '0');
+		}
+		return code;
+	}
+
+	private static byte[] ascii(String s) {
+		try {
+			return s.getBytes("US-ASCII");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Prepared credentials: the Basic header line and the NTLM user and domain.
+	 */
+	private static final class Template {
+		final Credentials credentials;
+		/** Proxy-Authorization header line of the Basic scheme, null without credentials. */
+		final String basic;
+		final boolean authentication;
+		/** User without the domain and the NTLM domain. */
+		final String user;
+		final String domain;
+
+		Template(Credentials credentials) {
+			this.credentials = credentials;
+
+			String proxyUser = credentials != null ? credentials.getUserName() : null;
+			String proxyPass = credentials != null ? credentials.getPassword() : null;
+			authentication = proxyUser != null && proxyPass != null;
+			// Auth headers
+			if (authentication) {
+				try {
+					String tmp = proxyUser + ":" + proxyPass;
+					byte[] base64password = Base64.encodeBase64(tmp.getBytes("US-ASCII"));
+					basic = "Proxy-Authorization: Basic " + new String(base64password, "US-ASCII");
+				} catch (UnsupportedEncodingException e) {
+					throw new IllegalStateException(e);
+				}
+				int p = proxyUser.indexOf('\\');
+				user = p < 0 ? proxyUser : proxyUser.substring(p + 1);
+				domain = p < 0 ? null : proxyUser.substring(0, p);
+			}
+			else {
+				basic = null;
+				user = null;
+				domain = null;
+			}
+		}
+
+		org.apache.http.auth.Credentials userCredentials() {
+			return new UsernamePasswordCredentials(credentials.getUserName(), credentials.getPassword());
+		}
+
+		org.apache.http.auth.Credentials ntCredentials() {
+			// No workstation name, the local host name would need a reverse lookup.
+			return new NTCredentials(user, credentials.getPassword(), "", domain != null ? domain : "");
+		}
+	}
 }
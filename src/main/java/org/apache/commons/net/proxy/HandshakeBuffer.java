@@ -0,0 +1,196 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.net.proxy;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Reusable per thread buffer for a proxy handshake. The request is collected
+ * here and sent with one write, not byte by byte to the socket; the response
+ * header is read here without a look ahead past its end.
+ */
+final class HandshakeBuffer {
+	private static final ThreadLocal<HandshakeBuffer> BUFFERS = new ThreadLocal<HandshakeBuffer>() {
+		@Override
+		protected HandshakeBuffer initialValue() {
+			return new HandshakeBuffer();
+		}
+	};
+
+	private byte[] buf = new byte[512];
+	private int count;
+
+	private HandshakeBuffer() {
+	}
+
+	/**
+	 * @return empty buffer of the current thread
+	 */
+	static HandshakeBuffer get() {
+		HandshakeBuffer buffer = BUFFERS.get();
+		buffer.count = 0;
+		return buffer;
+	}
+
+	HandshakeBuffer put(int b) {
+		ensure(1);
+		buf[count++] = (byte) b;
+		return this;
+	}
+
+	HandshakeBuffer put(byte[] b) {
+		return put(b, 0, b.length);
+	}
+
+	HandshakeBuffer put(byte[] b, int off, int len) {
+		ensure(len);
+		System.arraycopy(b, off, buf, count, len);
+		count += len;
+		return this;
+	}
+
+	/**
+	 * Host name bytes, encoded in place when the name is ASCII.
+	 */
+	HandshakeBuffer putHost(String host) {
+		int len = host.length();
+		ensure(len);
+		for(int i = 0; i < len; i++) {
+			char c = host.charAt(i);
+			if(c >= 0x80) {
+				count -= i;
+				try {
+					return put(host.getBytes("UTF-8"));
+				}
+				catch (UnsupportedEncodingException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+			buf[count++] = (byte) c;
+		}
+		return this;
+	}
+
+	/**
+	 * @return size of the host name in bytes
+	 */
+	static int hostLength(String host) {
+		int len = host.length();
+		for(int i = 0; i < len; i++) {
+			if(host.charAt(i) >= 0x80) {
+				try {
+					return host.getBytes("UTF-8").length;
+				}
+				catch (UnsupportedEncodingException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		}
+		return len;
+	}
+
+	/**
+	 * Decimal digits of a non negative number.
+	 */
+	HandshakeBuffer putDecimal(int value) {
+		int digits = 1;
+		for(int v = value; v >= 10; v /= 10)
+			digits++;
+		ensure(digits);
+		for(int i = count + digits - 1; i >= count; i--) {
+			buf[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		count += digits;
+		return this;
+	}
+
+	/**
+	 * Two bytes in network order.
+	 */
+	HandshakeBuffer putShort(int value) {
+		ensure(2);
+		buf[count++] = (byte) (value >> 8);
+		buf[count++] = (byte) value;
+		return this;
+	}
+
+	int size() {
+		return count;
+	}
+
+	int get(int index) {
+		return buf[index] & 0xff;
+	}
+
+	/**
+	 * Reads a HTTP response header up to and including the empty line.
+	 * Nothing after the header is read from the stream.
+	 *
+	 * @return size of the header
+	 */
+	int readHeader(InputStream in, int maxSize, String errorPrefix) throws IOException {
+		count = 0;
+		// Last four bytes, a CRLFCRLF (or LFLF) ends the header.
+		int last = 0;
+
+		while(true) {
+			int b = in.read();
+			if(b < 0)
+				throw new EOFException(errorPrefix + "connection closed by the proxy");
+			if(count >= maxSize)
+				throw new IOException(errorPrefix + "response header exceeds " + maxSize + " bytes");
+			put(b);
+			last = (last << 8) | b;
+
+			if(last == 0x0d0a0d0a || (last & 0xffff) == 0x0a0a)
+				return count;
+		}
+	}
+
+	String toString(int off, int len) {
+		try {
+			return new String(buf, off, len, "ISO-8859-1");
+		}
+		catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	byte[] toByteArray() {
+		byte[] b = new byte[count];
+		System.arraycopy(buf, 0, b, 0, count);
+		return b;
+	}
+
+	void writeTo(OutputStream out) throws IOException {
+		out.write(buf, 0, count);
+		out.flush();
+	}
+
+	private void ensure(int len) {
+		if(count + len > buf.length) {
+			byte[] b = new byte[Math.max(buf.length << 1, count + len)];
+			System.arraycopy(buf, 0, b, 0, count);
+			buf = b;
+		}
+	}
+}
@@ -0,0 +1,174 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.net.proxy;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Connect to a host with several addresses, in the style of RFC 8305.
+ * <p>
+ * The attempts start one after another with a delay, IPv6 and IPv4 addresses
+ * alternate. The first connected socket wins, the other attempts are closed.
+ * A failed attempt starts the next one at once.
+ */
+final class HappyEyeballs {
+
+	private HappyEyeballs() {
+	}
+
+	/**
+	 * @param options socket whose options are set to the attempts, can be null
+	 * @return connected channel socket in blocking mode
+	 */
+	static Socket connect(InetAddress[] addresses, int port, int timeout, long attemptDelay,
+			ProxyConnector.ProxySocket options) throws IOException {
+		List<InetAddress> order = interleave(addresses);
+		List<SocketChannel> pending = new ArrayList<SocketChannel>();
+		SocketChannel winner = null;
+		IOException error = null;
+		long now = System.currentTimeMillis();
+		long deadline = timeout > 0 ? now + timeout : Long.MAX_VALUE;
+		long nextAttempt = now;
+		int next = 0;
+		Selector selector = Selector.open();
+
+		try {
+			while(winner == null) {
+				now = System.currentTimeMillis();
+
+				if(next < order.size() && (now >= nextAttempt || pending.isEmpty())) {
+					InetSocketAddress address = new InetSocketAddress(order.get(next++), port);
+					SocketChannel channel = SocketChannel.open();
+
+					nextAttempt = now + attemptDelay;
+					try {
+						if(options != null)
+							options.applyOptions(channel.socket());
+						channel.configureBlocking(false);
+
+						if(channel.connect(address))
+							winner = channel;
+						else {
+							channel.register(selector, SelectionKey.OP_CONNECT);
+							pending.add(channel);
+						}
+					}
+					catch (IOException e) {
+						error = e;
+						close(channel);
+					}
+					continue;
+				}
+
+				if(pending.isEmpty())
+					break;
+
+				if(now >= deadline)
+					throw new SocketTimeoutException("connect timed out");
+
+				long wait = deadline - now;
+				if(next < order.size())
+					wait = Math.min(wait, nextAttempt - now);
+				selector.select(Math.max(1, wait));
+
+				for(Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext(); ) {
+					SelectionKey key = it.next();
+					SocketChannel channel = (SocketChannel) key.channel();
+					it.remove();
+
+					try {
+						if(channel.finishConnect()) {
+							winner = channel;
+							pending.remove(channel);
+							break;
+						}
+					}
+					catch (IOException e) {
+						error = e;
+						key.cancel();
+						close(channel);
+						pending.remove(channel);
+						nextAttempt = now;
+					}
+				}
+			}
+		}
+		finally {
+			for(SocketChannel channel : pending)
+				close(channel);
+			// Deregisters the winner too.
+			selector.close();
+		}
+
+		if(winner == null)
+			throw error != null ? error : new ConnectException("no address to connect");
+
+		try {
+			winner.configureBlocking(true);
+		}
+		catch (IOException e) {
+			close(winner);
+			throw e;
+		}
+		return winner.socket();
+	}
+
+	/**
+	 * Alternates the address families, the family of the first address goes first.
+	 */
+	static List<InetAddress> interleave(InetAddress[] addresses) {
+		List<InetAddress> first = new ArrayList<InetAddress>();
+		List<InetAddress> second = new ArrayList<InetAddress>();
+		boolean firstIs6 = addresses[0] instanceof Inet6Address;
+
+		for(InetAddress address : addresses) {
+			if((address instanceof Inet6Address) == firstIs6)
+				first.add(address);
+			else
+				second.add(address);
+		}
+
+		List<InetAddress> order = new ArrayList<InetAddress>(addresses.length);
+		for(int i = 0; i < Math.max(first.size(), second.size()); i++) {
+			if(i < first.size())
+				order.add(first.get(i));
+			if(i < second.size())
+				order.add(second.get(i));
+		}
+		return order;
+	}
+
+	private static void close(SocketChannel channel) {
+		try {
+			channel.close();
+		}
+		catch (IOException e) {
+		}
+	}
+}
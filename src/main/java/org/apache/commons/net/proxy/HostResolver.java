@@ -0,0 +1,236 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.net.proxy;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Name resolution of a connector: how the target host is given to the proxy and the
+ * cache of the local lookups. No reverse lookup is done, an address without a name
+ * is given as the address.
+ * <p>
+ * The policies:
+ * <ul>
+ * <li>{@link Policy#LITERAL} - a name is resolved by the proxy (SOCKS5 domain, SOCKS4a),
+ * an address goes as an address (SOCKS5 IPv4 or IPv6 type, SOCKS4).</li>
+ * <li>{@link Policy#REMOTE} - the name or the text of the address is resolved by the proxy.</li>
+ * <li>{@link Policy#LOCAL} - a name is resolved here, with the cache, the proxy gets the address.</li>
+ * </ul>
+ * The names of the proxy servers are always resolved here, with the cache.
+ */
+public class HostResolver {
+	public enum Policy {
+		LITERAL, REMOTE, LOCAL
+	}
+
+	private static final int CACHE_SIZE = 1000;
+
+	private volatile Policy policy = Policy.LITERAL;
+	private volatile long ttl = 60000;
+
+	private final Map<String, Entry> cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	private long hits;
+	private long lookups;
+
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	public void setPolicy(Policy policy) {
+		this.policy = policy;
+	}
+
+	public long getTtl() {
+		return ttl;
+	}
+
+	/**
+	 * Milliseconds a resolved name is cached, 0 resolves every time (the cache of the JVM only).
+	 */
+	public void setTtl(long ttl) {
+		this.ttl = ttl;
+		clear();
+	}
+
+	/**
+	 * @return host of the proxy request: the name, or the text of the address
+	 */
+	public String target(InetSocketAddress endpoint) throws UnknownHostException {
+		InetAddress address = endpoint.getAddress();
+		String name = hostName(endpoint);
+
+		if(name == null || isLiteral(name))
+			return address != null ? address.getHostAddress() : name;
+		if(policy != Policy.LOCAL)
+			return name;
+		// Resolved by the creator of the endpoint already.
+		if(address != null)
+			return address.getHostAddress();
+		return resolve(name)[0].getHostAddress();
+	}
+
+	/**
+	 * @return true when the addresses go to the proxy as the addresses, not as the names
+	 */
+	public boolean isLiteralAddresses() {
+		return policy != Policy.REMOTE;
+	}
+
+	/**
+	 * @return addresses of the host, from the cache when they are younger than the ttl
+	 */
+	public InetAddress[] resolve(String host) throws UnknownHostException {
+		long ttl = this.ttl;
+		if(ttl <= 0 || isLiteral(host))
+			return InetAddress.getAllByName(host);
+
+		String key = host.toLowerCase(Locale.ENGLISH);
+		long now = System.currentTimeMillis();
+
+		synchronized (cache) {
+			lookups++;
+			Entry entry = cache.get(key);
+			if(entry != null && now - entry.time < ttl) {
+				hits++;
+				return entry.addresses.clone();
+			}
+		}
+
+		// Not under the lock, a slow lookup does not hold the other hosts.
+		InetAddress[] addresses = InetAddress.getAllByName(host);
+		synchronized (cache) {
+			cache.put(key, new Entry(addresses.clone(), now));
+		}
+		return addresses;
+	}
+
+	public void clear() {
+		synchronized (cache) {
+			cache.clear();
+		}
+	}
+
+	/**
+	 * @return lookups answered by the cache
+	 */
+	public long getHits() {
+		synchronized (cache) {
+			return hits;
+		}
+	}
+
+	public long getLookups() {
+		synchronized (cache) {
+			return lookups;
+		}
+	}
+
+	/**
+	 * @return the name the address was created with, lower case, null for an address
+	 * without a name. {@link InetSocketAddress#getHostName()} would look up the name of the address.
+	 */
+	public static String hostName(InetSocketAddress endpoint) {
+		InetAddress address = endpoint.getAddress();
+		if(address == null)
+			return endpoint.getHostName().toLowerCase(Locale.ENGLISH);
+
+		String text = address.toString();
+		int i = text.indexOf('/');
+		return i > 0 ? text.substring(0, i).toLowerCase(Locale.ENGLISH) : null;
+	}
+
+	/**
+	 * @return true for the text of an IPv4 or an IPv6 address
+	 */
+	public static boolean isLiteral(String host) {
+		return ipv4(host) != null || host.indexOf(':') >= 0;
+	}
+
+	/**
+	 * @return bytes of the dotted IPv4 address, null for another text
+	 */
+	static byte[] ipv4(String host) {
+		byte[] bytes = new byte[4];
+		int part = 0;
+		int value = -1;
+
+		for(int i = 0; i < host.length(); i++) {
+			char c = host.charAt(i);
+			if(c >= '0' && c <= '9') {
+				value = (value < 0 ? 0 : value * 10) + (c - '0');
+				if(value > 255)
+					return null;
+			}
+			else if(c == '.' && value >= 0 && part < 3) {
+				bytes[part++] = (byte) value;
+				value = -1;
+			}
+			else
+				return null;
+		}
+		if(part != 3 || value < 0)
+			return null;
+		bytes[3] = (byte) value;
+		return bytes;
+	}
+
+	/**
+	 * @return bytes of the IPv6 address, null for another text. No name lookup.
+	 */
+	static byte[] ipv6(String host) {
+		if(host.startsWith("[") && host.endsWith("]"))
+			host = host.substring(1, host.length() - 1);
+		if(host.indexOf(':') < 0)
+			return null;
+		try {
+			// A text with a colon is not looked up.
+			byte[] bytes = InetAddress.getByName(host).getAddress();
+			return bytes.length == 16 ? bytes : null;
+		}
+		catch (UnknownHostException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "HostResolver[" + policy + ", ttl=" + ttl + "]";
+	}
+
+	private static class Entry {
+		final InetAddress[] addresses;
+		final long time;
+
+		Entry(InetAddress[] addresses, long time) {
+			this.addresses = addresses;
+			this.time = time;
+		}
+	}
+}
@@ -0,0 +1,111 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.net.proxy;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations in milliseconds with fixed buckets. No allocation on record.
+ */
+public final class LatencyHistogram {
+	/** Upper bounds of the buckets in milliseconds, the last bucket has no bound. */
+	private static final long[] BOUNDS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000};
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+	private final StripedCounter total = new StripedCounter();
+
+	public void record(long millis) {
+		int i = 0;
+		while(i < BOUNDS.length && millis > BOUNDS[i])
+			i++;
+		buckets.incrementAndGet(i);
+		total.add(millis);
+	}
+
+	public long getCount() {
+		long count = 0;
+		for(int i = 0; i < buckets.length(); i++)
+			count += buckets.get(i);
+		return count;
+	}
+
+	public double getMean() {
+		long count = getCount();
+		return count > 0 ? (double) total.get() / count : 0;
+	}
+
+	/**
+	 * @param percent 0 - 100
+	 * @return upper bound of the bucket holding the percentile, -1 for the last bucket or no data
+	 */
+	public long getPercentile(double percent) {
+		return percentile(getBuckets(), percent);
+	}
+
+	/**
+	 * @param buckets bucket counts of one or more histograms
+	 * @see #getPercentile(double)
+	 */
+	public static long percentile(long[] buckets, double percent) {
+		long count = 0;
+		for(long bucket : buckets)
+			count += bucket;
+		if(count == 0)
+			return -1;
+
+		long rank = (long) Math.ceil(count * percent / 100);
+		long seen = 0;
+		for(int i = 0; i < BOUNDS.length; i++) {
+			seen += buckets[i];
+			if(seen >= rank)
+				return BOUNDS[i];
+		}
+		return -1;
+	}
+
+	/**
+	 * @return bucket counts, the last one is above the last bound
+	 */
+	public long[] getBuckets() {
+		long[] counts = new long[buckets.length()];
+		for(int i = 0; i < counts.length; i++)
+			counts[i] = buckets.get(i);
+		return counts;
+	}
+
+	public static long[] getBounds() {
+		return BOUNDS.clone();
+	}
+
+	/**
+	 * @return buckets as text, for example <code>&lt;=1ms:3 &lt;=2ms:10 ... &gt;10000ms:0</code>
+	 */
+	@Override
+	public String toString() {
+		return format(getBuckets());
+	}
+
+	/**
+	 * @param buckets bucket counts of one or more histograms
+	 */
+	public static String format(long[] buckets) {
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < BOUNDS.length; i++)
+			sb.append("<=").append(BOUNDS[i]).append("ms:").append(buckets[i]).append(' ');
+		return sb.append('>').append(BOUNDS[BOUNDS.length - 1]).append("ms:").append(buckets[BOUNDS.length]).toString();
+	}
+}
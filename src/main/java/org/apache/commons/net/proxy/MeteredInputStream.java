@@ -0,0 +1,75 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.net.proxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream of a tunnel, counts the bytes in {@link ProxyMetrics}.
+ */
+final class MeteredInputStream extends InputStream {
+	final InputStream in;
+	private final ProxyMetrics metrics;
+	/** Bytes of this stream, the stream is read by one thread. */
+	long count;
+
+	MeteredInputStream(InputStream in, ProxyMetrics metrics) {
+		this.in = in;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = in.read();
+		if(b >= 0) {
+			metrics.received(1);
+			count++;
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int n = in.read(b, off, len);
+		if(n > 0) {
+			metrics.received(n);
+			count += n;
+		}
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = in.skip(n);
+		if(skipped > 0) {
+			metrics.received(skipped);
+			count += skipped;
+		}
+		return skipped;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return in.available();
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
@@ -0,0 +1,59 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.net.proxy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream of a tunnel, counts the bytes in {@link ProxyMetrics}.
+ */
+final class MeteredOutputStream extends OutputStream {
+	final OutputStream out;
+	private final ProxyMetrics metrics;
+	/** Bytes of this stream, the stream is written by one thread. */
+	long count;
+
+	MeteredOutputStream(OutputStream out, ProxyMetrics metrics) {
+		this.out = out;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		out.write(b);
+		metrics.sent(1);
+		count++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		out.write(b, off, len);
+		metrics.sent(len);
+		count += len;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+}
@@ -20,5 +20,11 @@ import java.io.IOException;
 import java.net.Socket;
 
 public interface ProxyAuthenticate {	
+	/**
+	 * Prepares the parts of the request which do not depend on the target host,
+	 * called once when the connector is built.
+	 */
+	void prepare(Credentials credentials);
+
 	void authenticate(Socket socket, String hostname, int port, Credentials credentials) throws IOException;
 }
@@ -0,0 +1,43 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.net.proxy;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Proxy authentication which can wait for an incoming connection (SOCKS BIND),
+ * the data connection of the active FTP mode.
+ */
+public interface ProxyBindAuthenticate extends ProxyAuthenticate {
+	/**
+	 * Logs in and asks the proxy to listen.
+	 *
+	 * @param hostname host expected to connect, null for any host
+	 * @return address the proxy listens on, 0.0.0.0 for the address of the proxy
+	 */
+	InetSocketAddress bind(Socket socket, String hostname, int port, Credentials credentials) throws IOException;
+
+	/**
+	 * Waits for the second reply, the connection of the remote host.
+	 * The socket is the data connection after it.
+	 *
+	 * @return address of the connected host
+	 */
+	InetSocketAddress accept(Socket socket) throws IOException;
+}
@@ -17,6 +17,8 @@
 package org.apache.commons.net.proxy;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
@@ -26,11 +28,16 @@ import java.net.Socket;
 import java.net.SocketAddress;
 import java.net.SocketException;
 import java.net.SocketImpl;
-import java.net.URL;
+import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.List;
 
 import javax.net.ServerSocketFactory;
 
+import org.apache.commons.net.proxy.ProxyTimeoutException.Phase;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -65,6 +72,26 @@ public class ProxyConnector {
 
 	ProxyAuthenticate authenticate;
 
+	/**
+	 * Warm connections to the proxy, null when disabled.
+	 */
+	private ProxyTunnelPool pool;
+
+	private long poolIdleTimeout = 30000;
+
+	private boolean pipelining;
+
+	private boolean useChannels;
+
+	private long connectAttemptDelay = 250;
+
+	private final ProxyMetrics metrics = new ProxyMetrics();
+
+	private final HostResolver resolver = new HostResolver();
+
+	private volatile SocketProfile controlProfile = SocketProfile.control();
+	private volatile SocketProfile dataProfile = SocketProfile.data();
+
 	public ProxyConnector() {
 		_serverSocketFactory_ = ServerSocketFactory.getDefault();
 	}
@@ -74,35 +101,43 @@ public class ProxyConnector {
 		parseProxyUrl(proxyUrl);
 	}
 
+	/**
+	 * @param proxyUrl proxy url or a comma separated list of proxy urls
+	 * @return connector of the proxy, {@link ProxyConnectorGroup} for a list
+	 */
+	public static ProxyConnector create(String proxyUrl) throws MalformedURLException {
+		if(proxyUrl != null && proxyUrl.indexOf(',') >= 0)
+			return new ProxyConnectorGroup(proxyUrl);
+		return new ProxyConnector(proxyUrl);
+	}
+
+	/**
+	 * @param proxyUrl proxy url or a comma separated list of proxy urls, null for the direct connections
+	 * @param noProxy comma separated patterns of the hosts connected directly, can be null
+	 * @param routes routing rules, can be null
+	 * @return {@link ProxyConnectorRouter} with the no-proxy list or the rules, otherwise
+	 * the connector of {@link #create(String)}
+	 */
+	public static ProxyConnector create(String proxyUrl, String noProxy, String routes) throws MalformedURLException {
+		ProxyConnector connector = create(proxyUrl);
+
+		if(noProxy == null && routes == null)
+			return connector;
+		return new ProxyConnectorRouter(connector, noProxy, routes);
+	}
+
 	public void setProxyUrl(String proxyUrl) throws MalformedURLException {
 		parseProxyUrl(proxyUrl);
 	}
 
 	private void parseProxyUrl(String proxyUrl) throws MalformedURLException {
 		if(proxyUrl != null && !proxyUrl.isEmpty()) {
-    		URL url = new URL(proxyUrl);
+			ProxyUrl url = ProxyUrl.parse(proxyUrl);
 
-    		proxySchema = url.getProtocol();
-    		proxyHost = url.getHost();
-    		proxyPort = url.getPort();
-    		String authority = url.getUserInfo();
-    		String proxyUser = null;
-    		String proxyPass = null;
-
-    		if(authority == null)
-    			authority = url.getAuthority();
-
-    		if(authority != null && !authority.isEmpty()) {
-    			int p = authority.indexOf('@');
-
-    			if(p > 0)
-    				authority = authority.substring(0, p);
-
-    			p = authority.indexOf(':');
-    			proxyUser = p < 0 ? authority : authority.substring(0, p);
-    			proxyPass = p < 0 ? "" : authority.substring(p + 1);
-    		}
-    		credentials = new Credentials(proxyUser, proxyPass);
+			proxySchema = url.getSchema();
+			proxyHost = url.getHost();
+			proxyPort = url.getPort();
+			credentials = new Credentials(url.getUserName(), url.getPassword());
 		}
 		else {
 			initDefault();
@@ -133,7 +168,10 @@ public class ProxyConnector {
 				authenticate = new SOCKS4Authenticate();
 			}
 			else if(proxySchema.startsWith("socks")) {
-				authenticate = new SOCKS5Authenticate();
+				SOCKS5Authenticate socks5 = new SOCKS5Authenticate();
+				socks5.setPipelining(pipelining);
+				socks5.setLiteralAddresses(resolver.isLiteralAddresses());
+				authenticate = socks5;
 			}
 
 			haveProxy = authenticate != null;
@@ -142,45 +180,545 @@ public class ProxyConnector {
 			authenticate = new DirectAuthenticate();
 			haveProxy = false;
 		}
+		authenticate.prepare(credentials);
 
 		return authenticate;
 	}
 
+	public String getProxySchema() {
+		return proxySchema;
+	}
+
+	public String getProxyHost() {
+		return proxyHost;
+	}
+
+	public int getProxyPort() {
+		return proxyPort;
+	}
+
 	public boolean isHaveProxy() {
-		return true;
+		return haveProxy;
 	}
 
 	public void setHaveProxy(boolean haveProxy) {
 		this.haveProxy = haveProxy;
 	}
 
+	@Override
+	public String toString() {
+		return haveProxy ? proxySchema + "://" + proxyHost + ":" + proxyPort : "direct";
+	}
+
 	//
 	// ServerSocket
 	//
 
+	/**
+	 * A SOCKS proxy listens for the connection ({@link #isBindSupported()}), the port is ignored.
+	 */
 	public ServerSocket createServerSocket(int port) throws IOException {
+		if(isBindSupported())
+			return createServerSocket(null, 0);
 		ServerSocket socket = _serverSocketFactory_.createServerSocket(port);
 		return socket;
 	}
 
 	public ServerSocket createServerSocket(int port, int backlog) throws IOException {
-		ServerSocket socket = _serverSocketFactory_.createServerSocket(backlog, backlog);
+		if(isBindSupported())
+			return createServerSocket(null, 0);
+		ServerSocket socket = _serverSocketFactory_.createServerSocket(port, backlog);
 		return socket;
 	}
 
 	public ServerSocket createServerSocket(int port, int backlog, InetAddress ifAddress) throws IOException {
+		if(isBindSupported())
+			return createServerSocket(null, 0);
 		ServerSocket socket = _serverSocketFactory_.createServerSocket(port, backlog, ifAddress);
 		return socket;
 	}
 
+	/**
+	 * @return true when the proxy can listen for a connection (SOCKS BIND)
+	 */
+	public boolean isBindSupported() {
+		return haveProxy && authenticate instanceof ProxyBindAuthenticate;
+	}
+
+	/**
+	 * Asks the proxy to listen for one connection (SOCKS BIND). The remote host has to
+	 * connect to {@link ServerSocket#getInetAddress()} and {@link ServerSocket#getLocalPort()}
+	 * of the returned socket, the address of the proxy.
+	 *
+	 * @param endpoint host expected to connect, null for any host
+	 * @param timeout budget of the connect and the handshake
+	 */
+	public ServerSocket createServerSocket(InetSocketAddress endpoint, int timeout) throws IOException {
+		if(!isBindSupported())
+			throw new SocketException(this + " cannot listen for a connection");
+
+		// Not connected itself, carries the options of the data connections.
+		ProxySocket options = new ProxySocket(dataProfile);
+		Deadline deadline = options.deadline(timeout);
+		Socket tunnel = openProxyConnection(timeout, options);
+		long start = System.nanoTime();
+		InetSocketAddress bound;
+
+		try {
+			String host = null;
+			int port = 0;
+			if(endpoint != null) {
+				host = endpoint.getAddress() != null ? endpoint.getAddress().getHostAddress() : endpoint.getHostName();
+				port = endpoint.getPort();
+			}
+			tunnel.setSoTimeout(deadline.remaining(Phase.HANDSHAKE));
+			bound = ((ProxyBindAuthenticate) authenticate).bind(tunnel, host, port, credentials);
+		}
+		catch (SocketTimeoutException e) {
+			SocketTimeoutException expired = deadline.expired(Phase.HANDSHAKE, e);
+			metrics.failed(expired);
+			tunnel.close();
+			throw expired;
+		}
+		catch (IOException e) {
+			metrics.failed(e);
+			tunnel.close();
+			throw e;
+		}
+		metrics.handshaked(System.nanoTime() - start);
+
+		// The proxy listens on all its addresses.
+		if(bound.getAddress() == null || bound.getAddress().isAnyLocalAddress())
+			bound = new InetSocketAddress(tunnel.getInetAddress(), bound.getPort());
+		log.trace("ProxyServerSocket listens on {}", bound);
+
+		return new ProxyServerSocket(tunnel, bound);
+	}
+
+	/**
+	 * Keeps up to <code>size</code> warm connections to the proxy for the data connections.
+	 * 0 disables the pool.
+	 */
+	public synchronized void setPoolSize(int size) {
+		if(size > 0) {
+			if(pool == null) {
+				pool = new ProxyTunnelPool(this, size);
+				pool.setIdleTimeout(poolIdleTimeout);
+			}
+			else
+				pool.setMaxSize(size);
+		}
+		else if(pool != null) {
+			pool.close();
+			pool = null;
+		}
+	}
+
+	public synchronized void setPoolIdleTimeout(long idleTimeout) {
+		poolIdleTimeout = idleTimeout;
+
+		if(pool != null)
+			pool.setIdleTimeout(idleTimeout);
+	}
+
+	/**
+	 * Sends the whole handshake at once when the proxy protocol allows it (SOCKS5).
+	 */
+	public void setPipelining(boolean pipelining) {
+		this.pipelining = pipelining;
+
+		if(authenticate instanceof SOCKS5Authenticate)
+			((SOCKS5Authenticate) authenticate).setPipelining(pipelining);
+	}
+
+	/**
+	 * Opens the connections with {@link SocketChannel}, {@link Socket#getChannel()} of
+	 * a connected socket is not null. Direct connections are opened with a channel too.
+	 */
+	public void setUseChannels(boolean useChannels) {
+		this.useChannels = useChannels;
+	}
+
+	public boolean isUseChannels() {
+		return useChannels;
+	}
+
+	/**
+	 * Milliseconds between the parallel connection attempts to the addresses of the proxy host.
+	 */
+	public void setConnectAttemptDelay(long connectAttemptDelay) {
+		this.connectAttemptDelay = connectAttemptDelay;
+	}
+
+	public long getConnectAttemptDelay() {
+		return connectAttemptDelay;
+	}
+
+	public HostResolver getHostResolver() {
+		return resolver;
+	}
+
+	/**
+	 * How the target host is given to the proxy, {@link HostResolver.Policy#LITERAL} by default.
+	 */
+	public void setHostResolution(HostResolver.Policy policy) {
+		resolver.setPolicy(policy);
+
+		if(authenticate instanceof SOCKS5Authenticate)
+			((SOCKS5Authenticate) authenticate).setLiteralAddresses(resolver.isLiteralAddresses());
+	}
+
+	/**
+	 * Milliseconds the local lookups of the target and the proxy names are cached.
+	 */
+	public void setDnsCacheTtl(long ttl) {
+		resolver.setTtl(ttl);
+	}
+
+	public ProxyMetrics getMetrics() {
+		return metrics;
+	}
+
+	public SocketProfile getControlProfile() {
+		return controlProfile;
+	}
+
+	/**
+	 * Options of the sockets of {@link #createSocket()}.
+	 */
+	public void setControlProfile(SocketProfile controlProfile) {
+		this.controlProfile = controlProfile;
+	}
+
+	public SocketProfile getDataProfile() {
+		return dataProfile;
+	}
+
+	/**
+	 * Options of the sockets of {@link #createDataSocket()} and of the pooled connections to the proxy.
+	 */
+	public void setDataProfile(SocketProfile dataProfile) {
+		this.dataProfile = dataProfile;
+	}
+
+	/**
+	 * @return connectors of the proxy servers, this connector or the members of a group
+	 */
+	public List<ProxyConnector> getProxyConnectors() {
+		return Collections.singletonList(this);
+	}
+
+	/**
+	 * @return connector of the connections to the endpoint, this one when it does not route
+	 */
+	public ProxyConnector route(InetSocketAddress endpoint) throws IOException {
+		return this;
+	}
+
+	private Socket newSocket() throws IOException {
+		return useChannels ? SocketChannel.open().socket() : new Socket();
+	}
+
+	public synchronized ProxyTunnelPool getPool() {
+		return pool;
+	}
+
+	public void close() {
+		ProxyTunnelPool pool;
+
+		synchronized (this) {
+			pool = this.pool;
+			this.pool = null;
+		}
+		if(pool != null)
+			pool.close();
+	}
+
+	/**
+	 * Opens a connection to the proxy. When the proxy host has several addresses,
+	 * the addresses are tried in parallel ({@link HappyEyeballs}), the socket is
+	 * a channel socket then. The name lookup and the connect share the budget of
+	 * the options socket.
+	 *
+	 * @param options socket whose options, local address and budget are used
+	 */
+	Socket openProxyConnection(int timeout, ProxySocket options) throws IOException {
+		long start = System.nanoTime();
+		Socket socket;
+
+		try {
+			socket = openProxyConnection0(timeout, options);
+		}
+		catch (IOException e) {
+			metrics.failed("connect");
+			throw e;
+		}
+		metrics.connected(System.nanoTime() - start);
+
+		return socket;
+	}
+
+	private Socket openProxyConnection0(int timeout, ProxySocket options) throws IOException {
+		Deadline deadline = options.deadline(timeout);
+		InetAddress[] addresses = resolver.resolve(proxyHost);
+		int remaining = deadline.remaining(Phase.DNS);
+		// The round trip without the name lookup.
+		long start = System.nanoTime();
+		Socket socket;
+
+		try {
+			// A fixed local address cannot be bound by the parallel attempts.
+			if(addresses.length > 1 && options.bindpoint == null)
+				socket = HappyEyeballs.connect(addresses, proxyPort, remaining, connectAttemptDelay, options);
+			else
+				socket = options.connectTo(new InetSocketAddress(addresses[0], proxyPort), remaining);
+		}
+		catch (SocketTimeoutException e) {
+			throw deadline.expired(Phase.CONNECT, e);
+		}
+
+		options.profile.roundTrip(System.nanoTime() - start);
+		return socket;
+	}
+
+	/**
+	 * Opens a connection to the proxy for the pool and logs in when the protocol allows it.
+	 */
+	Socket openPoolSocket(int timeout) throws IOException {
+		// Not connected itself, carries the options of the data connections.
+		Socket socket = openProxyConnection(timeout, new ProxySocket(dataProfile));
+		boolean done = false;
+
+		try {
+			if(authenticate instanceof ProxyPreAuthenticate) {
+				socket.setSoTimeout(timeout);
+				((ProxyPreAuthenticate) authenticate).preAuthenticate(socket, credentials);
+				socket.setSoTimeout(0);
+			}
+			done = true;
+		}
+		finally {
+			if(!done)
+				socket.close();
+		}
+		return socket;
+	}
+
+	/**
+	 * Opens a connection to the proxy for the pool on {@link ProxyHandshakeEngine}, no
+	 * thread waits for the connect and the login.
+	 *
+	 * @return future of the socket, null when the proxy host has several addresses:
+	 * {@link #openPoolSocket(int)} tries them in parallel
+	 */
+	ProxyFuture<Socket> openPoolSocketAsync(int timeout) throws IOException {
+		Deadline deadline = new Deadline(timeout);
+		InetAddress[] addresses = resolver.resolve(proxyHost);
+		if(addresses.length > 1)
+			return null;
+		deadline.remaining(Phase.DNS);
+
+		ProxyHandshake handshake = ((AsyncProxyAuthenticate) authenticate).preHandshake(credentials);
+		return ProxyHandshakeEngine.getDefault().connect(new InetSocketAddress(addresses[0], proxyPort),
+				handshake, deadline, new ProxySocket(dataProfile), metrics);
+	}
+
+	/**
+	 * Opens the tunnel to the endpoint without a waiting thread: the connect and the
+	 * handshake run on the selector thread of {@link ProxyHandshakeEngine}.
+	 * The name of the proxy is resolved by the calling thread, the pool is not used.
+	 *
+	 * @param timeout budget of the name lookup, the connect and the handshake, 0 for none
+	 * @param data true for a data connection, with the options of {@link #getDataProfile()}
+	 * @return future of the connected socket
+	 */
+	public ProxyFuture<Socket> connectAsync(InetSocketAddress endpoint, int timeout, boolean data) {
+		ProxyFuture<Socket> result = new ProxyFuture<Socket>();
+		connectAsync(new ProxySocket(data ? dataProfile : controlProfile), endpoint, new Deadline(timeout), result, true);
+		return result;
+	}
+
+	private void connectAsync(final ProxySocket socket, final InetSocketAddress endpoint, final Deadline deadline,
+			final ProxyFuture<Socket> result, final boolean retry) {
+		final ProxyFuture<Socket> tunnel;
+
+		try {
+			SocketAddress address = endpoint;
+			ProxyHandshake handshake = null;
+
+			if(haveProxy) {
+				String host = resolver.target(endpoint);
+
+				address = new InetSocketAddress(resolver.resolve(proxyHost)[0], proxyPort);
+				deadline.remaining(Phase.DNS);
+				handshake = ((AsyncProxyAuthenticate) authenticate).handshake(host, endpoint.getPort(), credentials);
+			}
+			else
+				address = local(endpoint);
+			tunnel = ProxyHandshakeEngine.getDefault().connect(address, handshake, deadline, socket, metrics);
+		}
+		catch (IOException e) {
+			result.failed(e);
+			return;
+		}
+
+		tunnel.addListener(new ProxyFuture.Listener<Socket>() {
+			@Override
+			public void completed(ProxyFuture<Socket> future) {
+				Throwable cause = future.getCause();
+
+				if(cause instanceof ProxyReconnectException && retry) {
+					try {
+						// Nothing is left for a new one.
+						deadline.remaining(Phase.HANDSHAKE);
+					}
+					catch (ProxyTimeoutException e) {
+						result.failed(e);
+						return;
+					}
+					log.debug("ProxySocket handshake goes on over a new connection: {}", cause.getMessage());
+					// The lookup of the proxy name can block, not on the selector thread.
+					ProxyHandshakeEngine.execute(new Runnable() {
+						@Override
+						public void run() {
+							connectAsync(socket, endpoint, deadline, result, false);
+						}
+					});
+				}
+				else if(cause != null)
+					result.failed(cause);
+				else if(future.isSuccess())
+					opened(socket, future.getNow(), endpoint, result);
+			}
+		});
+		result.addListener(new ProxyFuture.Listener<Socket>() {
+			@Override
+			public void completed(ProxyFuture<Socket> future) {
+				if(future.isCancelled())
+					tunnel.cancel(false);
+			}
+		});
+	}
+
+	/**
+	 * Completes the future with the socket of the opened tunnel.
+	 */
+	void opened(ProxySocket socket, Socket tunnel, InetSocketAddress endpoint, ProxyFuture<Socket> result) {
+		try {
+			socket.attach(tunnel);
+			socket.opened(endpoint);
+		}
+		catch (IOException e) {
+			socket.detach();
+			result.failed(e);
+			return;
+		}
+		if(!result.succeeded(socket)) {
+			try {
+				socket.close();
+			}
+			catch (IOException e) {
+			}
+		}
+	}
+
+	/**
+	 * @return the endpoint of a direct connection, a name not resolved yet is resolved here with the cache
+	 */
+	InetSocketAddress local(InetSocketAddress endpoint) throws UnknownHostException {
+		if(!endpoint.isUnresolved())
+			return endpoint;
+		return new InetSocketAddress(resolver.resolve(endpoint.getHostName())[0], endpoint.getPort());
+	}
+
+	/**
+	 * @return true when the sockets wrap a tunnel: a connection through the proxy
+	 * or a direct channel socket
+	 */
+	protected boolean isTunneled() {
+		return (authenticate != null && haveProxy) || useChannels;
+	}
+
+	/**
+	 * Opens the tunnel of the socket to the endpoint.
+	 */
+	protected void connectTunnel(ProxySocket socket, InetSocketAddress endpoint, int timeout) throws IOException {
+		if(authenticate == null || !haveProxy) {
+			log.trace("ProxySocket connect to {} with channel", endpoint);
+			Deadline deadline = socket.deadline(timeout);
+			long start = System.nanoTime();
+			try {
+				socket.attach(socket.connectTo(local(endpoint), deadline.remaining(Phase.CONNECT)));
+			}
+			catch (SocketTimeoutException e) {
+				throw deadline.expired(Phase.CONNECT, e);
+			}
+			socket.profile.roundTrip(System.nanoTime() - start);
+			return;
+		}
+
+		int port = endpoint.getPort();
+		String host = resolver.target(endpoint);
+		socket.deadline(timeout).remaining(Phase.DNS);
+
+		ProxyTunnelPool pool = getPool();
+		Socket pooled = pool != null ? pool.lease(timeout) : null;
+
+		if(pooled != null) {
+			log.trace("ProxySocket connect to {} with pooled proxy connection", host);
+
+			try {
+				socket.attach(pooled);
+				if(pool.isPreAuthenticated())
+					socket.handshake(host, port, true);
+				else
+					socket.handshake(host, port, false);
+				return;
+			}
+			catch (IOException e) {
+				socket.detach();
+				// Nothing is left for a new one.
+				if(e instanceof ProxyTimeoutException)
+					throw e;
+				// The proxy could close an idle connection, try a new one.
+				log.debug("ProxySocket pooled proxy connection failed: {}", e.getMessage());
+			}
+		}
+
+		log.trace("ProxySocket connect to {} with handshake", host);
+
+		socket.attach(socket.connectProxy(timeout));
+		try {
+			socket.handshake(host, port, false);
+		}
+		catch (ProxyReconnectException e) {
+			socket.detach();
+			// Nothing is left for a new one.
+			socket.deadline(timeout).remaining(Phase.HANDSHAKE);
+			log.debug("ProxySocket handshake goes on over a new connection: {}", e.getMessage());
+			socket.attach(socket.connectProxy(timeout));
+			socket.handshake(host, port, false);
+		}
+	}
+
 	//
 	// Socket
 	//
 
+	/**
+	 * @return socket of a control connection
+	 */
 	public Socket createSocket() throws IOException, UnknownHostException {
 		return new ProxySocket();
 	}
 
+	/**
+	 * @return socket of a data connection, with the options of {@link #getDataProfile()}
+	 */
+	public Socket createDataSocket() throws IOException {
+		return new ProxySocket(dataProfile);
+	}
+
 	public Socket createSocket(String host, int port) throws IOException, UnknownHostException {
 		return new ProxySocket(host, port);
 	}
@@ -197,38 +735,120 @@ public class ProxyConnector {
 		return new ProxySocket(address, port, localAddress, localPort);
 	}
 
+	/**
+	 * Socket for the connection through the proxy.
+	 * <p>
+	 * A proxied socket is a wrapper of the connection to the proxy (the tunnel),
+	 * so the tunnel can be opened ahead of time by {@link ProxyTunnelPool}.
+	 * A direct socket works as a plain {@link Socket}, or wraps a channel socket
+	 * when the connector uses channels.
+	 * <p>
+	 * The options of the profile are set first, the options set on the socket override them.
+	 */
 	public class ProxySocket extends Socket {
+		/** Connection to the proxy, null before connect and for a direct connection. */
+		private Socket tunnel;
+
+		/** Counted in {@link ProxyMetrics#getActiveTunnels()}. */
+		private boolean opened;
+
+		private MeteredInputStream input;
+		private MeteredOutputStream output;
+
+		/** Authentication in progress, a close from the authenticator closes the tunnel only. */
+		private boolean handshaking;
+
+		/** Options of the tunnel set before connect. */
+		private SocketAddress bindpoint;
+		private int soTimeout = -1;
+		private int receiveBufferSize = -1;
+		private int sendBufferSize = -1;
+		private Boolean tcpNoDelay;
+		private Boolean keepAlive;
+		private int soLinger = -2;
+
+		private final SocketProfile profile;
+
+		/** Target of the tunnel. */
+		private InetSocketAddress endpoint;
+
+		/** Budget of the connect in progress. */
+		private Deadline deadline;
+
+		/** Open time and the bytes of the channel transfers, for the auto tuning. */
+		private long openedAt;
+		private long channelBytes;
+
 		public ProxySocket() {
+			this(controlProfile);
+		}
+
+		public ProxySocket(SocketProfile profile) {
 			super();
+			this.profile = profile;
+			applyProfile();
 		}
 
 		public ProxySocket(InetAddress address, int port, InetAddress localAddr, int localPort) throws IOException {
-			super(address, port, localAddr, localPort);
+			this();
+			bind(new InetSocketAddress(localAddr, localPort));
+			connect(new InetSocketAddress(address, port));
 		}
 
 		public ProxySocket(InetAddress address, int port) throws IOException {
-			super(address, port);
+			this();
+			connect(new InetSocketAddress(address, port));
 		}
 
 		public ProxySocket(Proxy proxy) {
 			super(proxy);
+			this.profile = controlProfile;
 		}
 
 		public ProxySocket(SocketImpl impl) throws SocketException {
 			super(impl);
+			this.profile = controlProfile;
 		}
 
 		public ProxySocket(String host, int port, InetAddress localAddr, int localPort) throws IOException {
-			super(host, port, localAddr, localPort);
+			this();
+			bind(new InetSocketAddress(localAddr, localPort));
+			connect(new InetSocketAddress(host, port));
 		}
 
 		public ProxySocket(String host, int port) throws UnknownHostException, IOException {
-			super(host, port);
+			this();
+			connect(new InetSocketAddress(host, port));
+		}
+
+		/**
+		 * A direct socket takes the profile at once, the tunnel when it is opened.
+		 */
+		private void applyProfile() {
+			if(isTunneled())
+				return;
+			try {
+				profile.apply(this);
+			}
+			catch (SocketException e) {
+				log.debug("ProxySocket options of {} not set: {}", profile, e.getMessage());
+			}
+		}
+
+		public SocketProfile getProfile() {
+			return profile;
+		}
+
+		/**
+		 * @return true for a data connection of the connector
+		 */
+		boolean isData() {
+			return profile == dataProfile;
 		}
 
 		@Override
 		public void connect(SocketAddress endpoint, int timeout) throws IOException {
-			if(authenticate != null && haveProxy) {
+			if(isTunneled()) {
 				if (endpoint == null)
 					throw new IllegalArgumentException("connect: The address can't be null");
 
@@ -238,40 +858,555 @@ public class ProxyConnector {
 				if (isClosed())
 					throw new SocketException("Socket is closed");
 
+				if (tunnel != null)
+					throw new SocketException("already connected");
+
 				if (!(endpoint instanceof InetSocketAddress))
 					throw new IllegalArgumentException("Unsupported address type");
 
-				InetSocketAddress epoint = (InetSocketAddress) endpoint;
-				int port = epoint.getPort();
-				String host = epoint.getHostName();
+				deadline = new Deadline(timeout);
+				try {
+					connectTunnel(this, (InetSocketAddress) endpoint, timeout);
+				}
+				finally {
+					deadline = null;
+				}
+				opened((InetSocketAddress) endpoint);
+			}
+			else {
+				log.trace("ProxySocket connect to {}", endpoint);
+				super.connect(endpoint instanceof InetSocketAddress ? local((InetSocketAddress) endpoint) : endpoint, timeout);
+			}
+		}
 
-				if(host == null)
-					host = epoint.getAddress().getHostAddress();
+		private synchronized void opened(InetSocketAddress endpoint) throws IOException {
+			if(isClosed()) {
+				detach();
+				throw new SocketException("Socket is closed");
+			}
+			this.endpoint = endpoint;
+			opened = true;
+			openedAt = System.nanoTime();
+			metrics.tunnelOpened();
+		}
 
-				log.trace("ProxySocket connect to {} with handshake", host);
+		/**
+		 * @return target of the tunnel, not the proxy, null before connect and for a plain socket
+		 */
+		public InetSocketAddress getEndpoint() {
+			return endpoint;
+		}
 
-				InetSocketAddress proxyEpoint = new InetSocketAddress(proxyHost, proxyPort);
-				super.connect(proxyEpoint, timeout);
+		/**
+		 * @return connector which opened the tunnel: the member of a group, the route of a router;
+		 * this connector before connect and for a plain socket
+		 */
+		public ProxyConnector getRoute() {
+			Socket tunnel = this.tunnel;
+			return tunnel instanceof ProxySocket ? ((ProxySocket) tunnel).getRoute() : ProxyConnector.this;
+		}
 
-				handshake(host, port);
+		/**
+		 * @return budget of the connect in progress, a new one outside of a connect
+		 */
+		Deadline deadline(int timeout) {
+			Deadline deadline = this.deadline;
+			if(deadline == null)
+				this.deadline = deadline = new Deadline(timeout);
+			return deadline;
+		}
+
+		private Socket connectProxy(int timeout) throws IOException {
+			return openProxyConnection(timeout, this);
+		}
+
+		/**
+		 * Opens a new connection with the options of this socket.
+		 */
+		Socket connectTo(SocketAddress endpoint, int timeout) throws IOException {
+			Socket socket = newSocket();
+			try {
+				prepare(socket);
+				socket.connect(endpoint, timeout);
 			}
-			else {
-				log.trace("ProxySocket connect to {}", ((InetSocketAddress) endpoint).getHostName());
-				super.connect(endpoint, timeout);
+			catch (IOException e) {
+				socket.close();
+				throw e;
 			}
+			return socket;
 		}
 
-		private void handshake(String host, int port) throws IOException {
-			authenticate.authenticate(this, host, port, credentials);
+		void handshake(String host, int port, boolean preAuthenticated) throws IOException {
+			long start = System.nanoTime();
 
-			if (isClosed())
+			handshaking = true;
+			try {
+				if(preAuthenticated)
+					((ProxyPreAuthenticate) authenticate).connect(this, host, port);
+				else
+					authenticate.authenticate(this, host, port, credentials);
+			}
+			catch (IOException e) {
+				metrics.failed(e);
+				throw e;
+			}
+			finally {
+				handshaking = false;
+			}
+			metrics.handshaked(System.nanoTime() - start);
+
+			if (isClosed() || tunnel == null || tunnel.isClosed())
 				throw new SocketException("Socket is closed");
+			// The reads of the handshake shrank it.
+			if (deadline != null && !deadline.isInfinite())
+				tunnel.setSoTimeout(soTimeout >= 0 ? soTimeout : 0);
+		}
+
+		void attach(Socket socket) throws IOException {
+			if(socket != tunnel)
+				applyOptions(socket);
+			tunnel = socket;
+		}
+
+		void detach() {
+			Socket socket = tunnel;
+			tunnel = null;
+
+			if(socket != null) {
+				try {
+					socket.close();
+				}
+				catch (IOException e) {
+				}
+			}
+		}
+
+		/**
+		 * Sets the options and the local address of this socket to a new socket.
+		 */
+		void prepare(Socket socket) throws IOException {
+			applyOptions(socket);
+			if(bindpoint != null)
+				socket.bind(bindpoint);
+		}
+
+		void applyOptions(Socket socket) throws IOException {
+			// A group member socket has its own profile.
+			if(!(socket instanceof ProxySocket))
+				profile.apply(socket);
+			if(soTimeout >= 0)
+				socket.setSoTimeout(soTimeout);
+			if(receiveBufferSize > 0)
+				socket.setReceiveBufferSize(receiveBufferSize);
+			if(sendBufferSize > 0)
+				socket.setSendBufferSize(sendBufferSize);
+			if(tcpNoDelay != null)
+				socket.setTcpNoDelay(tcpNoDelay);
+			if(keepAlive != null)
+				socket.setKeepAlive(keepAlive);
+			if(soLinger >= -1)
+				socket.setSoLinger(soLinger >= 0, soLinger);
+		}
+
+		@Override
+		public void bind(SocketAddress bindpoint) throws IOException {
+			if(isTunneled())
+				this.bindpoint = bindpoint;
+			else
+				super.bind(bindpoint);
+		}
+
+		@Override
+		public InputStream getInputStream() throws IOException {
+			Socket tunnel = this.tunnel;
+
+			if(tunnel == null)
+				return super.getInputStream();
+			// A group member socket counts itself.
+			if(tunnel instanceof ProxySocket)
+				return tunnel.getInputStream();
+
+			InputStream in = tunnel.getInputStream();
+			// The handshake is not counted, its reads share the budget of the connect.
+			if(!opened)
+				return handshaking && deadline != null ? deadline.handshakeInput(in, tunnel) : in;
+			MeteredInputStream input = this.input;
+			if(input == null || input.in != in)
+				this.input = input = new MeteredInputStream(in, metrics);
+			return input;
+		}
+
+		@Override
+		public OutputStream getOutputStream() throws IOException {
+			Socket tunnel = this.tunnel;
+
+			if(tunnel == null)
+				return super.getOutputStream();
+			if(tunnel instanceof ProxySocket)
+				return tunnel.getOutputStream();
+
+			OutputStream out = tunnel.getOutputStream();
+			if(!opened)
+				return out;
+			MeteredOutputStream output = this.output;
+			if(output == null || output.out != out)
+				this.output = output = new MeteredOutputStream(out, metrics);
+			return output;
+		}
+
+		/**
+		 * Counts the bytes read from the channel of the socket, not through its stream.
+		 */
+		public void countReceived(long bytes) {
+			if(tunnel instanceof ProxySocket)
+				((ProxySocket) tunnel).countReceived(bytes);
+			else {
+				metrics.received(bytes);
+				channelBytes += bytes;
+			}
+		}
+
+		/**
+		 * Counts the bytes written to the channel of the socket, not through its stream.
+		 */
+		public void countSent(long bytes) {
+			if(tunnel instanceof ProxySocket)
+				((ProxySocket) tunnel).countSent(bytes);
+			else {
+				metrics.sent(bytes);
+				channelBytes += bytes;
+			}
+		}
+
+		@Override
+		public SocketChannel getChannel() {
+			return tunnel != null ? tunnel.getChannel() : super.getChannel();
+		}
+
+		@Override
+		public InetAddress getInetAddress() {
+			return tunnel != null ? tunnel.getInetAddress() : super.getInetAddress();
+		}
+
+		@Override
+		public InetAddress getLocalAddress() {
+			return tunnel != null ? tunnel.getLocalAddress() : super.getLocalAddress();
+		}
+
+		@Override
+		public int getPort() {
+			return tunnel != null ? tunnel.getPort() : super.getPort();
+		}
+
+		@Override
+		public int getLocalPort() {
+			return tunnel != null ? tunnel.getLocalPort() : super.getLocalPort();
+		}
+
+		@Override
+		public SocketAddress getRemoteSocketAddress() {
+			return tunnel != null ? tunnel.getRemoteSocketAddress() : super.getRemoteSocketAddress();
+		}
+
+		@Override
+		public SocketAddress getLocalSocketAddress() {
+			return tunnel != null ? tunnel.getLocalSocketAddress() : super.getLocalSocketAddress();
+		}
+
+		@Override
+		public boolean isConnected() {
+			return tunnel != null ? tunnel.isConnected() : super.isConnected();
+		}
+
+		@Override
+		public boolean isBound() {
+			if(tunnel != null)
+				return tunnel.isBound();
+			return bindpoint != null || super.isBound();
+		}
+
+		@Override
+		public boolean isInputShutdown() {
+			return tunnel != null ? tunnel.isInputShutdown() : super.isInputShutdown();
+		}
+
+		@Override
+		public boolean isOutputShutdown() {
+			return tunnel != null ? tunnel.isOutputShutdown() : super.isOutputShutdown();
+		}
+
+		@Override
+		public void shutdownInput() throws IOException {
+			if(tunnel != null)
+				tunnel.shutdownInput();
+			else
+				super.shutdownInput();
+		}
+
+		@Override
+		public void shutdownOutput() throws IOException {
+			if(tunnel != null)
+				tunnel.shutdownOutput();
+			else
+				super.shutdownOutput();
+		}
+
+		@Override
+		public void setSoTimeout(int timeout) throws SocketException {
+			if(tunnel != null)
+				tunnel.setSoTimeout(timeout);
+			else if(isTunneled())
+				soTimeout = timeout;
+			else
+				super.setSoTimeout(timeout);
+		}
+
+		@Override
+		public int getSoTimeout() throws SocketException {
+			if(tunnel != null)
+				return tunnel.getSoTimeout();
+			if(isTunneled())
+				return soTimeout < 0 ? 0 : soTimeout;
+			return super.getSoTimeout();
+		}
+
+		@Override
+		public void setReceiveBufferSize(int size) throws SocketException {
+			if(tunnel != null)
+				tunnel.setReceiveBufferSize(size);
+			else if(isTunneled())
+				receiveBufferSize = size;
+			else
+				super.setReceiveBufferSize(size);
+		}
+
+		@Override
+		public int getReceiveBufferSize() throws SocketException {
+			if(tunnel != null)
+				return tunnel.getReceiveBufferSize();
+			if(isTunneled() && receiveBufferSize > 0)
+				return receiveBufferSize;
+			return super.getReceiveBufferSize();
+		}
+
+		@Override
+		public void setSendBufferSize(int size) throws SocketException {
+			if(tunnel != null)
+				tunnel.setSendBufferSize(size);
+			else if(isTunneled())
+				sendBufferSize = size;
+			else
+				super.setSendBufferSize(size);
+		}
+
+		@Override
+		public int getSendBufferSize() throws SocketException {
+			if(tunnel != null)
+				return tunnel.getSendBufferSize();
+			if(isTunneled() && sendBufferSize > 0)
+				return sendBufferSize;
+			return super.getSendBufferSize();
+		}
+
+		@Override
+		public void setTcpNoDelay(boolean on) throws SocketException {
+			if(tunnel != null)
+				tunnel.setTcpNoDelay(on);
+			else if(isTunneled())
+				tcpNoDelay = on;
+			else
+				super.setTcpNoDelay(on);
+		}
+
+		@Override
+		public boolean getTcpNoDelay() throws SocketException {
+			if(tunnel != null)
+				return tunnel.getTcpNoDelay();
+			if(isTunneled() && tcpNoDelay != null)
+				return tcpNoDelay;
+			return super.getTcpNoDelay();
+		}
+
+		@Override
+		public void setKeepAlive(boolean on) throws SocketException {
+			if(tunnel != null)
+				tunnel.setKeepAlive(on);
+			else if(isTunneled())
+				keepAlive = on;
+			else
+				super.setKeepAlive(on);
+		}
+
+		@Override
+		public boolean getKeepAlive() throws SocketException {
+			if(tunnel != null)
+				return tunnel.getKeepAlive();
+			if(isTunneled() && keepAlive != null)
+				return keepAlive;
+			return super.getKeepAlive();
+		}
+
+		@Override
+		public void setSoLinger(boolean on, int linger) throws SocketException {
+			if(tunnel != null)
+				tunnel.setSoLinger(on, linger);
+			else if(isTunneled())
+				soLinger = on ? linger : -1;
+			else
+				super.setSoLinger(on, linger);
+		}
+
+		@Override
+		public int getSoLinger() throws SocketException {
+			if(tunnel != null)
+				return tunnel.getSoLinger();
+			if(isTunneled() && soLinger >= -1)
+				return soLinger;
+			return super.getSoLinger();
 		}
 
 		@Override
 		public synchronized void close() throws IOException {
-			super.close();
+			if(handshaking) {
+				detach();
+				return;
+			}
+			if(opened) {
+				opened = false;
+				metrics.tunnelClosed();
+
+				if(profile.isAutoTune())
+					profile.transferred(transferred(), System.nanoTime() - openedAt);
+			}
+			try {
+				detach();
+			}
+			finally {
+				super.close();
+			}
 		}
 
+		/**
+		 * @return bytes read and written through the tunnel since it was opened
+		 */
+		private long transferred() {
+			long bytes = channelBytes;
+			if(input != null)
+				bytes += input.count;
+			if(output != null)
+				bytes += output.count;
+			return bytes;
+		}
+
+		@Override
+		public String toString() {
+			return tunnel != null ? "ProxySocket[" + tunnel + "]" : super.toString();
+		}
+	}
+
+	/**
+	 * Server socket of a SOCKS BIND request: the proxy listens for one connection.
+	 * {@link #getInetAddress()} and {@link #getLocalPort()} are the address the proxy
+	 * listens on, {@link #accept()} waits for the second reply of the proxy and returns
+	 * the connection to the proxy as a data socket.
+	 */
+	public class ProxyServerSocket extends ServerSocket {
+		/** Connection to the proxy, null after accept. */
+		private Socket tunnel;
+		private final InetSocketAddress bound;
+		private int soTimeout;
+
+		ProxyServerSocket(Socket tunnel, InetSocketAddress bound) throws IOException {
+			super();
+			this.tunnel = tunnel;
+			this.bound = bound;
+		}
+
+		@Override
+		public Socket accept() throws IOException {
+			Socket tunnel;
+
+			synchronized (this) {
+				tunnel = this.tunnel;
+				if(tunnel == null)
+					throw new SocketException(isClosed() ? "Socket is closed" : "connection already accepted");
+			}
+
+			InetSocketAddress remote;
+			try {
+				tunnel.setSoTimeout(soTimeout);
+				remote = ((ProxyBindAuthenticate) authenticate).accept(tunnel);
+			}
+			catch (IOException e) {
+				metrics.failed(e);
+				close();
+				throw e;
+			}
+			log.trace("ProxyServerSocket accepted {}", remote);
+
+			ProxySocket socket = new ProxySocket(dataProfile);
+			synchronized (this) {
+				if(this.tunnel == null) {
+					tunnel.close();
+					throw new SocketException("Socket is closed");
+				}
+				this.tunnel = null;
+			}
+			socket.attach(tunnel);
+			socket.opened(remote);
+			return socket;
+		}
+
+		@Override
+		public synchronized void setSoTimeout(int timeout) throws SocketException {
+			soTimeout = timeout;
+		}
+
+		@Override
+		public synchronized int getSoTimeout() throws IOException {
+			return soTimeout;
+		}
+
+		@Override
+		public InetAddress getInetAddress() {
+			return bound.getAddress();
+		}
+
+		@Override
+		public int getLocalPort() {
+			return bound.getPort();
+		}
+
+		@Override
+		public SocketAddress getLocalSocketAddress() {
+			return bound;
+		}
+
+		@Override
+		public boolean isBound() {
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			Socket tunnel;
+
+			synchronized (this) {
+				tunnel = this.tunnel;
+				this.tunnel = null;
+			}
+			try {
+				if(tunnel != null)
+					tunnel.close();
+			}
+			finally {
+				super.close();
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "ProxyServerSocket[" + bound + "]";
+		}
 	}
 }
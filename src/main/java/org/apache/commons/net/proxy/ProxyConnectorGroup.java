@@ -0,0 +1,419 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.net.proxy;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.net.proxy.ProxyTimeoutException.Phase;
+
+/**
+ * Connector of a proxy list, for example
+ * <code>socks://proxy1.domain.lan/,http://proxy2.domain.lan:3128/</code>.
+ * <p>
+ * A connection is opened through the proxy with the lowest score: the moving average
+ * of the connect and handshake time plus a penalty for the recent failures.
+ * When the proxy fails, the next one is tried in the same connect call.
+ * The statistics of a proxy fade with a half life of {@link #getHalfLife()} milliseconds
+ * after its last use, so a failed or a slow proxy is tried again later.
+ */
+public class ProxyConnectorGroup extends ProxyConnector {
+	/** Weight of a new latency sample. */
+	private static final double LATENCY_ALPHA = 0.2;
+
+	/** Weight of a new failure sample. */
+	private static final double FAILURE_ALPHA = 0.3;
+
+	private final Member[] members;
+
+	private long failurePenalty = 10000;
+	private long halfLife = 60000;
+
+	public ProxyConnectorGroup(String proxyUrls) throws MalformedURLException {
+		List<Member> list = new ArrayList<Member>();
+
+		for(String proxyUrl : proxyUrls.split(",")) {
+			if(!proxyUrl.trim().isEmpty())
+				list.add(new Member(new ProxyConnector(proxyUrl.trim())));
+		}
+		if(list.isEmpty())
+			throw new MalformedURLException("empty proxy list: " + proxyUrls);
+
+		members = list.toArray(new Member[list.size()]);
+		haveProxy = true;
+	}
+
+	@Override
+	public List<ProxyConnector> getProxyConnectors() {
+		List<ProxyConnector> connectors = new ArrayList<ProxyConnector>(members.length);
+		for(Member member : members)
+			connectors.add(member.connector);
+		return connectors;
+	}
+
+	public List<Member> getMembers() {
+		return Collections.unmodifiableList(Arrays.asList(members));
+	}
+
+	public long getFailurePenalty() {
+		return failurePenalty;
+	}
+
+	/**
+	 * Milliseconds added to the score of a proxy with the failure rate 1.
+	 */
+	public void setFailurePenalty(long failurePenalty) {
+		this.failurePenalty = failurePenalty;
+	}
+
+	public long getHalfLife() {
+		return halfLife;
+	}
+
+	public void setHalfLife(long halfLife) {
+		this.halfLife = halfLife;
+	}
+
+	@Override
+	protected boolean isTunneled() {
+		return true;
+	}
+
+	/**
+	 * Connects through the best member, the next one on a failure. The members share
+	 * the budget of the connect: a member gets its part of what is left, a stalled
+	 * proxy leaves time for the next one.
+	 */
+	@Override
+	protected void connectTunnel(ProxySocket socket, InetSocketAddress endpoint, int timeout) throws IOException {
+		Deadline deadline = socket.deadline(timeout);
+		List<Member> members = select();
+		IOException error = null;
+
+		for(int i = 0; i < members.size(); i++) {
+			Member member = members.get(i);
+			int remaining = share(deadline, members.size() - i);
+			Socket tunnel = socket.isData() ? member.connector.createDataSocket() : member.connector.createSocket();
+			long start = System.nanoTime();
+
+			try {
+				socket.prepare(tunnel);
+				tunnel.connect(endpoint, remaining);
+				socket.attach(tunnel);
+				member.success((System.nanoTime() - start) / 1000000L);
+				return;
+			}
+			catch (IOException e) {
+				member.failure();
+				log.debug("Proxy {}:{} failed, try next: {}",
+						new Object[] {member.connector.proxyHost, member.connector.proxyPort, e.getMessage()});
+				tunnel.close();
+				error = e;
+			}
+		}
+		throw error;
+	}
+
+	/**
+	 * Connects through the best member, the next one on a failure, in the budget of the connect.
+	 */
+	@Override
+	public ProxyFuture<Socket> connectAsync(InetSocketAddress endpoint, int timeout, boolean data) {
+		ProxyFuture<Socket> result = new ProxyFuture<Socket>();
+		ProxySocket socket = new ProxySocket(data ? getDataProfile() : getControlProfile());
+
+		connectAsync(select(), 0, socket, endpoint, new Deadline(timeout), result, null);
+		return result;
+	}
+
+	private void connectAsync(final List<Member> members, final int index, final ProxySocket socket,
+			final InetSocketAddress endpoint, final Deadline deadline, final ProxyFuture<Socket> result, Throwable error) {
+		if(result.isDone())
+			return;
+		if(index >= members.size()) {
+			result.failed(error);
+			return;
+		}
+
+		int remaining;
+		try {
+			remaining = share(deadline, members.size() - index);
+		}
+		catch (ProxyTimeoutException e) {
+			result.failed(e);
+			return;
+		}
+
+		final Member member = members.get(index);
+		final long start = System.nanoTime();
+
+		member.connector.connectAsync(endpoint, remaining, socket.isData()).addListener(new ProxyFuture.Listener<Socket>() {
+			@Override
+			public void completed(ProxyFuture<Socket> future) {
+				if(future.isSuccess()) {
+					member.success((System.nanoTime() - start) / 1000000L);
+					opened(socket, future.getNow(), endpoint, result);
+					return;
+				}
+				member.failure();
+				log.debug("Proxy {}:{} failed, try next: {}",
+						new Object[] {member.connector.proxyHost, member.connector.proxyPort, future.getCause()});
+				final Throwable cause = future.getCause();
+				// The next member looks up its proxy name, not on the selector thread.
+				ProxyHandshakeEngine.execute(new Runnable() {
+					@Override
+					public void run() {
+						connectAsync(members, index + 1, socket, endpoint, deadline, result, cause);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * @param members members left to try, this one included
+	 * @return budget of the next member, 0 without a budget
+	 */
+	private static int share(Deadline deadline, int members) throws ProxyTimeoutException {
+		int remaining = deadline.remaining(Phase.CONNECT);
+		return remaining > 0 ? Math.max(1, remaining / members) : 0;
+	}
+
+	@Override
+	public boolean isBindSupported() {
+		for(Member member : members) {
+			if(member.connector.isBindSupported())
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Listens through the best member which can listen, the next one on a failure.
+	 */
+	@Override
+	public ServerSocket createServerSocket(InetSocketAddress endpoint, int timeout) throws IOException {
+		IOException error = null;
+
+		for(Member member : select()) {
+			if(!member.connector.isBindSupported())
+				continue;
+
+			long start = System.nanoTime();
+			try {
+				ServerSocket socket = member.connector.createServerSocket(endpoint, timeout);
+				member.success((System.nanoTime() - start) / 1000000L);
+				return socket;
+			}
+			catch (IOException e) {
+				member.failure();
+				log.debug("Proxy {}:{} cannot listen, try next: {}",
+						new Object[] {member.connector.proxyHost, member.connector.proxyPort, e.getMessage()});
+				error = e;
+			}
+		}
+		throw error != null ? error : new SocketException(this + " cannot listen for a connection");
+	}
+
+	/**
+	 * @return members ordered by the score, the best first
+	 */
+	List<Member> select() {
+		long now = System.currentTimeMillis();
+		final double[] scores = new double[members.length];
+		Integer[] order = new Integer[members.length];
+
+		for(int i = 0; i < members.length; i++) {
+			scores[i] = members[i].score(now);
+			order[i] = i;
+		}
+		// Stable, the proxies without statistics keep the configured order.
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i1, Integer i2) {
+				return Double.compare(scores[i1], scores[i2]);
+			}
+		});
+
+		List<Member> list = new ArrayList<Member>(members.length);
+		for(Integer i : order)
+			list.add(members[i]);
+		return list;
+	}
+
+	@Override
+	public void setPoolSize(int size) {
+		for(Member member : members)
+			member.connector.setPoolSize(size);
+	}
+
+	@Override
+	public void setPoolIdleTimeout(long idleTimeout) {
+		for(Member member : members)
+			member.connector.setPoolIdleTimeout(idleTimeout);
+	}
+
+	@Override
+	public void setPipelining(boolean pipelining) {
+		for(Member member : members)
+			member.connector.setPipelining(pipelining);
+	}
+
+	@Override
+	public void setUseChannels(boolean useChannels) {
+		super.setUseChannels(useChannels);
+		for(Member member : members)
+			member.connector.setUseChannels(useChannels);
+	}
+
+	@Override
+	public void setConnectAttemptDelay(long connectAttemptDelay) {
+		super.setConnectAttemptDelay(connectAttemptDelay);
+		for(Member member : members)
+			member.connector.setConnectAttemptDelay(connectAttemptDelay);
+	}
+
+	@Override
+	public void setHostResolution(HostResolver.Policy policy) {
+		super.setHostResolution(policy);
+		for(Member member : members)
+			member.connector.setHostResolution(policy);
+	}
+
+	@Override
+	public void setDnsCacheTtl(long ttl) {
+		super.setDnsCacheTtl(ttl);
+		for(Member member : members)
+			member.connector.setDnsCacheTtl(ttl);
+	}
+
+	/**
+	 * Every member gets a copy, the members tune their buffers each for its proxy.
+	 */
+	@Override
+	public void setControlProfile(SocketProfile controlProfile) {
+		super.setControlProfile(controlProfile);
+		for(Member member : members)
+			member.connector.setControlProfile(controlProfile.copy());
+	}
+
+	@Override
+	public void setDataProfile(SocketProfile dataProfile) {
+		super.setDataProfile(dataProfile);
+		for(Member member : members)
+			member.connector.setDataProfile(dataProfile.copy());
+	}
+
+	@Override
+	public void close() {
+		for(Member member : members)
+			member.connector.close();
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(members);
+	}
+
+	/**
+	 * Proxy of the group and its statistics.
+	 */
+	public class Member {
+		private final ProxyConnector connector;
+
+		/** Moving average of the connect time in milliseconds, -1 before the first success. */
+		private double latency = -1;
+		private double failureRate;
+		/** Time of the last attempt, the statistics fade from this time. */
+		private long lastAttempt;
+		private long attempts;
+		private long failures;
+
+		Member(ProxyConnector connector) {
+			this.connector = connector;
+		}
+
+		public ProxyConnector getConnector() {
+			return connector;
+		}
+
+		synchronized void success(long millis) {
+			long now = System.currentTimeMillis();
+
+			attempts++;
+			latency = latency < 0 ? millis : latency + LATENCY_ALPHA * (millis - latency);
+			failureRate = currentFailureRate(now) * (1 - FAILURE_ALPHA);
+			lastAttempt = now;
+		}
+
+		synchronized void failure() {
+			long now = System.currentTimeMillis();
+
+			attempts++;
+			failures++;
+			failureRate = currentFailureRate(now) * (1 - FAILURE_ALPHA) + FAILURE_ALPHA;
+			lastAttempt = now;
+		}
+
+		private double currentFailureRate(long now) {
+			if(failureRate == 0)
+				return 0;
+			return failureRate * fade(now);
+		}
+
+		private double fade(long now) {
+			return halfLife > 0 ? Math.pow(0.5, (double) (now - lastAttempt) / halfLife) : 1;
+		}
+
+		synchronized double score(long now) {
+			return Math.max(latency, 0) * fade(now) + currentFailureRate(now) * failurePenalty;
+		}
+
+		/**
+		 * @return moving average of the connect and handshake time, -1 when unknown
+		 */
+		public synchronized double getLatency() {
+			return latency;
+		}
+
+		public synchronized double getFailureRate() {
+			return currentFailureRate(System.currentTimeMillis());
+		}
+
+		public synchronized long getAttempts() {
+			return attempts;
+		}
+
+		public synchronized long getFailures() {
+			return failures;
+		}
+
+		@Override
+		public String toString() {
+			return connector.toString();
+		}
+	}
+}
@@ -0,0 +1,519 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.net.proxy;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.commons.net.proxy.ProxyTimeoutException.Phase;
+
+/**
+ * Connector choosing the proxy by the target host, for example
+ * <code>*.partner.com=socks://proxy2.domain.lan/;*=SYSTEM</code> with the no-proxy list
+ * <code>localhost,.domain.lan,10.0.0.0/8</code>.
+ * <p>
+ * A rule is <code>pattern=target</code>, the rules are separated by <code>;</code> and
+ * the first matching one wins. The pattern is a host glob (<code>*</code> and <code>?</code>),
+ * <code>.domain</code> for the domain and its subdomains, or an address range
+ * (<code>10.0.0.0/8</code>, <code>fd00::/8</code>). The names are not resolved for the routing:
+ * a range matches an address target, as the passive data address of a server.
+ * The target is <code>DIRECT</code>, <code>SYSTEM</code> ({@link ProxySelector#getDefault()})
+ * or a proxy url or a comma separated list of proxy urls. The hosts of the no-proxy list
+ * are connected directly before the rules, a host without a rule goes through the default connector.
+ * <p>
+ * The decision of a host is cached for {@link #getCacheTimeout()} milliseconds.
+ */
+public class ProxyConnectorRouter extends ProxyConnector {
+	static final String DIRECT = "DIRECT";
+	static final String SYSTEM = "SYSTEM";
+
+	private static final int CACHE_SIZE = 1000;
+
+	private final ProxyConnector defaultConnector;
+	private final ProxyConnector direct = new ProxyConnector();
+	private final List<Rule> rules = new ArrayList<Rule>();
+
+	/** Connectors of the rule targets and of the system proxies by the normalized url. */
+	private final Map<String, ProxyConnector> connectors = new HashMap<String, ProxyConnector>();
+
+	private final Map<String, Decision> decisions = new LinkedHashMap<String, Decision>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Decision> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	private long cacheTimeout = 300000;
+	private ProxySelector proxySelector;
+
+	/** Options of the new connectors of the system proxies. */
+	private int poolSize;
+	private long poolIdleTimeout = 30000;
+	private boolean pipelining;
+
+	/**
+	 * @param defaultConnector connector of the hosts without a rule
+	 * @param noProxy comma separated patterns of the hosts connected directly, can be null
+	 * @param routes rules separated by <code>;</code>, can be null
+	 */
+	public ProxyConnectorRouter(ProxyConnector defaultConnector, String noProxy, String routes) throws MalformedURLException {
+		this.defaultConnector = defaultConnector;
+		haveProxy = true;
+
+		if(noProxy != null) {
+			for(String pattern : noProxy.split(",")) {
+				if(!pattern.trim().isEmpty())
+					rules.add(new Rule(pattern.trim(), DIRECT, direct));
+			}
+		}
+		if(routes != null) {
+			for(String route : routes.split(";")) {
+				if(route.trim().isEmpty())
+					continue;
+
+				int i = route.indexOf('=');
+				if(i <= 0 || i == route.length() - 1)
+					throw new MalformedURLException("invalid proxy route, pattern=target expected: " + route.trim());
+
+				String target = route.substring(i + 1).trim();
+				rules.add(new Rule(route.substring(0, i).trim(), target, target(target)));
+			}
+		}
+	}
+
+	/**
+	 * @return connector of the rule target, null for {@link #SYSTEM}
+	 */
+	private ProxyConnector target(String target) throws MalformedURLException {
+		if(target.equalsIgnoreCase(DIRECT))
+			return direct;
+		if(target.equalsIgnoreCase(SYSTEM))
+			return null;
+		return connector(ProxyUrl.normalize(target));
+	}
+
+	private synchronized ProxyConnector connector(String proxyUrl) throws MalformedURLException {
+		ProxyConnector connector = connectors.get(proxyUrl);
+
+		if(connector == null) {
+			connector = ProxyConnector.create(proxyUrl);
+			configure(connector);
+			connectors.put(proxyUrl, connector);
+		}
+		return connector;
+	}
+
+	/**
+	 * Options of the router to a new connector, the profiles are copies as in a group.
+	 */
+	private void configure(ProxyConnector connector) {
+		connector.setControlProfile(getControlProfile().copy());
+		connector.setDataProfile(getDataProfile().copy());
+		connector.setPipelining(pipelining);
+		connector.setUseChannels(isUseChannels());
+		connector.setConnectAttemptDelay(getConnectAttemptDelay());
+		connector.setHostResolution(getHostResolver().getPolicy());
+		connector.setDnsCacheTtl(getHostResolver().getTtl());
+		if(poolSize > 0) {
+			connector.setPoolIdleTimeout(poolIdleTimeout);
+			connector.setPoolSize(poolSize);
+		}
+	}
+
+	public ProxyConnector getDefaultConnector() {
+		return defaultConnector;
+	}
+
+	public long getCacheTimeout() {
+		return cacheTimeout;
+	}
+
+	/**
+	 * Milliseconds a decision is cached, 0 asks the rules every time.
+	 */
+	public void setCacheTimeout(long cacheTimeout) {
+		this.cacheTimeout = cacheTimeout;
+		clearCache();
+	}
+
+	/**
+	 * Selector of the <code>SYSTEM</code> target, {@link ProxySelector#getDefault()} when null.
+	 */
+	public void setProxySelector(ProxySelector proxySelector) {
+		this.proxySelector = proxySelector;
+		clearCache();
+	}
+
+	public void clearCache() {
+		synchronized (decisions) {
+			decisions.clear();
+		}
+	}
+
+	/**
+	 * @return connector of the endpoint: direct, a proxy, a proxy group or the default connector
+	 */
+	@Override
+	public ProxyConnector route(InetSocketAddress endpoint) throws IOException {
+		InetAddress address = endpoint.getAddress();
+		String name = HostResolver.hostName(endpoint);
+		String key = name != null ? name : address.getHostAddress();
+		long now = System.currentTimeMillis();
+
+		synchronized (decisions) {
+			Decision decision = decisions.get(key);
+			if(decision != null && now - decision.time < cacheTimeout)
+				return decision.connector;
+		}
+
+		ProxyConnector connector = decide(name, address, endpoint.getPort());
+		if(cacheTimeout > 0) {
+			synchronized (decisions) {
+				decisions.put(key, new Decision(connector, now));
+			}
+		}
+		return connector;
+	}
+
+	private ProxyConnector decide(String name, InetAddress address, int port) throws IOException {
+		for(Rule rule : rules) {
+			if(rule.matches(name, address)) {
+				ProxyConnector connector = rule.connector != null ? rule.connector : select(name, address, port);
+				log.debug("Route to {} {} by {}", new Object[] {name != null ? name : address.getHostAddress(), connector, rule});
+				return connector;
+			}
+		}
+		log.debug("Route to {} {}", name != null ? name : address.getHostAddress(), defaultConnector);
+		return defaultConnector;
+	}
+
+	/**
+	 * Asks the proxy selector, a SOCKS or an HTTP proxy connects the tunnel, several
+	 * proxies are a group.
+	 */
+	private ProxyConnector select(String name, InetAddress address, int port) throws IOException {
+		ProxySelector selector = proxySelector != null ? proxySelector : ProxySelector.getDefault();
+		if(selector == null)
+			return direct;
+
+		List<Proxy> proxies;
+		try {
+			proxies = selector.select(new URI("socket", null, name != null ? name : address.getHostAddress(), port, null, null, null));
+		}
+		catch (URISyntaxException e) {
+			throw new UnknownHostException(e.getMessage());
+		}
+
+		StringBuilder sb = new StringBuilder();
+		for(Proxy proxy : proxies) {
+			SocketAddress proxyAddress = proxy.address();
+			if(proxy.type() == Proxy.Type.DIRECT || !(proxyAddress instanceof InetSocketAddress))
+				break;
+
+			InetSocketAddress server = (InetSocketAddress) proxyAddress;
+			String host = HostResolver.hostName(server);
+			if(host == null)
+				host = server.getAddress().getHostAddress();
+			if(host.indexOf(':') >= 0)
+				host = "[" + host + "]";
+
+			if(sb.length() > 0)
+				sb.append(',');
+			sb.append(proxy.type() == Proxy.Type.SOCKS ? "socks" : "http").append("://")
+					.append(host).append(':').append(server.getPort()).append('/');
+		}
+		return sb.length() == 0 ? direct : connector(ProxyUrl.normalize(sb.toString()));
+	}
+
+	@Override
+	protected boolean isTunneled() {
+		return true;
+	}
+
+	/**
+	 * Connects through the connector of the endpoint.
+	 */
+	@Override
+	protected void connectTunnel(ProxySocket socket, InetSocketAddress endpoint, int timeout) throws IOException {
+		Deadline deadline = socket.deadline(timeout);
+		ProxyConnector connector = route(endpoint);
+		Socket tunnel = socket.isData() ? connector.createDataSocket() : connector.createSocket();
+
+		try {
+			socket.prepare(tunnel);
+			tunnel.connect(endpoint, deadline.remaining(Phase.CONNECT));
+			socket.attach(tunnel);
+		}
+		catch (IOException e) {
+			tunnel.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public ProxyFuture<Socket> connectAsync(InetSocketAddress endpoint, int timeout, boolean data) {
+		try {
+			return route(endpoint).connectAsync(endpoint, timeout, data);
+		}
+		catch (IOException e) {
+			ProxyFuture<Socket> result = new ProxyFuture<Socket>();
+			result.failed(e);
+			return result;
+		}
+	}
+
+	/**
+	 * The router listens by the route of the server, {@link #route(InetSocketAddress)}
+	 * and then {@link #isBindSupported()} of the route. Without the server a local socket listens.
+	 */
+	@Override
+	public boolean isBindSupported() {
+		return false;
+	}
+
+	@Override
+	public ServerSocket createServerSocket(InetSocketAddress endpoint, int timeout) throws IOException {
+		if(endpoint == null)
+			return defaultConnector.createServerSocket(endpoint, timeout);
+		return route(endpoint).createServerSocket(endpoint, timeout);
+	}
+
+	/**
+	 * @return connectors of the proxy servers of the default connector and of the rules
+	 */
+	@Override
+	public List<ProxyConnector> getProxyConnectors() {
+		List<ProxyConnector> list = new ArrayList<ProxyConnector>();
+
+		for(ProxyConnector connector : targets()) {
+			for(ProxyConnector server : connector.getProxyConnectors()) {
+				if(server.getProxySchema() != null && !list.contains(server))
+					list.add(server);
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * @return default connector and the connectors of the targets, direct one included
+	 */
+	private synchronized List<ProxyConnector> targets() {
+		List<ProxyConnector> list = new ArrayList<ProxyConnector>(connectors.values());
+		list.add(0, defaultConnector);
+		list.add(direct);
+		return list;
+	}
+
+	@Override
+	public synchronized void setPoolSize(int size) {
+		poolSize = size;
+		for(ProxyConnector connector : targets()) {
+			// A direct connector has no proxy to keep connections to.
+			if(connector.isHaveProxy())
+				connector.setPoolSize(size);
+		}
+	}
+
+	@Override
+	public synchronized void setPoolIdleTimeout(long idleTimeout) {
+		poolIdleTimeout = idleTimeout;
+		for(ProxyConnector connector : targets())
+			connector.setPoolIdleTimeout(idleTimeout);
+	}
+
+	@Override
+	public void setPipelining(boolean pipelining) {
+		this.pipelining = pipelining;
+		for(ProxyConnector connector : targets())
+			connector.setPipelining(pipelining);
+	}
+
+	@Override
+	public void setUseChannels(boolean useChannels) {
+		super.setUseChannels(useChannels);
+		for(ProxyConnector connector : targets())
+			connector.setUseChannels(useChannels);
+	}
+
+	@Override
+	public void setConnectAttemptDelay(long connectAttemptDelay) {
+		super.setConnectAttemptDelay(connectAttemptDelay);
+		for(ProxyConnector connector : targets())
+			connector.setConnectAttemptDelay(connectAttemptDelay);
+	}
+
+	@Override
+	public void setHostResolution(HostResolver.Policy policy) {
+		super.setHostResolution(policy);
+		for(ProxyConnector connector : targets())
+			connector.setHostResolution(policy);
+	}
+
+	@Override
+	public void setDnsCacheTtl(long ttl) {
+		super.setDnsCacheTtl(ttl);
+		for(ProxyConnector connector : targets())
+			connector.setDnsCacheTtl(ttl);
+	}
+
+	@Override
+	public void setControlProfile(SocketProfile controlProfile) {
+		super.setControlProfile(controlProfile);
+		for(ProxyConnector connector : targets())
+			connector.setControlProfile(controlProfile.copy());
+	}
+
+	@Override
+	public void setDataProfile(SocketProfile dataProfile) {
+		super.setDataProfile(dataProfile);
+		for(ProxyConnector connector : targets())
+			connector.setDataProfile(dataProfile.copy());
+	}
+
+	@Override
+	public void close() {
+		for(ProxyConnector connector : targets())
+			connector.close();
+		clearCache();
+	}
+
+	@Override
+	public String toString() {
+		return "routes" + rules + " default " + defaultConnector;
+	}
+
+	/**
+	 * Pattern of the hosts and the connector of the target, null for {@link ProxyConnectorRouter#SYSTEM}.
+	 */
+	static class Rule {
+		private final String pattern;
+		private final String target;
+		private final ProxyConnector connector;
+
+		/** Address range, null for a host pattern. */
+		private byte[] network;
+		private int prefix;
+		private Pattern glob;
+		/** Pattern <code>.domain</code>, null for the other patterns. */
+		private String domain;
+
+		Rule(String pattern, String target, ProxyConnector connector) throws MalformedURLException {
+			this.pattern = pattern;
+			this.target = target;
+			this.connector = connector;
+
+			int slash = pattern.indexOf('/');
+			if(slash > 0) {
+				String address = pattern.substring(0, slash);
+				// A literal address only, no name lookup.
+				if(!HostResolver.isLiteral(address))
+					throw new MalformedURLException("invalid address range: " + pattern);
+				try {
+					network = InetAddress.getByName(address).getAddress();
+					prefix = Integer.parseInt(pattern.substring(slash + 1));
+				}
+				catch (UnknownHostException e) {
+					throw new MalformedURLException("invalid address range: " + pattern);
+				}
+				catch (NumberFormatException e) {
+					throw new MalformedURLException("invalid address range: " + pattern);
+				}
+				if(prefix < 0 || prefix > network.length * 8)
+					throw new MalformedURLException("invalid address range: " + pattern);
+			}
+			else if(pattern.startsWith("."))
+				domain = pattern.substring(1).toLowerCase(Locale.ENGLISH);
+			else {
+				StringBuilder regex = new StringBuilder();
+				for(char c : pattern.toLowerCase(Locale.ENGLISH).toCharArray()) {
+					if(c == '*')
+						regex.append(".*");
+					else if(c == '?')
+						regex.append('.');
+					else
+						regex.append(Pattern.quote(String.valueOf(c)));
+				}
+				glob = Pattern.compile(regex.toString());
+			}
+		}
+
+		/**
+		 * @param name lower case host name, null for an address without a name
+		 * @param address resolved address, null for an unresolved name
+		 */
+		boolean matches(String name, InetAddress address) {
+			if(network != null)
+				return address != null && inRange(address.getAddress());
+
+			String ip = address != null ? address.getHostAddress() : null;
+			if(domain != null)
+				return inDomain(name) || inDomain(ip);
+			return (name != null && glob.matcher(name).matches()) || (ip != null && glob.matcher(ip).matches());
+		}
+
+		private boolean inDomain(String host) {
+			return host != null && (host.equals(domain) || host.endsWith("." + domain));
+		}
+
+		private boolean inRange(byte[] bytes) {
+			if(bytes.length != network.length)
+				return false;
+
+			int bits = prefix;
+			for(int i = 0; bits > 0; i++, bits -= 8) {
+				int mask = bits >= 8 ? 0xff : (0xff << (8 - bits)) & 0xff;
+				if((bytes[i] & mask) != (network[i] & mask))
+					return false;
+			}
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			return pattern + "=" + (connector != null ? connector.toString() : target);
+		}
+	}
+
+	private static class Decision {
+		final ProxyConnector connector;
+		final long time;
+
+		Decision(ProxyConnector connector, long time) {
+			this.connector = connector;
+			this.time = time;
+		}
+	}
+}
@@ -0,0 +1,157 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.net.proxy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Result of an asynchronous connect. The listeners are called once, by the thread which
+ * completes the future (the handshake engine thread) or at once by {@link #addListener}
+ * when the future is done already. A listener must not block.
+ */
+public class ProxyFuture<V> implements Future<V> {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ProxyFuture.class);
+
+	public interface Listener<V> {
+		void completed(ProxyFuture<V> future);
+	}
+
+	private final CountDownLatch latch = new CountDownLatch(1);
+	private List<Listener<V>> listeners = new ArrayList<Listener<V>>(2);
+
+	private boolean done;
+	private boolean cancelled;
+	private V value;
+	private Throwable cause;
+
+	public void addListener(Listener<V> listener) {
+		synchronized (this) {
+			if(!done) {
+				listeners.add(listener);
+				return;
+			}
+		}
+		notify(listener);
+	}
+
+	/**
+	 * @return false when the future is done already
+	 */
+	boolean succeeded(V value) {
+		return complete(value, null, false);
+	}
+
+	boolean failed(Throwable cause) {
+		return complete(null, cause, false);
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return complete(null, null, true);
+	}
+
+	private boolean complete(V value, Throwable cause, boolean cancelled) {
+		List<Listener<V>> listeners;
+
+		synchronized (this) {
+			if(done)
+				return false;
+			done = true;
+			this.value = value;
+			this.cause = cause;
+			this.cancelled = cancelled;
+			listeners = this.listeners;
+			this.listeners = null;
+		}
+		latch.countDown();
+
+		for(Listener<V> listener : listeners)
+			notify(listener);
+		return true;
+	}
+
+	private void notify(Listener<V> listener) {
+		try {
+			listener.completed(this);
+		}
+		catch (RuntimeException e) {
+			LOGGER.warn("Listener " + listener + " failed", e);
+		}
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	@Override
+	public synchronized boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * @return true when the future is done with a value
+	 */
+	public synchronized boolean isSuccess() {
+		return done && !cancelled && cause == null;
+	}
+
+	/**
+	 * @return failure of the connect, null before it or when the future has a value
+	 */
+	public synchronized Throwable getCause() {
+		return cause;
+	}
+
+	/**
+	 * @return the value without a wait, null when the future is not done with a value
+	 */
+	public synchronized V getNow() {
+		return value;
+	}
+
+	@Override
+	public V get() throws InterruptedException, ExecutionException {
+		latch.await();
+		return result();
+	}
+
+	@Override
+	public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if(!latch.await(timeout, unit))
+			throw new TimeoutException();
+		return result();
+	}
+
+	private synchronized V result() throws ExecutionException {
+		if(cancelled)
+			throw new CancellationException();
+		if(cause != null)
+			throw new ExecutionException(cause);
+		return value;
+	}
+}
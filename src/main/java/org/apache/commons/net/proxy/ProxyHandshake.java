@@ -0,0 +1,220 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.net.proxy;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Proxy handshake as a state machine, driven by {@link ProxyHandshakeEngine} without
+ * a thread of its own.
+ * <p>
+ * {@link #start()} sends the first request and tells what the reply looks like:
+ * a number of bytes, a HTTP header, a line or a FTP reply. {@link #received(byte[], int)} gets the
+ * complete reply and sends the next request, or ends the handshake with {@link #complete}.
+ * The engine never reads past the expected reply, the bytes after it belong to the tunnel.
+ */
+public abstract class ProxyHandshake {
+	private static final int NONE = 0;
+	private static final int BYTES = 1;
+	private static final int HEADER = 2;
+	private static final int REPLY = 3;
+	private static final int LINE = 4;
+
+	private ByteBuffer output;
+
+	private int mode = NONE;
+	private byte[] data = new byte[64];
+	private int count;
+	private int expected;
+	private int maxSize;
+	/** Start of the current line of a FTP reply. */
+	private int line;
+
+	private boolean complete;
+	private InetSocketAddress address;
+
+	/**
+	 * Sends the first request.
+	 */
+	protected abstract void start() throws IOException;
+
+	/**
+	 * Processes the expected reply.
+	 *
+	 * @param data the reply, valid until the method returns
+	 */
+	protected abstract void received(byte[] data, int length) throws IOException;
+
+	/**
+	 * The proxy closed the connection before the expected reply.
+	 */
+	protected void closed() throws IOException {
+		throw new EOFException("connection closed by the proxy");
+	}
+
+	protected final void send(byte[] bytes) {
+		if(output == null || !output.hasRemaining()) {
+			output = ByteBuffer.wrap(bytes);
+			return;
+		}
+		ByteBuffer joined = ByteBuffer.allocate(output.remaining() + bytes.length);
+		joined.put(output).put(bytes).flip();
+		output = joined;
+	}
+
+	protected final void send(HandshakeBuffer buffer) {
+		send(buffer.toByteArray());
+	}
+
+	/**
+	 * Waits for a reply of the given size.
+	 */
+	protected final void expect(int count) {
+		expect(BYTES, count, count);
+	}
+
+	/**
+	 * Waits for a HTTP response header up to and including the empty line.
+	 */
+	protected final void expectHeader(int maxSize) {
+		expect(HEADER, 0, maxSize);
+	}
+
+	/**
+	 * Waits for a line up to and including the LF.
+	 */
+	protected final void expectLine(int maxSize) {
+		expect(LINE, 0, maxSize);
+	}
+
+	/**
+	 * Waits for a FTP reply, all the lines of a multi line reply.
+	 */
+	protected final void expectReply(int maxSize) {
+		expect(REPLY, 0, maxSize);
+	}
+
+	private void expect(int mode, int expected, int maxSize) {
+		this.mode = mode;
+		this.expected = expected;
+		this.maxSize = maxSize;
+		count = 0;
+		line = 0;
+		if(data.length < expected)
+			data = new byte[expected];
+	}
+
+	/**
+	 * Ends the handshake, the connection is the tunnel now.
+	 *
+	 * @param address address of the last reply, can be null
+	 */
+	protected final void complete(InetSocketAddress address) {
+		this.address = address;
+		complete = true;
+		mode = NONE;
+	}
+
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * @return address of the last reply, the bound address of a SOCKS reply
+	 */
+	public InetSocketAddress getAddress() {
+		return address;
+	}
+
+	/**
+	 * @return bytes to send, null when nothing is left
+	 */
+	ByteBuffer output() {
+		return output != null && output.hasRemaining() ? output : null;
+	}
+
+	/**
+	 * @return bytes which can be read without reading past the expected reply, 0 when no reply is expected
+	 */
+	int readLimit() {
+		switch(mode) {
+		case BYTES:
+			return expected - count;
+		case HEADER:
+			// A CRLFCRLF or LFLF ends the header: after a CR or LF it can be the next byte,
+			// after any other byte the second one.
+			if(count == 0)
+				return 2;
+			int last = data[count - 1];
+			return last == '\r' || last == '\n' ? 1 : 2;
+		case REPLY:
+		case LINE:
+			return 1;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * Takes the read bytes, at most {@link #readLimit()} of them.
+	 */
+	void input(ByteBuffer in) throws IOException {
+		int length = in.remaining();
+
+		if(count + length > maxSize)
+			throw new ProxyHandshakeException("handshake.reply-too-long", "proxy reply exceeds " + maxSize + " bytes");
+		if(count + length > data.length) {
+			byte[] b = new byte[Math.min(Math.max(data.length << 1, count + length), maxSize)];
+			System.arraycopy(data, 0, b, 0, count);
+			data = b;
+		}
+		in.get(data, count, length);
+		count += length;
+
+		if(isReceived()) {
+			mode = NONE;
+			received(data, count);
+		}
+	}
+
+	private boolean isReceived() {
+		switch(mode) {
+		case BYTES:
+			return count >= expected;
+		case HEADER:
+			return (count >= 4 && data[count - 4] == '\r' && data[count - 3] == '\n'
+					&& data[count - 2] == '\r' && data[count - 1] == '\n')
+					|| (count >= 2 && data[count - 2] == '\n' && data[count - 1] == '\n');
+		case LINE:
+			return data[count - 1] == '\n';
+		case REPLY:
+			if(data[count - 1] != '\n')
+				return false;
+			// The first line "123-" starts a multi line reply, the line "123 " ends it.
+			boolean end = count < 4 || data[3] != '-'
+					|| (count - line >= 4 && data[line] == data[0] && data[line + 1] == data[1]
+							&& data[line + 2] == data[2] && data[line + 3] == ' ');
+			line = count;
+			return end;
+		default:
+			return false;
+		}
+	}
+}
@@ -0,0 +1,330 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.net.proxy;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.net.proxy.ProxyTimeoutException.Phase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One selector thread connecting to the proxies and driving the {@link ProxyHandshake}
+ * state machines, any number of handshakes at once. A continuation which can block
+ * (the name lookup of a retry or of the next proxy) runs by {@link #execute(Runnable)}.
+ */
+final class ProxyHandshakeEngine implements Runnable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ProxyHandshakeEngine.class);
+
+	private static ProxyHandshakeEngine instance;
+
+	/** Threads of the continuations, not the selector thread. */
+	private static final Executor CONTINUATIONS = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable task) {
+			Thread thread = new Thread(task, "ProxyHandshakeEngine-continuation");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final Selector selector;
+	private final Queue<Attempt> registrations = new ConcurrentLinkedQueue<Attempt>();
+	private final Queue<Attempt> cancellations = new ConcurrentLinkedQueue<Attempt>();
+
+	/** Attempts of the selector thread, the finished ones wait for the deregistration. */
+	private final List<Attempt> attempts = new ArrayList<Attempt>();
+	private final List<Attempt> finished = new ArrayList<Attempt>();
+	private final ByteBuffer buffer = ByteBuffer.allocate(1024);
+
+	private ProxyHandshakeEngine() throws IOException {
+		selector = Selector.open();
+
+		Thread thread = new Thread(this, "ProxyHandshakeEngine");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	static synchronized ProxyHandshakeEngine getDefault() throws IOException {
+		if(instance == null)
+			instance = new ProxyHandshakeEngine();
+		return instance;
+	}
+
+	/**
+	 * Runs a continuation of a listener off the selector thread, it can look up a name or connect.
+	 */
+	static void execute(Runnable task) {
+		CONTINUATIONS.execute(task);
+	}
+
+	/**
+	 * Connects and runs the handshake on the connection.
+	 *
+	 * @param handshake handshake, null for a plain connection
+	 * @param deadline budget of the connect and the handshake
+	 * @param options socket whose options and local address are used
+	 * @return future of the connected channel socket in blocking mode
+	 */
+	ProxyFuture<Socket> connect(SocketAddress address, ProxyHandshake handshake, Deadline deadline,
+			ProxyConnector.ProxySocket options, ProxyMetrics metrics) {
+		ProxyFuture<Socket> future = new ProxyFuture<Socket>();
+		SocketChannel channel = null;
+
+		try {
+			channel = SocketChannel.open();
+			options.prepare(channel.socket());
+			channel.configureBlocking(false);
+
+			final Attempt attempt = new Attempt(channel, handshake, future, deadline, options.getProfile(), metrics);
+			channel.connect(address);
+			registrations.add(attempt);
+			selector.wakeup();
+
+			future.addListener(new ProxyFuture.Listener<Socket>() {
+				@Override
+				public void completed(ProxyFuture<Socket> future) {
+					// The selector closes the channel of a cancelled attempt at once, not at the deadline.
+					if(future.isCancelled()) {
+						cancellations.add(attempt);
+						selector.wakeup();
+					}
+				}
+			});
+		}
+		catch (IOException e) {
+			metrics.failed("connect");
+			close(channel);
+			future.failed(e);
+		}
+		return future;
+	}
+
+	@Override
+	public void run() {
+		while(true) {
+			try {
+				select();
+			}
+			catch (Throwable t) {
+				LOGGER.warn("Proxy handshake engine failed", t);
+			}
+		}
+	}
+
+	private void select() throws IOException {
+		long now = System.currentTimeMillis();
+		long deadline = Long.MAX_VALUE;
+
+		for(Attempt attempt : attempts)
+			deadline = Math.min(deadline, attempt.deadline.getEnd());
+
+		if(deadline == Long.MAX_VALUE)
+			selector.select();
+		else if(deadline > now)
+			selector.select(deadline - now);
+		else
+			selector.selectNow();
+
+		for(Attempt attempt; (attempt = registrations.poll()) != null; ) {
+			try {
+				attempt.key = attempt.channel.register(selector, SelectionKey.OP_CONNECT, attempt);
+				attempts.add(attempt);
+			}
+			catch (IOException e) {
+				attempt.fail(e);
+			}
+		}
+
+		for(Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext(); ) {
+			SelectionKey key = it.next();
+			Attempt attempt = (Attempt) key.attachment();
+			it.remove();
+
+			try {
+				if(key.isValid())
+					attempt.ready(key);
+			}
+			catch (IOException e) {
+				attempt.fail(e);
+			}
+		}
+
+		for(Attempt attempt; (attempt = cancellations.poll()) != null; ) {
+			if(attempts.contains(attempt))
+				attempt.fail(null);
+		}
+
+		now = System.currentTimeMillis();
+		for(Attempt attempt : new ArrayList<Attempt>(attempts)) {
+			if(attempt.deadline.getEnd() <= now)
+				attempt.fail(attempt.deadline.expired(attempt.connected == 0 ? Phase.CONNECT : Phase.HANDSHAKE));
+		}
+
+		if(!finished.isEmpty()) {
+			// A channel in blocking mode must not be registered, the cancelled keys go away here.
+			selector.selectNow();
+			for(Attempt attempt : finished)
+				attempt.finish();
+			finished.clear();
+		}
+	}
+
+	private static void close(SocketChannel channel) {
+		if(channel == null)
+			return;
+		try {
+			channel.close();
+		}
+		catch (IOException e) {
+		}
+	}
+
+	private final class Attempt {
+		final SocketChannel channel;
+		final ProxyHandshake handshake;
+		final ProxyFuture<Socket> future;
+		final Deadline deadline;
+		final SocketProfile profile;
+		final ProxyMetrics metrics;
+		final long start = System.nanoTime();
+		long connected;
+		SelectionKey key;
+
+		Attempt(SocketChannel channel, ProxyHandshake handshake, ProxyFuture<Socket> future, Deadline deadline,
+				SocketProfile profile, ProxyMetrics metrics) {
+			this.channel = channel;
+			this.handshake = handshake;
+			this.future = future;
+			this.deadline = deadline;
+			this.profile = profile;
+			this.metrics = metrics;
+		}
+
+		void ready(SelectionKey key) throws IOException {
+			if(key.isConnectable()) {
+				if(!channel.finishConnect())
+					return;
+				connected = System.nanoTime();
+				metrics.connected(connected - start);
+				profile.roundTrip(connected - start);
+
+				if(handshake != null)
+					handshake.start();
+			}
+			else if(key.isReadable()) {
+				read();
+			}
+
+			if(handshake == null || (handshake.isComplete() && write())) {
+				succeed();
+				return;
+			}
+			key.interestOps(write() ? SelectionKey.OP_READ : SelectionKey.OP_WRITE);
+		}
+
+		/**
+		 * Reads as much as the handshake expects, the replies are processed at once.
+		 */
+		private void read() throws IOException {
+			while(!handshake.isComplete() && write()) {
+				int limit = handshake.readLimit();
+				if(limit == 0)
+					return;
+
+				buffer.clear();
+				buffer.limit(Math.min(limit, buffer.capacity()));
+				int n = channel.read(buffer);
+				if(n < 0) {
+					handshake.closed();
+					throw new EOFException("connection closed by the proxy");
+				}
+				if(n == 0)
+					return;
+				buffer.flip();
+				handshake.input(buffer);
+			}
+		}
+
+		/**
+		 * @return true when the requests are sent
+		 */
+		private boolean write() throws IOException {
+			for(ByteBuffer out; (out = handshake.output()) != null; ) {
+				channel.write(out);
+				if(out.hasRemaining())
+					return false;
+			}
+			return true;
+		}
+
+		private void succeed() {
+			attempts.remove(this);
+			key.cancel();
+			finished.add(this);
+		}
+
+		void finish() {
+			try {
+				channel.configureBlocking(true);
+			}
+			catch (IOException e) {
+				close(channel);
+				metrics.failed(e);
+				future.failed(e);
+				return;
+			}
+			if(handshake != null)
+				metrics.handshaked(System.nanoTime() - connected);
+			if(!future.succeeded(channel.socket()))
+				close(channel);
+		}
+
+		/**
+		 * @param e failure, null for a cancelled attempt
+		 */
+		void fail(IOException e) {
+			attempts.remove(this);
+			if(key != null)
+				key.cancel();
+			close(channel);
+
+			if(e == null)
+				return;
+			if(connected == 0)
+				metrics.failed("connect");
+			else
+				metrics.failed(e);
+			future.failed(e);
+		}
+	}
+}
@@ -0,0 +1,38 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.net.proxy;
+
+import java.io.IOException;
+
+/**
+ * The proxy refused the handshake. The reason is a short key for the statistics,
+ * for example <code>socks5.status.5</code> or <code>http.status.407</code>.
+ */
+public class ProxyHandshakeException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	private final String reason;
+
+	public ProxyHandshakeException(String reason, String message) {
+		super(message);
+		this.reason = reason;
+	}
+
+	public String getReason() {
+		return reason;
+	}
+}
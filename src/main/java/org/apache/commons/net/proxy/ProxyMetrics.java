@@ -0,0 +1,148 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.net.proxy;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Statistics of a proxy connector: connect and handshake time, handshake failures
+ * by reason, tunnels and bytes. The counters are striped, recording does not allocate
+ * (a failure reason seen for the first time adds its counter).
+ */
+public class ProxyMetrics {
+	private final LatencyHistogram connectLatency = new LatencyHistogram();
+	private final LatencyHistogram handshakeLatency = new LatencyHistogram();
+	private final ConcurrentMap<String, StripedCounter> failures = new ConcurrentHashMap<String, StripedCounter>();
+	private final StripedCounter tunnels = new StripedCounter();
+	private final StripedCounter activeTunnels = new StripedCounter();
+	private final StripedCounter bytesReceived = new StripedCounter();
+	private final StripedCounter bytesSent = new StripedCounter();
+
+	/**
+	 * @param nanos TCP connect time to the proxy
+	 */
+	public void connected(long nanos) {
+		connectLatency.record(nanos / 1000000L);
+	}
+
+	/**
+	 * @param nanos handshake time, the tunnel is open
+	 */
+	public void handshaked(long nanos) {
+		handshakeLatency.record(nanos / 1000000L);
+	}
+
+	public void failed(IOException e) {
+		failed(reason(e));
+	}
+
+	public void failed(String reason) {
+		StripedCounter counter = failures.get(reason);
+
+		if(counter == null) {
+			StripedCounter created = new StripedCounter();
+			counter = failures.putIfAbsent(reason, created);
+			if(counter == null)
+				counter = created;
+		}
+		counter.increment();
+	}
+
+	/**
+	 * @return statistics key of the failure
+	 */
+	public static String reason(IOException e) {
+		if(e instanceof ProxyHandshakeException)
+			return ((ProxyHandshakeException) e).getReason();
+		if(e instanceof PipelineRejectedException)
+			return "pipeline-rejected";
+		if(e instanceof ProxyReconnectException)
+			return "reconnect";
+		if(e instanceof ProxyTimeoutException)
+			return "timeout." + ((ProxyTimeoutException) e).getPhase().name().toLowerCase(Locale.ENGLISH);
+		if(e instanceof SocketTimeoutException)
+			return "timeout";
+		if(e instanceof EOFException)
+			return "closed";
+		return "io";
+	}
+
+	public void tunnelOpened() {
+		tunnels.increment();
+		activeTunnels.increment();
+	}
+
+	public void tunnelClosed() {
+		activeTunnels.decrement();
+	}
+
+	public void received(long bytes) {
+		bytesReceived.add(bytes);
+	}
+
+	public void sent(long bytes) {
+		bytesSent.add(bytes);
+	}
+
+	public LatencyHistogram getConnectLatency() {
+		return connectLatency;
+	}
+
+	public LatencyHistogram getHandshakeLatency() {
+		return handshakeLatency;
+	}
+
+	/**
+	 * @return failure count by reason, sorted by reason
+	 */
+	public Map<String, Long> getFailures() {
+		Map<String, Long> snapshot = new TreeMap<String, Long>();
+		for(Map.Entry<String, StripedCounter> entry : failures.entrySet())
+			snapshot.put(entry.getKey(), entry.getValue().get());
+		return snapshot;
+	}
+
+	public long getFailureCount() {
+		long count = 0;
+		for(StripedCounter counter : failures.values())
+			count += counter.get();
+		return count;
+	}
+
+	public long getTunnels() {
+		return tunnels.get();
+	}
+
+	public long getActiveTunnels() {
+		return activeTunnels.get();
+	}
+
+	public long getBytesReceived() {
+		return bytesReceived.get();
+	}
+
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+}
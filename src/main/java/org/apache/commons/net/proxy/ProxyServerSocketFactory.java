@@ -23,6 +23,10 @@ import java.net.ServerSocket;
 
 import javax.net.ServerSocketFactory;
 
+/**
+ * Server socket factory of the active FTP mode. Through a SOCKS proxy the proxy listens
+ * (BIND), the remote host has to connect to the address of the returned server socket.
+ */
 public class ProxyServerSocketFactory extends ServerSocketFactory {
 	private ProxyConnector connector;
 	
@@ -35,6 +39,10 @@ public class ProxyServerSocketFactory extends ServerSocketFactory {
 		this.connector = connector;
 	}
 
+	public ProxyConnector getConnector() {
+		return connector;
+	}
+
 	@Override
 	public ServerSocket createServerSocket(int port) throws IOException {
 		return connector.createServerSocket(port);
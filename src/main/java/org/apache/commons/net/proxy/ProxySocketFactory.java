@@ -39,21 +39,50 @@ import javax.net.SocketFactory;
  */
 public class ProxySocketFactory extends SocketFactory {
 	private ProxyConnector connector;
+
+	/** {@link #createSocket()} opens a data connection. */
+	private final boolean data;
 	
 	public ProxySocketFactory() {
+		this.data = false;
 	}
 	
 	public ProxySocketFactory(String proxyUrl) throws MalformedURLException {
-		this.connector = new ProxyConnector(proxyUrl);
+		this.connector = ProxyConnector.create(proxyUrl);
+		this.data = false;
+	}
+
+	/**
+	 * Socket factory of a shared connector, the connector keeps its state
+	 * (pool of the proxy connections) for all clients.
+	 */
+	public ProxySocketFactory(ProxyConnector connector) {
+		this(connector, false);
+	}
+
+	private ProxySocketFactory(ProxyConnector connector, boolean data) {
+		this.connector = connector;
+		this.data = data;
+	}
+
+	/**
+	 * @return factory of the same connector, its {@link #createSocket()} opens the data connections
+	 */
+	public ProxySocketFactory getDataSocketFactory() {
+		return data ? this : new ProxySocketFactory(connector, true);
 	}
 	
 	public void setProxyUrl(String proxyUrl) throws MalformedURLException {
-		this.connector = new ProxyConnector(proxyUrl);		
+		this.connector = ProxyConnector.create(proxyUrl);		
+	}
+
+	public ProxyConnector getConnector() {
+		return connector;
 	}
 
 	@Override
 	public Socket createSocket() throws IOException {
-		return connector.createSocket();
+		return data ? connector.createDataSocket() : connector.createSocket();
 	}
 
 	@Override
@@ -0,0 +1,55 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.net.proxy;
+
+import java.net.SocketTimeoutException;
+import java.util.Locale;
+
+/**
+ * The time budget of a connect ran out. {@link #getPhase()} tells where: the name
+ * lookup of the proxy, the TCP connect or the handshake with the proxy.
+ */
+public class ProxyTimeoutException extends SocketTimeoutException {
+	private static final long serialVersionUID = 1L;
+
+	public enum Phase {
+		DNS, CONNECT, HANDSHAKE
+	}
+
+	private final Phase phase;
+	private final long timeout;
+
+	/**
+	 * @param timeout the whole budget in milliseconds
+	 */
+	public ProxyTimeoutException(Phase phase, long timeout) {
+		super(phase.name().toLowerCase(Locale.ENGLISH) + " timed out, budget " + timeout + " ms");
+		this.phase = phase;
+		this.timeout = timeout;
+	}
+
+	public Phase getPhase() {
+		return phase;
+	}
+
+	/**
+	 * @return the whole budget of the connect in milliseconds
+	 */
+	public long getTimeout() {
+		return timeout;
+	}
+}
@@ -0,0 +1,303 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.net.proxy;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of warm connections to the proxy server.
+ * <p>
+ * A connection is opened ahead of time and, when the proxy protocol allows it
+ * ({@link ProxyPreAuthenticate}), logged in. A leased connection is bound to its
+ * target host by the handshake and never goes back to the pool, the pool opens a
+ * replacement in the background instead. Idle connections are closed after
+ * {@link #getIdleTimeout()} milliseconds.
+ * <p>
+ * The replacements are opened by {@link ProxyHandshakeEngine}, any number at once,
+ * or by the pool threads when the proxy host has several addresses.
+ */
+public class ProxyTunnelPool {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ProxyTunnelPool.class);
+
+	private static final ScheduledExecutorService EXECUTOR = Executors.newScheduledThreadPool(2, new ThreadFactory() {
+		private final AtomicInteger counter = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "ProxyTunnelPool-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final ProxyConnector connector;
+	private final LinkedList<Tunnel> idle = new LinkedList<Tunnel>();
+
+	private int maxSize;
+	private long idleTimeout = 30000;
+	private int connectTimeout;
+	private int pending;
+	private boolean evictScheduled;
+	private boolean closed;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong created = new AtomicLong();
+	private final AtomicLong evicted = new AtomicLong();
+
+	public ProxyTunnelPool(ProxyConnector connector, int maxSize) {
+		this.connector = connector;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Takes a warm connection to the proxy and schedules a replacement.
+	 *
+	 * @return connected socket or null when the pool is empty
+	 */
+	public Socket lease(int timeout) {
+		Socket socket = null;
+		long now = System.currentTimeMillis();
+
+		synchronized (idle) {
+			connectTimeout = timeout;
+			evict(now);
+			Tunnel tunnel = idle.poll();
+
+			if(tunnel != null)
+				socket = tunnel.socket;
+		}
+
+		if(socket != null)
+			hits.incrementAndGet();
+		else
+			misses.incrementAndGet();
+
+		refill();
+		return socket;
+	}
+
+	public boolean isPreAuthenticated() {
+		return connector.authenticate instanceof ProxyPreAuthenticate;
+	}
+
+	public void close() {
+		synchronized (idle) {
+			closed = true;
+
+			for(Tunnel tunnel : idle)
+				closeQuietly(tunnel.socket);
+			idle.clear();
+		}
+	}
+
+	private void refill() {
+		int count;
+
+		synchronized (idle) {
+			if(closed)
+				return;
+
+			count = maxSize - idle.size() - pending;
+			if(count <= 0)
+				return;
+			pending += count;
+		}
+
+		for(int i = 0; i < count; i++) {
+			if(openAsync())
+				continue;
+
+			EXECUTOR.execute(new Runnable() {
+				@Override
+				public void run() {
+					open();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Opens the connection on the handshake engine when the protocol has a state machine.
+	 *
+	 * @return false when the connection is left for {@link #open()}
+	 */
+	private boolean openAsync() {
+		if(!(connector.authenticate instanceof AsyncProxyAuthenticate))
+			return false;
+
+		ProxyFuture<Socket> future;
+		try {
+			future = connector.openPoolSocketAsync(connectTimeout);
+		}
+		catch (IOException e) {
+			failed(e);
+			added(null);
+			return true;
+		}
+		if(future == null)
+			return false;
+
+		future.addListener(new ProxyFuture.Listener<Socket>() {
+			@Override
+			public void completed(ProxyFuture<Socket> future) {
+				if(future.isSuccess())
+					created.incrementAndGet();
+				else
+					failed(future.getCause());
+				added(future.getNow());
+			}
+		});
+		return true;
+	}
+
+	private void open() {
+		Socket socket = null;
+
+		try {
+			socket = connector.openPoolSocket(connectTimeout);
+			created.incrementAndGet();
+		}
+		catch (IOException e) {
+			failed(e);
+		}
+		added(socket);
+	}
+
+	private void failed(Throwable e) {
+		LOGGER.debug("Cannot open pooled connection to proxy {}:{}: {}",
+				new Object[] {connector.proxyHost, connector.proxyPort, e != null ? e.getMessage() : null});
+	}
+
+	/**
+	 * @param socket opened connection, null when it failed
+	 */
+	private void added(Socket socket) {
+		synchronized (idle) {
+			pending--;
+
+			if(socket == null)
+				return;
+
+			if(closed || idle.size() >= maxSize) {
+				closeQuietly(socket);
+				return;
+			}
+			idle.addLast(new Tunnel(socket, System.currentTimeMillis()));
+			scheduleEvict();
+		}
+	}
+
+	private void scheduleEvict() {
+		if(evictScheduled || idleTimeout <= 0)
+			return;
+
+		evictScheduled = true;
+		EXECUTOR.schedule(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (idle) {
+					evictScheduled = false;
+					evict(System.currentTimeMillis());
+
+					if(!idle.isEmpty())
+						scheduleEvict();
+				}
+			}
+		}, idleTimeout, TimeUnit.MILLISECONDS);
+	}
+
+	private void evict(long now) {
+		for(Iterator<Tunnel> it = idle.iterator(); it.hasNext(); ) {
+			Tunnel tunnel = it.next();
+
+			if(tunnel.socket.isClosed() || (idleTimeout > 0 && now - tunnel.since >= idleTimeout)) {
+				it.remove();
+				closeQuietly(tunnel.socket);
+				evicted.incrementAndGet();
+			}
+		}
+	}
+
+	private static void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		}
+		catch (IOException e) {
+		}
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public long getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	public void setIdleTimeout(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	public int getIdleCount() {
+		synchronized (idle) {
+			return idle.size();
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getCreated() {
+		return created.get();
+	}
+
+	public long getEvicted() {
+		return evicted.get();
+	}
+
+	private static class Tunnel {
+		final Socket socket;
+		final long since;
+
+		Tunnel(Socket socket, long since) {
+			this.socket = socket;
+			this.since = since;
+		}
+	}
+}
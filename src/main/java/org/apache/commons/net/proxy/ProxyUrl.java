@@ -0,0 +1,191 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.net.proxy;
+
+import java.net.MalformedURLException;
+import java.util.Locale;
+
+/**
+ * Parsed proxy url <code>schema://[user[:password]@]host[:port][/]</code>.
+ * <p>
+ * {@link java.net.URL} is not used, it knows no <code>socks</code> schema.
+ * Without a port the default port of the schema is used: 80 for http, 21 for ftp
+ * and 1080 for socks. {@link #toString()} is the normalized url, equal urls
+ * of the same proxy give the same string.
+ */
+public final class ProxyUrl {
+	private final String schema;
+	private final String host;
+	private final int port;
+	private final String userName;
+	private final String password;
+
+	private ProxyUrl(String schema, String host, int port, String userName, String password) {
+		this.schema = schema;
+		this.host = host;
+		this.port = port;
+		this.userName = userName;
+		this.password = password;
+	}
+
+	public static ProxyUrl parse(String proxyUrl) throws MalformedURLException {
+		if(proxyUrl == null)
+			throw new MalformedURLException("proxy url is null");
+
+		String url = proxyUrl.trim();
+		int p = url.indexOf("://");
+
+		if(p <= 0)
+			throw new MalformedURLException("no schema: " + proxyUrl);
+
+		String schema = url.substring(0, p).toLowerCase(Locale.ENGLISH);
+		int start = p + 3;
+		int end = url.length();
+
+		// The path is ignored. The user info can hold '/', so the authority ends after the last '@'.
+		int at = url.lastIndexOf('@');
+		for(int i = at < start ? start : at; i < url.length(); i++) {
+			char c = url.charAt(i);
+			if(c == '/' || c == '?' || c == '#') {
+				end = i;
+				break;
+			}
+		}
+		if(at >= end)
+			at = -1;
+
+		String userName = null;
+		String password = null;
+
+		if(at >= start) {
+			String userInfo = url.substring(start, at);
+			p = userInfo.indexOf(':');
+			userName = p < 0 ? userInfo : userInfo.substring(0, p);
+			password = p < 0 ? "" : userInfo.substring(p + 1);
+			start = at + 1;
+		}
+
+		String hostPort = url.substring(start, end);
+		String host;
+		String portText = null;
+
+		if(hostPort.startsWith("[")) {
+			// IPv6 literal
+			p = hostPort.indexOf(']');
+			if(p < 0)
+				throw new MalformedURLException("invalid IPv6 address: " + proxyUrl);
+			host = hostPort.substring(1, p);
+			if(p + 1 < hostPort.length()) {
+				if(hostPort.charAt(p + 1) != ':')
+					throw new MalformedURLException("invalid authority: " + proxyUrl);
+				portText = hostPort.substring(p + 2);
+			}
+		}
+		else {
+			p = hostPort.lastIndexOf(':');
+			host = p < 0 ? hostPort : hostPort.substring(0, p);
+			portText = p < 0 ? null : hostPort.substring(p + 1);
+		}
+
+		if(host.isEmpty())
+			throw new MalformedURLException("no host: " + proxyUrl);
+
+		int port;
+		if(portText == null || portText.isEmpty())
+			port = defaultPort(schema);
+		else {
+			try {
+				port = Integer.parseInt(portText);
+			}
+			catch (NumberFormatException e) {
+				throw new MalformedURLException("invalid port: " + proxyUrl);
+			}
+			if(port < 0 || port > 0xffff)
+				throw new MalformedURLException("invalid port: " + proxyUrl);
+		}
+
+		return new ProxyUrl(schema, host.toLowerCase(Locale.ENGLISH), port, userName, password);
+	}
+
+	/**
+	 * @param proxyUrls proxy url or a comma separated list of proxy urls
+	 * @return normalized urls separated by comma
+	 */
+	public static String normalize(String proxyUrls) throws MalformedURLException {
+		StringBuilder sb = new StringBuilder();
+
+		for(String proxyUrl : proxyUrls.split(",")) {
+			if(proxyUrl.trim().isEmpty())
+				continue;
+			if(sb.length() > 0)
+				sb.append(',');
+			sb.append(parse(proxyUrl));
+		}
+		if(sb.length() == 0)
+			throw new MalformedURLException("empty proxy url: " + proxyUrls);
+
+		return sb.toString();
+	}
+
+	private static int defaultPort(String schema) {
+		if(schema.startsWith("http"))
+			return 80;
+		if(schema.startsWith("ftp"))
+			return 21;
+		if(schema.startsWith("socks"))
+			return 1080;
+		return -1;
+	}
+
+	public String getSchema() {
+		return schema;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public String getUserName() {
+		return userName;
+	}
+
+	public String getPassword() {
+		return password;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(schema).append("://");
+
+		if(userName != null) {
+			sb.append(userName);
+			if(password != null && !password.isEmpty())
+				sb.append(':').append(password);
+			sb.append('@');
+		}
+		if(host.indexOf(':') >= 0)
+			sb.append('[').append(host).append(']');
+		else
+			sb.append(host);
+
+		return sb.append(':').append(port).toString();
+	}
+}
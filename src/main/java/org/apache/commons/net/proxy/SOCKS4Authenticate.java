@@ -16,33 +16,80 @@
  */
 package org.apache.commons.net.proxy;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 
-public class SOCKS4Authenticate implements ProxyAuthenticate {
-	final String UTF_8 = "UTF-8";
+/**
+ * SOCKS4 and SOCKS4a proxy authentication, CONNECT and BIND.
+ */
+public class SOCKS4Authenticate implements ProxyBindAuthenticate, AsyncProxyAuthenticate {
 	private static final String ERROR_PREFIX = "SOCKS4 proxy authenticate: ";
 
+	private static final int CONNECT = 0x01;
+	private static final int BIND = 0x02;
+
+	/**
+	 * User id of the prepared credentials.
+	 */
+	private volatile Template template;
+
+	@Override
+	public void prepare(Credentials credentials) {
+		template = new Template(credentials);
+	}
+
+	private Template template(Credentials credentials) {
+		Template prepared = template;
+		if (prepared != null && prepared.credentials == credentials) {
+			return prepared;
+		}
+		return new Template(credentials);
+	}
+
 	@Override
 	public void authenticate(Socket socket,
 			String hostname, int port, Credentials credentials)
 			throws IOException {
+		request(socket, CONNECT, hostname, port, credentials);
+	}
 
-		String proxyUser = credentials.getUserName();
-		
-		// Socks 4 or 4a?
-		boolean socks4a = false;
-		byte[] address;
+	@Override
+	public InetSocketAddress bind(Socket socket, String hostname, int port, Credentials credentials)
+			throws IOException {
+		return request(socket, BIND, hostname, port, credentials);
+	}
+
+	@Override
+	public InetSocketAddress accept(Socket socket) throws IOException {
+		boolean connected = false;
+		InputStream in = null;
 		try {
-			address = InetAddress.getByName(hostname).getAddress();
-		} catch (Exception e) {
-			// Cannot resolve host, switch to version 4a.
-			socks4a = true;
-			address = new byte[] { 0x00, 0x00, 0x00, 0x01 };
+			in = socket.getInputStream();
+			InetSocketAddress address = readReply(in);
+			connected = true;
+			return address;
+		} finally {
+			if (!connected) {
+				close(socket, in, null);
+			}
 		}
+	}
+
+	/**
+	 * @param hostname null for any host (BIND)
+	 * @return address of the reply
+	 */
+	private InetSocketAddress request(Socket socket, int command,
+			String hostname, int port, Credentials credentials)
+			throws IOException {
+
+		HandshakeBuffer request = request(command, hostname, port, credentials);
 		// A connection status flag.
 		boolean connected = false;
 		// The socket for the connection with the proxy.
@@ -53,71 +100,140 @@ public class SOCKS4Authenticate implements ProxyAuthenticate {
 			in = socket.getInputStream();
 			out = socket.getOutputStream();
 			// Send the request.
-			// Version 4.
-			out.write(0x04);
-			// CONNECT method.
-			out.write(0x01);
-			// Remote port number.
-			out.write(port >> 8);
-			out.write(port);
-			// Remote host address.
-			out.write(address);
-			// The user.
-			if (proxyUser != null) {
-				out.write(proxyUser.getBytes(UTF_8));
-			}
-			// End of user.
-			out.write(0x00);
-			// Version 4a?
-			if (socks4a) {
-				out.write(hostname.getBytes(UTF_8));
-				out.write(0x00);
+			request.writeTo(out);
+			InetSocketAddress reply = readReply(in);
+			connected = true;
+			return reply;
+		} finally {
+			if (!connected) {
+				close(socket, in, out);
 			}
-			// Get and parse the response.
-			int aux = read(in);
-			if (aux != 0x00) {
-				throw new IOException(ERROR_PREFIX + "invalid proxy response");
+		}
+	}
+
+	/**
+	 * @param hostname null for any host (BIND)
+	 * @return the request in the buffer of the thread
+	 */
+	private HandshakeBuffer request(int command, String hostname, int port, Credentials credentials) {
+		byte[] user = template(credentials).user;
+
+		// Socks 4 or 4a? A name is resolved by the proxy, the connector resolved it already
+		// when the names are resolved locally.
+		boolean socks4a = false;
+		byte[] address;
+		if (hostname == null) {
+			address = new byte[4];
+		} else {
+			address = HostResolver.ipv4(hostname);
+			if (address == null) {
+				socks4a = true;
+				address = new byte[] { 0x00, 0x00, 0x00, 0x01 };
 			}
-			aux = read(in);
-			switch (aux) {
-			case 0x5a:
-				in.skip(6);
-				connected = true;
-				break;
-			case 0x5b:
-				throw new IOException(ERROR_PREFIX + "connection refused/failed");
-			case 0x5c:
-				throw new IOException(ERROR_PREFIX + "cannot validate the user");
-			case 0x5d:
-				throw new IOException(ERROR_PREFIX + "invalid user");
-			default:
-				throw new IOException(ERROR_PREFIX + "invalid proxy response");
+		}
+		HandshakeBuffer request = HandshakeBuffer.get();
+		// Version 4.
+		request.put(0x04);
+		// CONNECT or BIND method.
+		request.put(command);
+		// Remote port number.
+		request.putShort(port);
+		// Remote host address.
+		request.put(address);
+		// The user and the end of user.
+		request.put(user);
+		// Version 4a?
+		if (socks4a) {
+			request.putHost(hostname);
+			request.put(0x00);
+		}
+		return request;
+	}
+
+	@Override
+	public ProxyHandshake handshake(String hostname, int port, Credentials credentials) throws IOException {
+		final byte[] request = request(CONNECT, hostname, port, credentials).toByteArray();
+
+		return new ProxyHandshake() {
+			@Override
+			protected void start() {
+				send(request);
+				expect(8);
 			}
-		} catch (IOException e) {
-			throw e;
-		} finally {
-			if (!connected) {
-				if (out != null) {
-					try {
-						out.close();
-					} catch (Throwable t) {
-						;
-					}
-				}
-				if (in != null) {
-					try {
-						in.close();
-					} catch (Throwable t) {
-						;
-					}
-				}
-				if (socket != null) {
-					try {
-						socket.close();
-					} catch (Throwable t) {
-						;
-					}
+
+			@Override
+			protected void received(byte[] data, int length) throws IOException {
+				if (data[0] != 0x00) {
+					throw new ProxyHandshakeException("socks4.invalid-response", ERROR_PREFIX + "invalid proxy response");
 				}
+				checkStatus(data[1] & 0xff);
+				int port = ((data[2] & 0xff) << 8) | (data[3] & 0xff);
+				byte[] address = new byte[4];
+				System.arraycopy(data, 4, address, 0, 4);
+				complete(new InetSocketAddress(InetAddress.getByAddress(address), port));
+			}
+		};
+	}
+
+	@Override
+	public ProxyHandshake preHandshake(Credentials credentials) {
+		// No login before the request.
+		return null;
+	}
+
+	/**
+	 * @return address of the reply
+	 */
+	private InetSocketAddress readReply(InputStream in) throws IOException {
+		// Get and parse the response.
+		int aux = read(in);
+		if (aux != 0x00) {
+			throw new ProxyHandshakeException("socks4.invalid-response", ERROR_PREFIX + "invalid proxy response");
+		}
+		checkStatus(read(in));
+		int port = (read(in) << 8) | read(in);
+		byte[] address = new byte[4];
+		for (int i = 0; i < 4; i++) {
+			address[i] = (byte) read(in);
+		}
+		return new InetSocketAddress(InetAddress.getByAddress(address), port);
+	}
+
+	private static void checkStatus(int status) throws ProxyHandshakeException {
+		switch (status) {
+		case 0x5a:
+			return;
+		case 0x5b:
+			throw new ProxyHandshakeException("socks4.status.91", ERROR_PREFIX + "connection refused/failed");
+		case 0x5c:
+			throw new ProxyHandshakeException("socks4.status.92", ERROR_PREFIX + "cannot validate the user");
+		case 0x5d:
+			throw new ProxyHandshakeException("socks4.status.93", ERROR_PREFIX + "invalid user");
+		default:
+			throw new ProxyHandshakeException("socks4.invalid-response", ERROR_PREFIX + "invalid proxy response");
+		}
+	}
+
+	private void close(Socket socket, InputStream in, OutputStream out) {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (Throwable t) {
+				;
+			}
+		}
+		if (in != null) {
+			try {
+				in.close();
+			} catch (Throwable t) {
+				;
+			}
+		}
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (Throwable t) {
+				;
 			}
 		}
 	}
@@ -125,8 +241,29 @@ public class SOCKS4Authenticate implements ProxyAuthenticate {
 	private int read(InputStream in) throws IOException {
 		int aux = in.read();
 		if (aux < 0) {
-			throw new IOException(ERROR_PREFIX + "connection closed by the proxy");
+			throw new EOFException(ERROR_PREFIX + "connection closed by the proxy");
 		}
 		return aux;
 	}
+
+	/**
+	 * User id with the terminating zero.
+	 */
+	private static final class Template {
+		final Credentials credentials;
+		final byte[] user;
+
+		Template(Credentials credentials) {
+			this.credentials = credentials;
+
+			String proxyUser = credentials != null ? credentials.getUserName() : null;
+			try {
+				byte[] name = proxyUser != null ? proxyUser.getBytes("UTF-8") : new byte[0];
+				user = new byte[name.length + 1];
+				System.arraycopy(name, 0, user, 0, name.length);
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
 }
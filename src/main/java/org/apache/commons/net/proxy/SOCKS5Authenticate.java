@@ -16,199 +16,639 @@
  */
 package org.apache.commons.net.proxy;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 
-public class SOCKS5Authenticate implements ProxyAuthenticate {
-	final String UTF_8 = "UTF-8";
+/**
+ * SOCKS5 proxy authentication (RFC 1928, RFC 1929).
+ * <p>
+ * Every step of the handshake is sent with one write. In the pipelined mode
+ * the greeting, the username/password and the CONNECT request are sent together
+ * and the three replies are read after that, one round trip instead of three.
+ * A proxy which rejects the pipelined request turns the pipelined mode off,
+ * the handshake is repeated step by step on a new connection.
+ * <p>
+ * The BIND request is sent step by step. The asynchronous handshake sends the same requests.
+ */
+public class SOCKS5Authenticate implements ProxyPreAuthenticate, ProxyBindAuthenticate, AsyncProxyAuthenticate {
 	private static final String ERROR_PREFIX = "SOCKS5 proxy authenticate: ";
+	private static final String INVALID_RESPONSE = "socks5.invalid-response";
+
+	private static final int CONNECT = 0x01;
+	private static final int BIND = 0x02;
+
+	private volatile boolean pipelining;
+
+	public boolean isPipelining() {
+		return pipelining;
+	}
+
+	public void setPipelining(boolean pipelining) {
+		this.pipelining = pipelining;
+	}
+
+	private volatile boolean literalAddresses = true;
+
+	public boolean isLiteralAddresses() {
+		return literalAddresses;
+	}
+
+	/**
+	 * Sends the text of an IPv4 or an IPv6 address as the address, not as a domain name.
+	 */
+	public void setLiteralAddresses(boolean literalAddresses) {
+		this.literalAddresses = literalAddresses;
+	}
+
+	/**
+	 * Greeting and login of the prepared credentials.
+	 */
+	private volatile Template template;
+
+	@Override
+	public void prepare(Credentials credentials) {
+		template = new Template(credentials);
+	}
+
+	private Template template(Credentials credentials) {
+		Template prepared = template;
+		if (prepared != null && prepared.credentials == credentials) {
+			return prepared;
+		}
+		return new Template(credentials);
+	}
 
 	@Override
 	public void authenticate(Socket socket,
 			String hostname, int port, Credentials credentials)
 			throws IOException {
-		
-		String proxyUser = credentials.getUserName();
-		String proxyPass = credentials.getPassword();
-		
-		// Authentication flag
-		boolean authentication = proxyUser != null && proxyPass != null;
+		if(!pipelining) {
+			preAuthenticate(socket, credentials);
+			connect(socket, hostname, port);
+			return;
+		}
+
+		Template template = template(credentials);
+		boolean authentication = template.userPass != null;
 		// A connection status flag.
 		boolean connected = false;
 		// The socket for the connection with the proxy.
 		InputStream in = null;
 		OutputStream out = null;
-		// FTPConnection routine.
 		try {
 			in = socket.getInputStream();
 			out = socket.getOutputStream();
-			int aux;
-			// Version 5.
-			out.write(0x05);
-			// Authentication?
+			HandshakeBuffer buffer = HandshakeBuffer.get();
+			buffer.put(template.greeting);
 			if (authentication) {
-				// Authentication with username/password.
-				out.write(0x01);
-				out.write(0x02);
-			} else {
-				// No authentication.
-				out.write(0x01);
-				out.write(0x00);
+				buffer.put(template.userPass());
 			}
-			// Get the response.
-			aux = read(in);
-			if (aux != 0x05) {
-				throw new IOException(ERROR_PREFIX + "invalid proxy response");
+			putRequest(buffer, CONNECT, hostname, port);
+			buffer.writeTo(out);
+
+			int method;
+			try {
+				method = readMethod(in);
+			} catch (ProxyHandshakeException e) {
+				// Not a reply to the greeting. A timeout or a close goes up as it is.
+				pipelining = false;
+				throw new PipelineRejectedException(ERROR_PREFIX + "pipelined request rejected: " + e.getMessage());
+			}
+			if (method != (authentication ? 0x02 : 0x00)) {
+				// The rest of the request is garbage for the proxy now.
+				pipelining = false;
+				throw new PipelineRejectedException(ERROR_PREFIX + "pipelined request rejected, method " + method);
 			}
-			aux = read(in);
 			if (authentication) {
-				if (aux != 0x02) {
-					throw new IOException(
-							ERROR_PREFIX + "proxy doesn't support "
-									+ "username/password authentication method");
-				}
-				// Authentication with username/password.
-				byte[] user = proxyUser.getBytes(UTF_8);
-				byte[] pass = proxyPass.getBytes(UTF_8);
-				int userLength = user.length;
-				int passLength = pass.length;
-				// Check sizes.
-				if (userLength > 0xff) {
-					throw new IOException(ERROR_PREFIX + "username too long");
-				}
-				if (passLength > 0xff) {
-					throw new IOException(ERROR_PREFIX + "password too long");
-				}
-				// Version 1.
-				out.write(0x01);
-				// Username.
-				out.write(userLength);
-				out.write(user);
-				// Password.
-				out.write(passLength);
-				out.write(pass);
-				// Check the response.
-				aux = read(in);
-				if (aux != 0x01) {
-					throw new IOException(ERROR_PREFIX + "invalid proxy response");
+				readUserPass(in);
+			}
+			readReply(in);
+			connected = true;
+		} finally {
+			if (!connected) {
+				close(socket, in, out);
+			}
+		}
+	}
+
+	@Override
+	public void preAuthenticate(Socket socket, Credentials credentials)
+			throws IOException {
+
+		Template template = template(credentials);
+		// Authentication flag
+		boolean authentication = template.userPass != null;
+		// A connection status flag.
+		boolean connected = false;
+		// The socket for the connection with the proxy.
+		InputStream in = null;
+		OutputStream out = null;
+		// FTPConnection routine.
+		try {
+			in = socket.getInputStream();
+			out = socket.getOutputStream();
+			HandshakeBuffer buffer = HandshakeBuffer.get();
+			buffer.put(template.greeting);
+			if (authentication && pipelining) {
+				// The proxy has to choose username/password, send it at once.
+				buffer.put(template.userPass());
+				buffer.writeTo(out);
+				int method;
+				try {
+					method = readMethod(in);
+				} catch (IOException e) {
+					pipelining = false;
+					throw e;
 				}
-				aux = read(in);
-				if (aux != 0x00) {
-					throw new IOException(ERROR_PREFIX + "authentication failed");
+				if (method != 0x02) {
+					pipelining = false;
 				}
+				checkMethod(method, authentication);
+				readUserPass(in);
 			} else {
-				if (aux != 0x00) {
-					throw new IOException(ERROR_PREFIX + "proxy requires authentication");
+				buffer.writeTo(out);
+				checkMethod(readMethod(in), authentication);
+				if (authentication) {
+					buffer = HandshakeBuffer.get();
+					buffer.put(template.userPass());
+					buffer.writeTo(out);
+					readUserPass(in);
 				}
 			}
-			// FTPConnection request.
-			// Version 5.
-			out.write(0x05);
-			// CONNECT method
-			out.write(0x01);
-			// Reserved.
-			out.write(0x00);
+			connected = true;
+		} finally {
+			if (!connected) {
+				close(socket, in, out);
+			}
+		}
+	}
+
+	@Override
+	public void connect(Socket socket, String hostname, int port)
+			throws IOException {
+		request(socket, CONNECT, hostname, port);
+	}
+
+	@Override
+	public InetSocketAddress bind(Socket socket, String hostname, int port, Credentials credentials)
+			throws IOException {
+		preAuthenticate(socket, credentials);
+		return request(socket, BIND, hostname, port);
+	}
+
+	@Override
+	public InetSocketAddress accept(Socket socket) throws IOException {
+		boolean connected = false;
+		InputStream in = null;
+		try {
+			in = socket.getInputStream();
+			InetSocketAddress address = readReply(in);
+			connected = true;
+			return address;
+		} finally {
+			if (!connected) {
+				close(socket, in, null);
+			}
+		}
+	}
+
+	@Override
+	public ProxyHandshake handshake(String hostname, int port, Credentials credentials) throws IOException {
+		if (hostname == null) {
+			throw new IllegalArgumentException("hostname");
+		}
+		return new Handshake(template(credentials), hostname, port);
+	}
+
+	@Override
+	public ProxyHandshake preHandshake(Credentials credentials) throws IOException {
+		return new Handshake(template(credentials), null, 0);
+	}
+
+	/**
+	 * Sends the request on a logged in connection.
+	 *
+	 * @return address of the reply
+	 */
+	private InetSocketAddress request(Socket socket, int command, String hostname, int port)
+			throws IOException {
+
+		// A connection status flag.
+		boolean connected = false;
+		// The socket for the connection with the proxy.
+		InputStream in = null;
+		OutputStream out = null;
+		// FTPConnection routine.
+		try {
+			in = socket.getInputStream();
+			out = socket.getOutputStream();
+			HandshakeBuffer buffer = HandshakeBuffer.get();
+			putRequest(buffer, command, hostname, port);
+			buffer.writeTo(out);
+			InetSocketAddress address = readReply(in);
+			connected = true;
+			return address;
+		} finally {
+			if (!connected) {
+				close(socket, in, out);
+			}
+		}
+	}
+
+	/**
+	 * @param hostname null for any host (BIND)
+	 */
+	private void putRequest(HandshakeBuffer buffer, int command, String hostname, int port) throws IOException {
+		// Version 5.
+		buffer.put(0x05);
+		// CONNECT or BIND method
+		buffer.put(command);
+		// Reserved.
+		buffer.put(0x00);
+		byte[] address = null;
+		if (hostname != null && literalAddresses) {
+			address = HostResolver.ipv4(hostname);
+			if (address == null) {
+				address = HostResolver.ipv6(hostname);
+			}
+		}
+		if (hostname == null) {
+			// Address type -> IPv4 0.0.0.0.
+			buffer.put(0x01);
+			buffer.put(new byte[4]);
+		} else if (address != null) {
+			// Address type -> IPv4 or IPv6.
+			buffer.put(address.length == 4 ? 0x01 : 0x04);
+			buffer.put(address);
+		} else {
 			// Address type -> domain.
-			out.write(0x03);
+			buffer.put(0x03);
 			// Domain.
-			byte[] domain = hostname.getBytes(UTF_8);
-			if (domain.length > 0xff) {
-				throw new IOException(ERROR_PREFIX + "domain name too long");
-			}
-			out.write(domain.length);
-			out.write(domain);
-			// Port number.
-			out.write(port >> 8);
-			out.write(port);
-
-			// FTPConnection response
-			// Version?
-			aux = read(in);
-			if (aux != 0x05) {
-				throw new IOException(ERROR_PREFIX + "invalid proxy response");
+			int length = HandshakeBuffer.hostLength(hostname);
+			if (length > 0xff) {
+				throw new ProxyHandshakeException("socks5.host-too-long", ERROR_PREFIX + "domain name too long");
 			}
-			// Status?
-			aux = read(in);
-			switch (aux) {
-			case 0x00:
-				// Connected!
-				break;
-			case 0x01:
-				throw new IOException(ERROR_PREFIX + "general failure");
-			case 0x02:
-				throw new IOException(ERROR_PREFIX + "connection not allowed by ruleset");
-			case 0x03:
-				throw new IOException(ERROR_PREFIX + "network unreachable");
-			case 0x04:
-				throw new IOException(ERROR_PREFIX + "host unreachable");
-			case 0x05:
-				throw new IOException(ERROR_PREFIX + "connection refused by destination host");
-			case 0x06:
-				throw new IOException(ERROR_PREFIX + "TTL expired");
-			case 0x07:
-				throw new IOException(ERROR_PREFIX + "command not supported / protocol error");
-			case 0x08:
-				throw new IOException(ERROR_PREFIX + "address type not supported");
-			default:
-				throw new IOException(ERROR_PREFIX + "invalid proxy response");
+			buffer.put(length);
+			buffer.putHost(hostname);
+		}
+		// Port number.
+		buffer.putShort(port);
+	}
+
+	/**
+	 * @return the method chosen by the proxy
+	 */
+	private int readMethod(InputStream in) throws IOException {
+		int aux = read(in);
+		if (aux != 0x05) {
+			throw new ProxyHandshakeException(INVALID_RESPONSE, ERROR_PREFIX + "invalid proxy response");
+		}
+		return read(in);
+	}
+
+	private void checkMethod(int method, boolean authentication) throws IOException {
+		if (authentication) {
+			if (method != 0x02) {
+				throw new ProxyHandshakeException("socks5.auth-method",
+						ERROR_PREFIX + "proxy doesn't support "
+								+ "username/password authentication method");
 			}
-			// Reserved.
-			in.skip(1);
-			// Address type.
+		} else {
+			if (method != 0x00) {
+				throw new ProxyHandshakeException("socks5.auth-required", ERROR_PREFIX + "proxy requires authentication");
+			}
+		}
+	}
+
+	private void readUserPass(InputStream in) throws IOException {
+		// Check the response.
+		int aux = read(in);
+		if (aux != 0x01) {
+			throw new ProxyHandshakeException(INVALID_RESPONSE, ERROR_PREFIX + "invalid proxy response");
+		}
+		aux = read(in);
+		if (aux != 0x00) {
+			throw new ProxyHandshakeException("socks5.auth-failed", ERROR_PREFIX + "authentication failed");
+		}
+	}
+
+	/**
+	 * @return bound address of the reply, unresolved for a domain name
+	 */
+	private InetSocketAddress readReply(InputStream in) throws IOException {
+		// FTPConnection response
+		// Version?
+		int aux = read(in);
+		if (aux != 0x05) {
+			throw new ProxyHandshakeException(INVALID_RESPONSE, ERROR_PREFIX + "invalid proxy response");
+		}
+		// Status?
+		checkStatus(read(in));
+		// Reserved.
+		skip(in, 1);
+		// Address type.
+		aux = read(in);
+		byte[] address;
+		String domain = null;
+		if (aux == 0x01) {
+			// IPv4.
+			address = read(in, 4);
+		} else if (aux == 0x03) {
+			// Domain name.
 			aux = read(in);
-			if (aux == 0x01) {
-				// IPv4.
-				in.skip(4);
-			} else if (aux == 0x03) {
-				// Domain name.
-				aux = read(in);
-				in.skip(aux);
-			} else if (aux == 0x04) {
-				// IPv6.
-				in.skip(16);
-			} else {
-				throw new IOException(ERROR_PREFIX + "invalid proxy response");
+			address = read(in, aux);
+			domain = new String(address, "ISO-8859-1");
+		} else if (aux == 0x04) {
+			// IPv6.
+			address = read(in, 16);
+		} else {
+			throw new ProxyHandshakeException(INVALID_RESPONSE, ERROR_PREFIX + "invalid proxy response");
+		}
+		// Port number.
+		int port = (read(in) << 8) | read(in);
+
+		if (domain != null) {
+			return InetSocketAddress.createUnresolved(domain, port);
+		}
+		return new InetSocketAddress(InetAddress.getByAddress(address), port);
+	}
+
+	private static void checkStatus(int status) throws ProxyHandshakeException {
+		switch (status) {
+		case 0x00:
+			// Connected!
+			return;
+		case 0x01:
+			throw new ProxyHandshakeException("socks5.status.1", ERROR_PREFIX + "general failure");
+		case 0x02:
+			throw new ProxyHandshakeException("socks5.status.2", ERROR_PREFIX + "connection not allowed by ruleset");
+		case 0x03:
+			throw new ProxyHandshakeException("socks5.status.3", ERROR_PREFIX + "network unreachable");
+		case 0x04:
+			throw new ProxyHandshakeException("socks5.status.4", ERROR_PREFIX + "host unreachable");
+		case 0x05:
+			throw new ProxyHandshakeException("socks5.status.5", ERROR_PREFIX + "connection refused by destination host");
+		case 0x06:
+			throw new ProxyHandshakeException("socks5.status.6", ERROR_PREFIX + "TTL expired");
+		case 0x07:
+			throw new ProxyHandshakeException("socks5.status.7", ERROR_PREFIX + "command not supported / protocol error");
+		case 0x08:
+			throw new ProxyHandshakeException("socks5.status.8", ERROR_PREFIX + "address type not supported");
+		default:
+			throw new ProxyHandshakeException(INVALID_RESPONSE, ERROR_PREFIX + "invalid proxy response");
+		}
+	}
+
+	private void close(Socket socket, InputStream in, OutputStream out) {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (Throwable t) {
+				;
 			}
-			// Port number.
-			in.skip(2);
-			// Well done!
-			connected = true;
-		} catch (IOException e) {
-			throw e;
-		} finally {
-			if (!connected) {
-				if (out != null) {
-					try {
-						out.close();
-					} catch (Throwable t) {
-						;
+		}
+		if (in != null) {
+			try {
+				in.close();
+			} catch (Throwable t) {
+				;
+			}
+		}
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (Throwable t) {
+				;
+			}
+		}
+	}
+
+	private void skip(InputStream in, int count) throws IOException {
+		for (int i = 0; i < count; i++) {
+			read(in);
+		}
+	}
+
+	private byte[] read(InputStream in, int count) throws IOException {
+		byte[] bytes = new byte[count];
+		for (int i = 0; i < count; i++) {
+			bytes[i] = (byte) read(in);
+		}
+		return bytes;
+	}
+
+	private int read(InputStream in) throws IOException {
+		int aux = in.read();
+		if (aux < 0) {
+			throw new EOFException(ERROR_PREFIX + "connection closed by the proxy");
+		}
+		return aux;
+	}
+
+	/**
+	 * The greeting, the login and the CONNECT request as a state machine, pipelined as
+	 * {@link #authenticate} and {@link #preAuthenticate} do.
+	 */
+	private final class Handshake extends ProxyHandshake {
+		private static final int METHOD = 0;
+		private static final int USER_PASS = 1;
+		private static final int REPLY = 2;
+		private static final int ADDRESS = 3;
+
+		private final Template template;
+		/** Target host, null for the login only. */
+		private final String hostname;
+		private final int port;
+		private final boolean authentication;
+		private final boolean pipelined;
+		private int state;
+		/** Address type and the first byte of the address of the reply. */
+		private int type;
+		private byte first;
+
+		Handshake(Template template, String hostname, int port) throws IOException {
+			this.template = template;
+			this.hostname = hostname;
+			this.port = port;
+			this.authentication = template.userPass != null;
+			// Something to send with the greeting.
+			this.pipelined = pipelining && (authentication || hostname != null);
+
+			if (authentication) {
+				// Fails for a too long user name before the connect.
+				template.userPass();
+			}
+		}
+
+		@Override
+		protected void start() throws IOException {
+			HandshakeBuffer buffer = HandshakeBuffer.get();
+			buffer.put(template.greeting);
+			if (pipelined && authentication) {
+				buffer.put(template.userPass());
+			}
+			if (pipelined && hostname != null) {
+				putRequest(buffer, CONNECT, hostname, port);
+			}
+			send(buffer);
+			state = METHOD;
+			expect(2);
+		}
+
+		@Override
+		protected void received(byte[] data, int length) throws IOException {
+			switch (state) {
+			case METHOD:
+				if (data[0] != 0x05) {
+					if (pipelined && hostname != null) {
+						pipelining = false;
+						throw new PipelineRejectedException(ERROR_PREFIX + "pipelined request rejected: invalid proxy response");
 					}
+					throw new ProxyHandshakeException(INVALID_RESPONSE, ERROR_PREFIX + "invalid proxy response");
 				}
-				if (in != null) {
-					try {
-						in.close();
-					} catch (Throwable t) {
-						;
+				int method = data[1] & 0xff;
+				if (pipelined && method != (authentication ? 0x02 : 0x00)) {
+					pipelining = false;
+					if (hostname != null) {
+						throw new PipelineRejectedException(ERROR_PREFIX + "pipelined request rejected, method " + method);
 					}
 				}
-				if (socket != null) {
-					try {
-						socket.close();
-					} catch (Throwable t) {
-						;
+				checkMethod(method, authentication);
+				if (authentication) {
+					if (!pipelined) {
+						send(template.userPass());
 					}
+					state = USER_PASS;
+					expect(2);
+					return;
+				}
+				request();
+				return;
+			case USER_PASS:
+				if (data[0] != 0x01) {
+					throw new ProxyHandshakeException(INVALID_RESPONSE, ERROR_PREFIX + "invalid proxy response");
+				}
+				if (data[1] != 0x00) {
+					throw new ProxyHandshakeException("socks5.auth-failed", ERROR_PREFIX + "authentication failed");
+				}
+				request();
+				return;
+			case REPLY:
+				if (data[0] != 0x05) {
+					throw new ProxyHandshakeException(INVALID_RESPONSE, ERROR_PREFIX + "invalid proxy response");
+				}
+				checkStatus(data[1] & 0xff);
+				type = data[3];
+				first = data[4];
+				// The rest of the address and the port number.
+				if (type == 0x01) {
+					expect(4 + 2 - 1);
+				} else if (type == 0x03) {
+					expect((data[4] & 0xff) + 2);
+				} else if (type == 0x04) {
+					expect(16 + 2 - 1);
+				} else {
+					throw new ProxyHandshakeException(INVALID_RESPONSE, ERROR_PREFIX + "invalid proxy response");
+				}
+				state = ADDRESS;
+				return;
+			default:
+				int port = ((data[length - 2] & 0xff) << 8) | (data[length - 1] & 0xff);
+				if (type == 0x03) {
+					complete(InetSocketAddress.createUnresolved(new String(data, 0, length - 2, "ISO-8859-1"), port));
+				} else {
+					// The first byte of the address came with the reply.
+					byte[] address = new byte[length - 1];
+					address[0] = first;
+					System.arraycopy(data, 0, address, 1, length - 2);
+					complete(new InetSocketAddress(InetAddress.getByAddress(address), port));
 				}
 			}
 		}
+
+		@Override
+		protected void closed() throws IOException {
+			if (state == METHOD && pipelined) {
+				pipelining = false;
+				if (hostname != null) {
+					throw new PipelineRejectedException(ERROR_PREFIX + "pipelined request rejected: connection closed by the proxy");
+				}
+			}
+			throw new EOFException(ERROR_PREFIX + "connection closed by the proxy");
+		}
+
+		private void request() throws IOException {
+			if (hostname == null) {
+				complete(null);
+				return;
+			}
+			if (!pipelined) {
+				HandshakeBuffer buffer = HandshakeBuffer.get();
+				putRequest(buffer, CONNECT, hostname, port);
+				send(buffer);
+			}
+			state = REPLY;
+			expect(5);
+		}
 	}
 
-	private int read(InputStream in) throws IOException {
-		int aux = in.read();
-		if (aux < 0) {
-			throw new IOException(ERROR_PREFIX + "connection closed by the proxy");
+	private static final class Template {
+		final Credentials credentials;
+		final byte[] greeting;
+		/** RFC 1929 request, null without authentication. */
+		final byte[] userPass;
+		final String error;
+
+		Template(Credentials credentials) {
+			this.credentials = credentials;
+
+			String proxyUser = credentials != null ? credentials.getUserName() : null;
+			String proxyPass = credentials != null ? credentials.getPassword() : null;
+			boolean authentication = proxyUser != null && proxyPass != null;
+			String error = null;
+
+			// Version 5, one method: username/password or no authentication.
+			greeting = new byte[] { 0x05, 0x01, (byte) (authentication ? 0x02 : 0x00) };
+
+			if (authentication) {
+				try {
+					byte[] user = proxyUser.getBytes("UTF-8");
+					byte[] pass = proxyPass.getBytes("UTF-8");
+					// Check sizes.
+					if (user.length > 0xff) {
+						error = ERROR_PREFIX + "username too long";
+					}
+					else if (pass.length > 0xff) {
+						error = ERROR_PREFIX + "password too long";
+					}
+					// Version 1, username, password.
+					userPass = new byte[3 + user.length + pass.length];
+					userPass[0] = 0x01;
+					userPass[1] = (byte) user.length;
+					System.arraycopy(user, 0, userPass, 2, user.length);
+					userPass[2 + user.length] = (byte) pass.length;
+					System.arraycopy(pass, 0, userPass, 3 + user.length, pass.length);
+				} catch (UnsupportedEncodingException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+			else {
+				userPass = null;
+			}
+			this.error = error;
+		}
+
+		byte[] userPass() throws IOException {
+			if (error != null) {
+				throw new IOException(error);
+			}
+			return userPass;
 		}
-		return aux;
 	}
 }
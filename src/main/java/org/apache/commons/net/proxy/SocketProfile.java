@@ -0,0 +1,240 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.net.proxy;
+
+import java.net.Socket;
+import java.net.SocketException;
+
+/**
+ * Socket options of the control or the data connections of a connector.
+ * The options are set before connect, an option set on the socket by the client wins.
+ * <p>
+ * With the auto tuning the buffers are sized by the bandwidth delay product: the connect
+ * time to the proxy (one round trip) times the throughput of the closed connections.
+ * A connection limited by its buffers gets about buffer / RTT, the buffer of the next
+ * connection is twice the product, so the buffers grow up to {@link #getMaxBufferSize()}
+ * while the transfers are window limited.
+ */
+public class SocketProfile {
+	/** Weight of a new sample. */
+	private static final double ALPHA = 0.3;
+
+	private int receiveBufferSize = -1;
+	private int sendBufferSize = -1;
+	private Boolean tcpNoDelay;
+	private Boolean keepAlive;
+
+	private boolean autoTune;
+	private int minBufferSize = 64 * 1024;
+	private int maxBufferSize = 16 * 1024 * 1024;
+	/** Connections shorter than this are not sampled, a listing says nothing about the window. */
+	private long minSampleBytes = 1024 * 1024;
+
+	/** Moving averages, 0 before the first sample. */
+	private double rttNanos;
+	private double bytesPerNano;
+
+	/**
+	 * Default options of the control connections: no delay of the short commands.
+	 */
+	public static SocketProfile control() {
+		SocketProfile profile = new SocketProfile();
+		profile.setTcpNoDelay(true);
+		profile.setKeepAlive(true);
+		return profile;
+	}
+
+	/**
+	 * Default options of the data connections: the options of the JVM.
+	 */
+	public static SocketProfile data() {
+		return new SocketProfile();
+	}
+
+	/**
+	 * @return same options, without the samples
+	 */
+	public SocketProfile copy() {
+		SocketProfile copy = new SocketProfile();
+		copy.receiveBufferSize = receiveBufferSize;
+		copy.sendBufferSize = sendBufferSize;
+		copy.tcpNoDelay = tcpNoDelay;
+		copy.keepAlive = keepAlive;
+		copy.autoTune = autoTune;
+		copy.minBufferSize = minBufferSize;
+		copy.maxBufferSize = maxBufferSize;
+		copy.minSampleBytes = minSampleBytes;
+		return copy;
+	}
+
+	public int getReceiveBufferSize() {
+		return receiveBufferSize;
+	}
+
+	/**
+	 * SO_RCVBUF, -1 keeps the default. With the auto tuning the size before the first sample.
+	 */
+	public void setReceiveBufferSize(int receiveBufferSize) {
+		this.receiveBufferSize = receiveBufferSize;
+	}
+
+	public int getSendBufferSize() {
+		return sendBufferSize;
+	}
+
+	/**
+	 * SO_SNDBUF, -1 keeps the default. With the auto tuning the size before the first sample.
+	 */
+	public void setSendBufferSize(int sendBufferSize) {
+		this.sendBufferSize = sendBufferSize;
+	}
+
+	/**
+	 * Sets SO_RCVBUF and SO_SNDBUF.
+	 */
+	public void setBufferSize(int bufferSize) {
+		this.receiveBufferSize = bufferSize;
+		this.sendBufferSize = bufferSize;
+	}
+
+	public Boolean getTcpNoDelay() {
+		return tcpNoDelay;
+	}
+
+	/**
+	 * TCP_NODELAY, null keeps the default.
+	 */
+	public void setTcpNoDelay(Boolean tcpNoDelay) {
+		this.tcpNoDelay = tcpNoDelay;
+	}
+
+	public Boolean getKeepAlive() {
+		return keepAlive;
+	}
+
+	/**
+	 * SO_KEEPALIVE, null keeps the default.
+	 */
+	public void setKeepAlive(Boolean keepAlive) {
+		this.keepAlive = keepAlive;
+	}
+
+	public boolean isAutoTune() {
+		return autoTune;
+	}
+
+	/**
+	 * Sizes the buffers by the measured bandwidth delay product.
+	 */
+	public void setAutoTune(boolean autoTune) {
+		this.autoTune = autoTune;
+	}
+
+	public int getMinBufferSize() {
+		return minBufferSize;
+	}
+
+	public void setMinBufferSize(int minBufferSize) {
+		this.minBufferSize = minBufferSize;
+	}
+
+	public int getMaxBufferSize() {
+		return maxBufferSize;
+	}
+
+	public void setMaxBufferSize(int maxBufferSize) {
+		this.maxBufferSize = maxBufferSize;
+	}
+
+	public long getMinSampleBytes() {
+		return minSampleBytes;
+	}
+
+	public void setMinSampleBytes(long minSampleBytes) {
+		this.minSampleBytes = minSampleBytes;
+	}
+
+	/**
+	 * @param nanos TCP connect time
+	 */
+	public synchronized void roundTrip(long nanos) {
+		if(nanos > 0)
+			rttNanos = rttNanos == 0 ? nanos : rttNanos + ALPHA * (nanos - rttNanos);
+	}
+
+	/**
+	 * @param bytes bytes read and written by a closed connection
+	 * @param nanos time the connection was open
+	 */
+	public synchronized void transferred(long bytes, long nanos) {
+		if(bytes < minSampleBytes || nanos <= 0)
+			return;
+
+		double rate = (double) bytes / nanos;
+		bytesPerNano = bytesPerNano == 0 ? rate : bytesPerNano + ALPHA * (rate - bytesPerNano);
+	}
+
+	/**
+	 * @return moving average of the connect time in milliseconds, 0 when unknown
+	 */
+	public synchronized double getRoundTripTime() {
+		return rttNanos / 1000000.0;
+	}
+
+	/**
+	 * @return moving average of the throughput in bytes per second, 0 when unknown
+	 */
+	public synchronized double getThroughput() {
+		return bytesPerNano * 1000000000.0;
+	}
+
+	/**
+	 * @return buffer size of the auto tuning, -1 before the samples
+	 */
+	public synchronized int getTunedBufferSize() {
+		if(!autoTune || rttNanos == 0 || bytesPerNano == 0)
+			return -1;
+
+		double size = 2 * bytesPerNano * rttNanos;
+		return (int) Math.max(minBufferSize, Math.min(maxBufferSize, size));
+	}
+
+	/**
+	 * Sets the options to a socket before connect.
+	 */
+	public void apply(Socket socket) throws SocketException {
+		int tuned = getTunedBufferSize();
+		int receive = tuned > 0 ? tuned : receiveBufferSize;
+		int send = tuned > 0 ? tuned : sendBufferSize;
+
+		if(receive > 0)
+			socket.setReceiveBufferSize(receive);
+		if(send > 0)
+			socket.setSendBufferSize(send);
+		if(tcpNoDelay != null)
+			socket.setTcpNoDelay(tcpNoDelay);
+		if(keepAlive != null)
+			socket.setKeepAlive(keepAlive);
+	}
+
+	@Override
+	public String toString() {
+		return "SocketProfile[rcvbuf=" + receiveBufferSize + ", sndbuf=" + sendBufferSize
+				+ ", nodelay=" + tcpNoDelay + ", keepalive=" + keepAlive
+				+ (autoTune ? ", tuned=" + getTunedBufferSize() : "") + "]";
+	}
+}
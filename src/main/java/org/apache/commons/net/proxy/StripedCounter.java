@@ -0,0 +1,69 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.net.proxy;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter for the hot path. The threads add to different cells (one cache line
+ * each) chosen by the thread id, the sum is taken on read. No allocation on add.
+ */
+public final class StripedCounter {
+	private static final int STRIPES = stripes();
+
+	/** Longs per cache line, the cells do not share a line. */
+	private static final int PAD = 8;
+
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+	private static int stripes() {
+		int n = Runtime.getRuntime().availableProcessors() * 2;
+		int stripes = 1;
+		while(stripes < n && stripes < 64)
+			stripes <<= 1;
+		return stripes;
+	}
+
+	public void add(long x) {
+		cells.getAndAdd(cell(), x);
+	}
+
+	public void increment() {
+		add(1);
+	}
+
+	public void decrement() {
+		add(-1);
+	}
+
+	public long get() {
+		long sum = 0;
+		for(int i = 0; i < STRIPES; i++)
+			sum += cells.get(i * PAD);
+		return sum;
+	}
+
+	private static int cell() {
+		long id = Thread.currentThread().getId();
+		return (int) ((id ^ (id >>> 7)) & (STRIPES - 1)) * PAD;
+	}
+
+	@Override
+	public String toString() {
+		return Long.toString(get());
+	}
+}
@@ -0,0 +1,131 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.file.remote.ext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.apache.commons.net.ftp.FTPFile;
+import org.junit.Test;
+
+public class ListingCacheTest {
+	private static final String KEY = "ftp.example.com:21/in";
+	private static final long MODIFIED = 1380000000000L;
+
+	private final FTPFile[] files = new FTPFile[] {new FTPFile()};
+
+	@Test
+	public void firstListingIsNotTrusted() {
+		ListingCache cache = new ListingCache(10, 0);
+		cache.put(KEY, MODIFIED, files, System.currentTimeMillis() - 60000);
+
+		assertNull(cache.get(KEY, MODIFIED));
+		assertEquals(1, cache.getListed());
+		assertEquals(0, cache.getValidated());
+	}
+
+	@Test
+	public void listingIsTrustedAfterTheSettleTime() {
+		ListingCache cache = new ListingCache(10, 0);
+		long observed = System.currentTimeMillis() - 60000;
+		cache.put(KEY, MODIFIED, files, observed);
+		cache.put(KEY, MODIFIED, files, observed + ListingCache.SETTLE_MILLIS);
+
+		assertSame(files, cache.get(KEY, MODIFIED));
+		assertEquals(1, cache.getValidated());
+	}
+
+	@Test
+	public void listingWithinTheSettleTimeIsNotTrusted() {
+		ListingCache cache = new ListingCache(10, 0);
+		long observed = System.currentTimeMillis() - 60000;
+		cache.put(KEY, MODIFIED, files, observed);
+		cache.put(KEY, MODIFIED, files, observed + ListingCache.SETTLE_MILLIS - 1);
+
+		assertNull(cache.get(KEY, MODIFIED));
+	}
+
+	@Test
+	public void changedDirectoryIsListedAgain() {
+		ListingCache cache = new ListingCache(10, 0);
+		long observed = System.currentTimeMillis() - 60000;
+		cache.put(KEY, MODIFIED, files, observed);
+		cache.put(KEY, MODIFIED, files, observed + ListingCache.SETTLE_MILLIS);
+
+		assertNull(cache.get(KEY, MODIFIED + 1000));
+	}
+
+	@Test
+	public void changedTimeStartsTheSettleTimeAgain() {
+		ListingCache cache = new ListingCache(10, 0);
+		long observed = System.currentTimeMillis() - 60000;
+		cache.put(KEY, MODIFIED, files, observed);
+		cache.put(KEY, MODIFIED + 1000, files, observed + ListingCache.SETTLE_MILLIS);
+
+		assertNull(cache.get(KEY, MODIFIED + 1000));
+
+		cache.put(KEY, MODIFIED + 1000, files, observed + 2 * ListingCache.SETTLE_MILLIS);
+		assertSame(files, cache.get(KEY, MODIFIED + 1000));
+	}
+
+	@Test
+	public void listingOlderThanMaxAgeIsListedAgain() {
+		ListingCache cache = new ListingCache(10, 1000);
+		long observed = System.currentTimeMillis() - 60000;
+		cache.put(KEY, MODIFIED, files, observed);
+		cache.put(KEY, MODIFIED, files, observed + ListingCache.SETTLE_MILLIS);
+
+		assertNull(cache.get(KEY, MODIFIED));
+	}
+
+	@Test
+	public void listingYoungerThanMaxAgeIsUsed() {
+		ListingCache cache = new ListingCache(10, 60000);
+		long now = System.currentTimeMillis();
+		cache.put(KEY, MODIFIED, files, now - 2 * ListingCache.SETTLE_MILLIS);
+		cache.put(KEY, MODIFIED, files, now - ListingCache.SETTLE_MILLIS);
+
+		assertSame(files, cache.get(KEY, MODIFIED));
+	}
+
+	@Test
+	public void leastRecentlyUsedDirectoryIsDropped() {
+		ListingCache cache = new ListingCache(2, 0);
+		long observed = System.currentTimeMillis() - 60000;
+		cache.put("a", MODIFIED, files, observed);
+		cache.put("b", MODIFIED, files, observed);
+		cache.put("c", MODIFIED, files, observed);
+
+		assertEquals(2, cache.size());
+		cache.put("a", MODIFIED, files, observed + ListingCache.SETTLE_MILLIS);
+		assertNull(cache.get("a", MODIFIED));
+	}
+
+	@Test
+	public void removedDirectoryIsListedAgain() {
+		ListingCache cache = new ListingCache(10, 0);
+		long observed = System.currentTimeMillis() - 60000;
+		cache.put(KEY, MODIFIED, files, observed);
+		cache.put(KEY, MODIFIED, files, observed + ListingCache.SETTLE_MILLIS);
+
+		cache.remove(KEY);
+
+		assertNull(cache.get(KEY, MODIFIED));
+		assertEquals(0, cache.size());
+	}
+}
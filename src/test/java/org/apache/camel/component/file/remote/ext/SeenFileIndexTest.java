@@ -0,0 +1,219 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.file.remote.ext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SeenFileIndexTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File file;
+	private SeenFileIndex index;
+
+	@Before
+	public void setUp() throws IOException {
+		file = new File(folder.getRoot(), "seen.idx");
+		index = new SeenFileIndex(file, 0);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		index.close();
+	}
+
+	@Test
+	public void fileIsSeenWhileSizeAndTimeAreTheSame() throws IOException {
+		index.add("/in/a.txt", 10, 1000);
+
+		assertTrue(index.contains("/in/a.txt", 10, 1000));
+		assertFalse(index.contains("/in/a.txt", 11, 1000));
+		assertFalse(index.contains("/in/a.txt", 10, 1001));
+		assertFalse(index.contains("/in/b.txt", 10, 1000));
+
+		index.add("/in/a.txt", 11, 1001);
+		assertTrue(index.contains("/in/a.txt", 11, 1001));
+		assertEquals(1, index.size());
+	}
+
+	@Test
+	public void tableGrowsWhenThreeQuartersFull() throws IOException {
+		int files = SeenFileIndex.MIN_CAPACITY - (SeenFileIndex.MIN_CAPACITY >> 2);
+		for(int i = 0; i < files; i++)
+			index.add("/in/" + i, i, i);
+		assertEquals(SeenFileIndex.MIN_CAPACITY, index.getCapacity());
+
+		index.add("/in/" + files, files, files);
+
+		assertEquals(SeenFileIndex.MIN_CAPACITY << 1, index.getCapacity());
+		assertEquals(files + 1, index.size());
+		for(int i = 0; i <= files; i++)
+			assertTrue(index.contains("/in/" + i, i, i));
+		assertFalse(new File(file.getPath() + ".tmp").exists());
+		assertEquals(SeenFileIndex.HEADER_SIZE + (long) index.getCapacity() * SeenFileIndex.SLOT_SIZE, file.length());
+	}
+
+	@Test
+	public void reopenKeepsTheFiles() throws IOException {
+		for(int i = 0; i < 2000; i++)
+			index.add("/in/" + i, i, -i);
+		int capacity = index.getCapacity();
+		index.close();
+
+		index = new SeenFileIndex(file, 0);
+
+		assertEquals(2000, index.size());
+		assertEquals(capacity, index.getCapacity());
+		for(int i = 0; i < 2000; i++)
+			assertTrue(index.contains("/in/" + i, i, -i));
+		index.add("/in/2000", 2000, -2000);
+		assertEquals(2001, index.size());
+	}
+
+	@Test
+	public void reopenCountsTheSlots() throws IOException {
+		index.add("/in/a", 1, 1);
+		index.add("/in/b", 2, 2);
+		index.close();
+
+		// A stop of the JVM after the slot and before the count.
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(12);
+			raf.writeInt(0);
+		}
+		finally {
+			raf.close();
+		}
+
+		index = new SeenFileIndex(file, 0);
+		assertEquals(2, index.size());
+	}
+
+	@Test
+	public void capacityIsRoundedToPowerOfTwo() throws IOException {
+		index.close();
+		assertTrue(file.delete());
+
+		index = new SeenFileIndex(file, SeenFileIndex.MIN_CAPACITY + 1);
+
+		assertEquals(SeenFileIndex.MIN_CAPACITY << 1, index.getCapacity());
+	}
+
+	@Test
+	public void collidingSlotsAreProbed() throws IOException {
+		String[] paths = collidingPaths(0);
+
+		index.add(paths[0], 1, 1);
+		index.add(paths[1], 2, 2);
+		index.add(paths[2], 3, 3);
+
+		assertEquals(3, index.size());
+		assertTrue(index.contains(paths[0], 1, 1));
+		assertTrue(index.contains(paths[1], 2, 2));
+		assertTrue(index.contains(paths[2], 3, 3));
+
+		index.add(paths[1], 20, 20);
+		assertEquals(3, index.size());
+		assertTrue(index.contains(paths[0], 1, 1));
+		assertTrue(index.contains(paths[1], 20, 20));
+		assertTrue(index.contains(paths[2], 3, 3));
+
+		index.close();
+		index = new SeenFileIndex(file, 0);
+		assertTrue(index.contains(paths[1], 20, 20));
+		assertTrue(index.contains(paths[2], 3, 3));
+	}
+
+	@Test
+	public void probeWrapsAtTheEndOfTheTable() throws IOException {
+		String[] paths = collidingPaths(SeenFileIndex.MIN_CAPACITY - 1);
+
+		index.add(paths[0], 1, 1);
+		index.add(paths[1], 2, 2);
+
+		assertTrue(index.contains(paths[0], 1, 1));
+		assertTrue(index.contains(paths[1], 2, 2));
+		assertFalse(index.contains(paths[2], 3, 3));
+	}
+
+	@Test
+	public void clearForgetsTheFiles() throws IOException {
+		for(int i = 0; i < 1000; i++)
+			index.add("/in/" + i, i, i);
+
+		index.clear();
+
+		assertEquals(0, index.size());
+		assertEquals(SeenFileIndex.MIN_CAPACITY, index.getCapacity());
+		assertFalse(index.contains("/in/0", 0, 0));
+	}
+
+	@Test
+	public void otherFileIsNotOpened() throws IOException {
+		File other = folder.newFile("other.idx");
+		RandomAccessFile raf = new RandomAccessFile(other, "rw");
+		try {
+			raf.write(new byte[SeenFileIndex.HEADER_SIZE]);
+		}
+		finally {
+			raf.close();
+		}
+
+		try {
+			new SeenFileIndex(other, 0);
+			fail("Not an index opened");
+		}
+		catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Not a seen file index"));
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void closedIndexFails() throws IOException {
+		index.close();
+		index.contains("/in/a", 1, 1);
+	}
+
+	/**
+	 * @return three paths of different hashes in the slot of a table of the minimal capacity
+	 */
+	private static String[] collidingPaths(int slot) {
+		int mask = SeenFileIndex.MIN_CAPACITY - 1;
+		String[] paths = new String[3];
+		int found = 0;
+		for(int i = 0; found < paths.length; i++) {
+			String path = "/in/file" + i;
+			if(((int) SeenFileIndex.hash(path) & mask) == slot)
+				paths[found++] = path;
+		}
+		return paths;
+	}
+}
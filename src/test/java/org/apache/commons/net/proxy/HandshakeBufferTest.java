@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.net.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+public class HandshakeBufferTest {
+	private static final String PREFIX = "test: ";
+
+	@Test
+	public void headerEndsWithCrLfCrLf() throws IOException {
+		String header = "HTTP/1.1 200 Connection established\r\nProxy-Agent: test\r\n\r\n";
+		HandshakeBuffer buffer = HandshakeBuffer.get();
+
+		int size = buffer.readHeader(stream(header), 8192, PREFIX);
+
+		assertEquals(header.length(), size);
+		assertEquals(header, buffer.toString(0, size));
+	}
+
+	@Test
+	public void headerEndsWithLfLf() throws IOException {
+		String header = "HTTP/1.0 200 OK\nVia: test\n\n";
+		HandshakeBuffer buffer = HandshakeBuffer.get();
+
+		int size = buffer.readHeader(stream(header), 8192, PREFIX);
+
+		assertEquals(header, buffer.toString(0, size));
+	}
+
+	@Test
+	public void singleLineBreaksDoNotEndTheHeader() throws IOException {
+		String header = "HTTP/1.1 407 Proxy Authentication Required\r\nA: \r\nB: \n\r\n\r\n";
+		HandshakeBuffer buffer = HandshakeBuffer.get();
+
+		assertEquals(header.length(), buffer.readHeader(stream(header), 8192, PREFIX));
+	}
+
+	@Test
+	public void readStopsAtTheFirstTunnelledByte() throws IOException {
+		String header = "HTTP/1.1 200 OK\r\n\r\n";
+		InputStream in = stream(header + "220 FTP server ready\r\n");
+		HandshakeBuffer buffer = HandshakeBuffer.get();
+
+		assertEquals(header.length(), buffer.readHeader(in, 8192, PREFIX));
+		assertEquals('2', in.read());
+	}
+
+	@Test
+	public void headerOfMaxSizeIsRead() throws IOException {
+		String header = "HTTP/1.1 200 OK\r\n\r\n";
+		HandshakeBuffer buffer = HandshakeBuffer.get();
+
+		assertEquals(header.length(), buffer.readHeader(stream(header), header.length(), PREFIX));
+	}
+
+	@Test
+	public void headerOverMaxSizeFails() {
+		String header = "HTTP/1.1 200 OK\r\nX-Padding: 0123456789\r\n\r\n";
+		try {
+			HandshakeBuffer.get().readHeader(stream(header), 32, PREFIX);
+			fail("header over the limit accepted");
+		}
+		catch (IOException e) {
+			assertEquals(PREFIX + "response header exceeds 32 bytes", e.getMessage());
+		}
+	}
+
+	@Test
+	public void closedStreamFails() throws IOException {
+		try {
+			HandshakeBuffer.get().readHeader(stream("HTTP/1.1 200 OK\r\n"), 8192, PREFIX);
+			fail("incomplete header accepted");
+		}
+		catch (EOFException e) {
+			assertEquals(PREFIX + "connection closed by the proxy", e.getMessage());
+		}
+	}
+
+	@Test
+	public void bufferGrowsAndIsReusedEmpty() throws IOException {
+		StringBuilder header = new StringBuilder("HTTP/1.1 200 OK\r\n");
+		while(header.length() < 2000)
+			header.append("X-Padding: 0123456789\r\n");
+		header.append("\r\n");
+
+		HandshakeBuffer buffer = HandshakeBuffer.get();
+		assertEquals(header.length(), buffer.readHeader(stream(header.toString()), 8192, PREFIX));
+		assertEquals(0, HandshakeBuffer.get().size());
+	}
+
+	private static InputStream stream(String text) throws IOException {
+		return new ByteArrayInputStream(text.getBytes("ISO-8859-1"));
+	}
+}
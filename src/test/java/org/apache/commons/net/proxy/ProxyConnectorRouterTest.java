@@ -0,0 +1,171 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.net.proxy;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+
+import org.junit.Test;
+
+public class ProxyConnectorRouterTest {
+	@Test
+	public void globMatchesTheName() throws IOException {
+		ProxyConnectorRouter.Rule rule = rule("*.partner.com");
+
+		assertTrue(rule.matches("ftp.partner.com", null));
+		assertTrue(rule.matches("a.b.partner.com", null));
+		assertFalse(rule.matches("partner.com", null));
+		assertFalse(rule.matches("ftp.partner.com.evil", null));
+		assertFalse(rule.matches("ftpxpartner.com", null));
+	}
+
+	@Test
+	public void globQuestionMarkIsOneCharacter() throws IOException {
+		ProxyConnectorRouter.Rule rule = rule("ftp?.domain.lan");
+
+		assertTrue(rule.matches("ftp1.domain.lan", null));
+		assertFalse(rule.matches("ftp.domain.lan", null));
+		assertFalse(rule.matches("ftp12.domain.lan", null));
+	}
+
+	@Test
+	public void globIsCaseInsensitive() throws IOException {
+		assertTrue(rule("FTP.Partner.COM").matches("ftp.partner.com", null));
+	}
+
+	@Test
+	public void globMatchesTheAddress() throws IOException {
+		ProxyConnectorRouter.Rule rule = rule("192.168.1.*");
+
+		assertTrue(rule.matches(null, address("192.168.1.20")));
+		assertTrue(rule.matches("server", address("192.168.1.20")));
+		assertFalse(rule.matches(null, address("192.168.10.20")));
+		assertFalse(rule.matches("server", address("192.168.10.20")));
+	}
+
+	@Test
+	public void domainMatchesItselfAndTheSubdomains() throws IOException {
+		ProxyConnectorRouter.Rule rule = rule(".Domain.lan");
+
+		assertTrue(rule.matches("domain.lan", null));
+		assertTrue(rule.matches("ftp.domain.lan", null));
+		assertTrue(rule.matches("a.ftp.domain.lan", null));
+		assertFalse(rule.matches("otherdomain.lan", null));
+		assertFalse(rule.matches("domain.lan.example.com", null));
+		assertFalse(rule.matches(null, address("10.1.2.3")));
+	}
+
+	@Test
+	public void rangeMatchesTheAddress() throws IOException {
+		ProxyConnectorRouter.Rule rule = rule("10.0.0.0/8");
+
+		assertTrue(rule.matches(null, address("10.0.0.1")));
+		assertTrue(rule.matches(null, address("10.255.255.255")));
+		assertFalse(rule.matches(null, address("11.0.0.1")));
+		// The names are not resolved for the routing.
+		assertFalse(rule.matches("localhost", null));
+	}
+
+	@Test
+	public void rangeOfPartialByte() throws IOException {
+		ProxyConnectorRouter.Rule rule = rule("172.16.0.0/12");
+
+		assertTrue(rule.matches(null, address("172.16.0.1")));
+		assertTrue(rule.matches(null, address("172.31.255.254")));
+		assertFalse(rule.matches(null, address("172.32.0.1")));
+		assertFalse(rule.matches(null, address("172.15.255.255")));
+	}
+
+	@Test
+	public void rangeOfZeroPrefixMatchesTheFamily() throws IOException {
+		ProxyConnectorRouter.Rule rule = rule("0.0.0.0/0");
+
+		assertTrue(rule.matches(null, address("203.0.113.7")));
+		assertFalse(rule.matches(null, address("2001:db8::1")));
+	}
+
+	@Test
+	public void rangeOfIpv6() throws IOException {
+		ProxyConnectorRouter.Rule rule = rule("fd00::/8");
+
+		assertTrue(rule.matches(null, address("fd12:3456::1")));
+		assertFalse(rule.matches(null, address("fe80::1")));
+		assertFalse(rule.matches(null, address("10.0.0.1")));
+	}
+
+	@Test(expected = MalformedURLException.class)
+	public void rangeOfNameFails() throws IOException {
+		rule("localhost/8");
+	}
+
+	@Test(expected = MalformedURLException.class)
+	public void rangeOfLongPrefixFails() throws IOException {
+		rule("10.0.0.0/33");
+	}
+
+	@Test(expected = MalformedURLException.class)
+	public void rangeWithoutPrefixFails() throws IOException {
+		rule("10.0.0.0/x");
+	}
+
+	@Test
+	public void firstMatchingRuleWins() throws IOException {
+		ProxyConnector defaultConnector = new ProxyConnector();
+		ProxyConnectorRouter router = new ProxyConnectorRouter(defaultConnector, ".domain.lan,10.0.0.0/8",
+				"*.partner.com=DIRECT;*=DIRECT");
+		router.setCacheTimeout(0);
+
+		ProxyConnector direct = router.route(InetSocketAddress.createUnresolved("x.Domain.lan", 21));
+		assertNotSame(defaultConnector, direct);
+		assertSame(direct, router.route(new InetSocketAddress(address("10.1.2.3"), 21)));
+		assertSame(direct, router.route(InetSocketAddress.createUnresolved("ftp.partner.com", 21)));
+		assertSame(direct, router.route(InetSocketAddress.createUnresolved("ftp.example.com", 21)));
+	}
+
+	@Test
+	public void hostWithoutRuleGoesToTheDefaultConnector() throws IOException {
+		ProxyConnector defaultConnector = new ProxyConnector();
+		ProxyConnectorRouter router = new ProxyConnectorRouter(defaultConnector, ".domain.lan", "*.partner.com=DIRECT");
+
+		assertSame(defaultConnector, router.route(InetSocketAddress.createUnresolved("ftp.example.com", 21)));
+		assertSame(defaultConnector, router.route(new InetSocketAddress(address("10.1.2.3"), 21)));
+		assertNotSame(defaultConnector, router.route(InetSocketAddress.createUnresolved("ftp.domain.lan", 21)));
+	}
+
+	@Test(expected = MalformedURLException.class)
+	public void routeWithoutTargetFails() throws IOException {
+		new ProxyConnectorRouter(new ProxyConnector(), null, "*.partner.com=");
+	}
+
+	private static ProxyConnectorRouter.Rule rule(String pattern) throws MalformedURLException {
+		return new ProxyConnectorRouter.Rule(pattern, ProxyConnectorRouter.DIRECT, null);
+	}
+
+	/**
+	 * @return address of the literal without a host name
+	 */
+	private static InetAddress address(String literal) throws IOException {
+		return InetAddress.getByAddress(InetAddress.getByName(literal).getAddress());
+	}
+}